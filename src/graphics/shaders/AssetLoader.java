@@ -0,0 +1,157 @@
+/**
+ * Loads meshes in parallel on a small worker pool.
+ * The Renderer queues every mesh it needs when it's constructed and joins
+ * them all in onSurfaceCreated, before anything is uploaded to OpenGL.
+ *
+ * A mesh that can't be loaded fails its Future with the IOException, and
+ * the join reports it. The object is then drawn with a placeholder (see
+ * Object3D.getMesh), instead of failing later on the GL thread.
+ */
+
+package graphics.shaders;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import android.content.Context;
+import android.util.Log;
+
+class AssetLoader {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	private static final String TAG = "AssetLoader";
+
+	// Context - to open the resources
+	private Context mContext;
+
+	// the worker pool - null once everything was joined
+	private ExecutorService _pool;
+
+	// queued meshes + how long each one took
+	private ArrayList<Future<Mesh>> _meshes = new ArrayList<Future<Mesh>>();
+	private ArrayList<MeshTask> _tasks = new ArrayList<MeshTask>();
+
+	// when the first mesh was queued
+	private long _startNs;
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	public AssetLoader(Context context) {
+		this(context, Runtime.getRuntime().availableProcessors());
+	}
+
+	public AssetLoader(Context context, int numThreads) {
+		mContext = context;
+		_pool = Executors.newFixedThreadPool(Math.max(1, numThreads));
+	}
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * Queues a mesh to be loaded on the pool
+	 * @param meshID the mesh file (raw resource)
+	 * @return the mesh, once it's loaded
+	 */
+	public Future<Mesh> loadMesh(int meshID) {
+		if (_pool == null)
+			throw new IllegalStateException("AssetLoader was already joined");
+
+		if (_tasks.isEmpty())
+			_startNs = System.nanoTime();
+
+		MeshTask task = new MeshTask(meshID);
+		_tasks.add(task);
+		Future<Mesh> mesh = _pool.submit(task);
+		_meshes.add(mesh);
+		return mesh;
+	}
+
+	/**
+	 * Waits for every queued mesh, logs the timings and shuts the pool down.
+	 * Safe to call more than once.
+	 */
+	public void awaitAll() {
+		if (_pool == null)
+			return;
+
+		for (int i = 0; i < _meshes.size(); i++) {
+			try {
+				getUninterruptibly(_meshes.get(i));
+			} catch (ExecutionException e) {
+				Log.e(TAG, "Could not load mesh " + name(_tasks.get(i).meshID) + ", drawing a placeholder: " + e.getCause());
+			}
+		}
+
+		_pool.shutdown();
+		_pool = null;
+
+		// timings
+		long wallNs = System.nanoTime() - _startNs;
+		long serialNs = 0;
+		for (int i = 0; i < _tasks.size(); i++) {
+			MeshTask task = _tasks.get(i);
+			serialNs += task.loadNs;
+			Log.d(TAG, name(task.meshID) + ": " + task.loadNs / 1000000.0f + " ms");
+		}
+		Log.d(TAG, _tasks.size() + " meshes in " + wallNs / 1000000.0f + " ms ("
+				+ serialNs / 1000000.0f + " ms if loaded one after another)");
+	}
+
+	/**
+	 * Waits for a mesh even if the thread is interrupted - the load is
+	 * bounded, and giving up would turn a good mesh into a placeholder for
+	 * good. The interrupt is restored afterwards.
+	 * @throws ExecutionException if the mesh failed to load
+	 */
+	public static Mesh getUninterruptibly(Future<Mesh> mesh) throws ExecutionException {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return mesh.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	private String name(int meshID) {
+		try {
+			return mContext.getResources().getResourceEntryName(meshID);
+		} catch (Exception e) {
+			return String.valueOf(meshID);
+		}
+	}
+
+	/**
+	 * Loads one mesh and times it
+	 */
+	private class MeshTask implements Callable<Mesh> {
+		final int meshID;
+		volatile long loadNs;
+
+		MeshTask(int meshID) {
+			this.meshID = meshID;
+		}
+
+		public Mesh call() throws IOException {
+			long start = System.nanoTime();
+			Mesh mesh = new Mesh(meshID, mContext);
+			loadNs = System.nanoTime() - start;
+			return mesh;
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/**
+ * Keeps static vertex/index data in GPU buffer objects (VBOs/IBOs).
+ *
+ * Client buffers (the direct buffers of meshes and chunks) are uploaded
+ * once with GL_STATIC_DRAW and looked up by identity afterwards, so drawing
+ * them doesn't copy anything from the CPU. The client buffers are kept:
+ * buffer objects die with the EGL context, and after a context loss
+ * onContextCreated() forgets the dead handles so the next upload makes
+ * new ones.
+ *
+ * All methods must be called on the GL thread.
+ */
+
+package graphics.shaders;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+public class BufferManager {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	// client buffer -> buffer object of the current context
+	private IdentityHashMap<Buffer, Integer> _arrayBuffers = new IdentityHashMap<Buffer, Integer>();
+	private IdentityHashMap<Buffer, Integer> _elementBuffers = new IdentityHashMap<Buffer, Integer>();
+
+	// bytes currently uploaded
+	private int _uploadedBytes;
+
+	private int[] _handle = new int[1];
+
+	private GLState.GL _gles;
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	public BufferManager(GLState gl) {
+		this._gles = gl.get_gles();
+	}
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * A new EGL context - the old one took its buffer objects with it.
+	 * Call from onSurfaceCreated before uploading anything.
+	 */
+	public void onContextCreated() {
+		_arrayBuffers.clear();
+		_elementBuffers.clear();
+		_uploadedBytes = 0;
+	}
+
+	/**
+	 * @return the vertex buffer object holding data - uploaded on first use
+	 */
+	public int arrayBuffer(Buffer data) {
+		return buffer(_arrayBuffers, GLES20.GL_ARRAY_BUFFER, data);
+	}
+
+	/**
+	 * @return the index buffer object holding data - uploaded on first use
+	 */
+	public int elementBuffer(Buffer data) {
+		return buffer(_elementBuffers, GLES20.GL_ELEMENT_ARRAY_BUFFER, data);
+	}
+
+	/**
+	 * Uploads every chunk of every level of detail of the mesh
+	 * @param intIndicesSupported the chunking the renderer draws with
+	 */
+	public void upload(Mesh mesh, boolean intIndicesSupported) {
+		for (int lod = 0; lod < mesh.get_numLods(); lod++) {
+			MeshChunk[] chunks = mesh.getChunks(intIndicesSupported, lod);
+			for (int c = 0; c < chunks.length; c++) {
+				arrayBuffer(chunks[c].get_vb());
+				elementBuffer(chunks[c].get_ib());
+			}
+		}
+	}
+
+	/**
+	 * Deletes the buffer objects of the mesh's chunks
+	 */
+	public void release(Mesh mesh, boolean intIndicesSupported) {
+		for (int lod = 0; lod < mesh.get_numLods(); lod++) {
+			MeshChunk[] chunks = mesh.getChunks(intIndicesSupported, lod);
+			for (int c = 0; c < chunks.length; c++) {
+				release(_arrayBuffers, chunks[c].get_vb());
+				release(_elementBuffers, chunks[c].get_ib());
+			}
+		}
+	}
+
+	/**
+	 * Deletes every buffer object - the context must still be current
+	 */
+	public void releaseAll() {
+		releaseAll(_arrayBuffers);
+		releaseAll(_elementBuffers);
+		_uploadedBytes = 0;
+	}
+
+	private int buffer(IdentityHashMap<Buffer, Integer> buffers, int target, Buffer data) {
+		Integer handle = buffers.get(data);
+		if (handle != null)
+			return handle.intValue();
+
+		_gles.genBuffers(1, _handle, 0);
+		int size = sizeInBytes(data);
+		data.position(0);
+		_gles.bindBuffer(target, _handle[0]);
+		_gles.bufferData(target, size, data, GLES20.GL_STATIC_DRAW);
+		_gles.bindBuffer(target, 0);
+
+		buffers.put(data, Integer.valueOf(_handle[0]));
+		_uploadedBytes += size;
+		Log.d("BufferManager", "Uploaded " + size + " bytes to buffer " + _handle[0]);
+		return _handle[0];
+	}
+
+	private void release(IdentityHashMap<Buffer, Integer> buffers, Buffer data) {
+		Integer handle = buffers.remove(data);
+		if (handle == null)
+			return;
+		_handle[0] = handle.intValue();
+		_gles.deleteBuffers(1, _handle, 0);
+		_uploadedBytes -= sizeInBytes(data);
+	}
+
+	private void releaseAll(IdentityHashMap<Buffer, Integer> buffers) {
+		Iterator<Integer> it = buffers.values().iterator();
+		while (it.hasNext()) {
+			_handle[0] = it.next().intValue();
+			_gles.deleteBuffers(1, _handle, 0);
+		}
+		buffers.clear();
+	}
+
+	private static int sizeInBytes(Buffer data) {
+		int capacity = data.capacity();
+		if (data instanceof ByteBuffer)
+			return capacity;
+		if (data instanceof ShortBuffer)
+			return capacity * 2;
+		if (data instanceof IntBuffer || data instanceof FloatBuffer)
+			return capacity * 4;
+		throw new IllegalArgumentException("Unsupported buffer " + data.getClass().getName());
+	}
+
+	/***************************
+	 * GET/SET
+	 *************************/
+	public int get_uploadedBytes() {
+		return _uploadedBytes;
+	}
+}
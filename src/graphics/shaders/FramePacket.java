@@ -0,0 +1,105 @@
+/**
+ * What the UI wants drawn: camera rotation, model scale, the selected
+ * object and shader, and the toggles. Immutable - the UI thread publishes a
+ * new one for every change and the GL thread reads whichever one is latest
+ * when a frame starts, so a frame never sees half of an update.
+ */
+
+package graphics.shaders;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+public final class FramePacket {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	private final float _angleX;
+	private final float _angleY;
+	private final float _scaleX, _scaleY, _scaleZ;
+	private final int _object;
+	private final int _shader;
+	private final boolean _texturing;
+	private final boolean _lightRotating;
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	public FramePacket(float angleX, float angleY, float scaleX, float scaleY, float scaleZ,
+			int object, int shader, boolean texturing, boolean lightRotating) {
+		this._angleX = angleX;
+		this._angleY = angleY;
+		this._scaleX = scaleX;
+		this._scaleY = scaleY;
+		this._scaleZ = scaleZ;
+		this._object = object;
+		this._shader = shader;
+		this._texturing = texturing;
+		this._lightRotating = lightRotating;
+	}
+
+	/**************************
+	 * SLOT
+	 *************************/
+
+	/**
+	 * Single producer/single consumer hand-off of the latest packet.
+	 * publish() and latest() never block; packets are immutable so the
+	 * consumer may keep using one while the producer publishes the next.
+	 */
+	public static class Slot {
+		private final AtomicReference<FramePacket> _latest;
+
+		public Slot(FramePacket initial) {
+			_latest = new AtomicReference<FramePacket>(initial);
+		}
+
+		// producer side
+		public void publish(FramePacket packet) {
+			_latest.set(packet);
+		}
+
+		// consumer side
+		public FramePacket latest() {
+			return _latest.get();
+		}
+	}
+
+	/***************************
+	 * GET/SET
+	 *************************/
+	public float get_angleX() {
+		return _angleX;
+	}
+
+	public float get_angleY() {
+		return _angleY;
+	}
+
+	public float get_scaleX() {
+		return _scaleX;
+	}
+
+	public float get_scaleY() {
+		return _scaleY;
+	}
+
+	public float get_scaleZ() {
+		return _scaleZ;
+	}
+
+	public int get_object() {
+		return _object;
+	}
+
+	public int get_shader() {
+		return _shader;
+	}
+
+	public boolean isTexturing() {
+		return _texturing;
+	}
+
+	public boolean isLightRotating() {
+		return _lightRotating;
+	}
+}
@@ -0,0 +1,91 @@
+/**
+ * The six planes of a view frustum, extracted from a projection * view
+ * (* model) matrix (Gribb/Hartmann). The planes are in the space the matrix
+ * maps from: with the MVP matrix they are in object space, so object
+ * space bounds can be tested as they are.
+ *
+ * Planes point inwards: a point p is inside a plane if
+ * a * p.x + b * p.y + c * p.z + d >= 0.
+ */
+
+package graphics.shaders;
+
+public class Frustum {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	// results of classify()
+	public static final int OUTSIDE = 0;
+	public static final int INTERSECTS = 1;
+	public static final int INSIDE = 2;
+
+	private static final int NUM_PLANES = 6;
+
+	// a, b, c, d per plane: left, right, bottom, top, near, far
+	private float[] _planes = new float[NUM_PLANES * 4];
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	public Frustum() {
+
+	}
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * Extracts the planes
+	 * @param m column-major matrix (android.opengl.Matrix layout), clip = m * v
+	 */
+	public void set(float[] m) {
+		// row i of m is (m[i], m[4 + i], m[8 + i], m[12 + i]); planes are row 3 +- row 0, 1, 2
+		for (int p = 0; p < NUM_PLANES; p++) {
+			int row = p / 2;
+			float sign = (p % 2 == 0) ? 1.0f : -1.0f;
+			float a = m[3] + sign * m[row];
+			float b = m[7] + sign * m[4 + row];
+			float c = m[11] + sign * m[8 + row];
+			float d = m[15] + sign * m[12 + row];
+
+			// normalized, so plane distances are real distances
+			float len = (float)Math.sqrt(a * a + b * b + c * c);
+			if (len > 0) {
+				a /= len;
+				b /= len;
+				c /= len;
+				d /= len;
+			}
+			_planes[p * 4] = a;
+			_planes[p * 4 + 1] = b;
+			_planes[p * 4 + 2] = c;
+			_planes[p * 4 + 3] = d;
+		}
+	}
+
+	/**
+	 * Classifies an axis-aligned box
+	 * @param bounds min x, y, z, max x, y, z starting at offset
+	 * @return OUTSIDE, INTERSECTS or INSIDE. Boxes near a corner of the
+	 *         frustum may be reported INTERSECTS though they are outside.
+	 */
+	public int classify(float[] bounds, int offset) {
+		float minX = bounds[offset], minY = bounds[offset + 1], minZ = bounds[offset + 2];
+		float maxX = bounds[offset + 3], maxY = bounds[offset + 4], maxZ = bounds[offset + 5];
+
+		int result = INSIDE;
+		for (int p = 0; p < NUM_PLANES * 4; p += 4) {
+			float a = _planes[p], b = _planes[p + 1], c = _planes[p + 2], d = _planes[p + 3];
+
+			// the corner furthest along the plane normal, and the one furthest against it
+			float far = a * (a >= 0 ? maxX : minX) + b * (b >= 0 ? maxY : minY) + c * (c >= 0 ? maxZ : minZ) + d;
+			if (far < 0)
+				return OUTSIDE;
+			float near = a * (a >= 0 ? minX : maxX) + b * (b >= 0 ? minY : maxY) + c * (c >= 0 ? minZ : maxZ) + d;
+			if (near < 0)
+				result = INTERSECTS;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,575 @@
+/**
+ * Shadows the GL state the renderer changes every frame and drops calls
+ * that wouldn't change anything: the current program, the active texture
+ * unit and the texture bound to each unit, the enabled vertex attribute
+ * arrays, and the last value sent to every uniform of every program.
+ *
+ * Only works if every such call goes through here. State changed behind
+ * its back needs reset(), and so does a new context - it starts from the
+ * GL defaults (no program, texture 0, all arrays disabled).
+ * Counts issued and filtered calls to show what it saves - uniform calls
+ * for location -1 separately, as GL would have ignored them anyway.
+ *
+ * Every GL call of the renderer goes through GL - the filtered ones here,
+ * the rest straight through get_gles() - so the frame loop can run against
+ * a stub in tests.
+ */
+
+package graphics.shaders;
+
+import java.nio.Buffer;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.opengl.GLUtils;
+
+public class GLState {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+
+	/**
+	 * The GL calls of the renderer - GLES20 names without the gl prefix
+	 */
+	public interface GL {
+		// state GLState filters
+		void useProgram(int program);
+		void activeTexture(int texture);
+		void bindTexture(int target, int texture);
+		void enableVertexAttribArray(int index);
+		void disableVertexAttribArray(int index);
+		void uniform1f(int location, float x);
+		void uniform1i(int location, int x);
+		void uniform3fv(int location, int count, float[] v, int offset);
+		void uniform4fv(int location, int count, float[] v, int offset);
+		void uniformMatrix4fv(int location, int count, boolean transpose, float[] m, int offset);
+
+		// drawing
+		void clearColor(float red, float green, float blue, float alpha);
+		void clear(int mask);
+		void viewport(int x, int y, int width, int height);
+		void bindFramebuffer(int target, int framebuffer);
+		void bindBuffer(int target, int buffer);
+		void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset);
+		void vertexAttrib4f(int index, float x, float y, float z, float w);
+		void drawElements(int mode, int count, int type, int offset);
+		int getError();
+
+		// context setup
+		String getString(int name);
+		void enable(int cap);
+		void clearDepthf(float depth);
+		void depthFunc(int func);
+		void depthMask(boolean flag);
+		void cullFace(int mode);
+
+		// buffer objects
+		void genBuffers(int n, int[] buffers, int offset);
+		void bufferData(int target, int size, Buffer data, int usage);
+		void deleteBuffers(int n, int[] buffers, int offset);
+
+		// textures and render targets
+		void genTextures(int n, int[] textures, int offset);
+		void deleteTextures(int n, int[] textures, int offset);
+		void texParameteri(int target, int pname, int param);
+		void texImage2D(int target, int level, int internalformat, int width, int height, int border,
+				int format, int type, Buffer pixels);
+		void texImage2D(int target, int level, Bitmap bitmap);
+		void genRenderbuffers(int n, int[] renderbuffers, int offset);
+		void bindRenderbuffer(int target, int renderbuffer);
+		void renderbufferStorage(int target, int internalformat, int width, int height);
+		void deleteRenderbuffers(int n, int[] renderbuffers, int offset);
+		void genFramebuffers(int n, int[] framebuffers, int offset);
+		void framebufferTexture2D(int target, int attachment, int textarget, int texture, int level);
+		void framebufferRenderbuffer(int target, int attachment, int renderbuffertarget, int renderbuffer);
+		int checkFramebufferStatus(int target);
+		void deleteFramebuffers(int n, int[] framebuffers, int offset);
+	}
+
+	// the real thing - the context of the calling thread
+	public static final GL GLES20_CALLS = new GL() {
+		public void useProgram(int program) {
+			GLES20.glUseProgram(program);
+		}
+
+		public void activeTexture(int texture) {
+			GLES20.glActiveTexture(texture);
+		}
+
+		public void bindTexture(int target, int texture) {
+			GLES20.glBindTexture(target, texture);
+		}
+
+		public void enableVertexAttribArray(int index) {
+			GLES20.glEnableVertexAttribArray(index);
+		}
+
+		public void disableVertexAttribArray(int index) {
+			GLES20.glDisableVertexAttribArray(index);
+		}
+
+		public void uniform1f(int location, float x) {
+			GLES20.glUniform1f(location, x);
+		}
+
+		public void uniform1i(int location, int x) {
+			GLES20.glUniform1i(location, x);
+		}
+
+		public void uniform3fv(int location, int count, float[] v, int offset) {
+			GLES20.glUniform3fv(location, count, v, offset);
+		}
+
+		public void uniform4fv(int location, int count, float[] v, int offset) {
+			GLES20.glUniform4fv(location, count, v, offset);
+		}
+
+		public void uniformMatrix4fv(int location, int count, boolean transpose, float[] m, int offset) {
+			GLES20.glUniformMatrix4fv(location, count, transpose, m, offset);
+		}
+
+		public void clearColor(float red, float green, float blue, float alpha) {
+			GLES20.glClearColor(red, green, blue, alpha);
+		}
+
+		public void clear(int mask) {
+			GLES20.glClear(mask);
+		}
+
+		public void viewport(int x, int y, int width, int height) {
+			GLES20.glViewport(x, y, width, height);
+		}
+
+		public void bindFramebuffer(int target, int framebuffer) {
+			GLES20.glBindFramebuffer(target, framebuffer);
+		}
+
+		public void bindBuffer(int target, int buffer) {
+			GLES20.glBindBuffer(target, buffer);
+		}
+
+		public void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+			GLES20.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+		}
+
+		public void vertexAttrib4f(int index, float x, float y, float z, float w) {
+			GLES20.glVertexAttrib4f(index, x, y, z, w);
+		}
+
+		public void drawElements(int mode, int count, int type, int offset) {
+			GLES20.glDrawElements(mode, count, type, offset);
+		}
+
+		public int getError() {
+			return GLES20.glGetError();
+		}
+
+		public String getString(int name) {
+			return GLES20.glGetString(name);
+		}
+
+		public void enable(int cap) {
+			GLES20.glEnable(cap);
+		}
+
+		public void clearDepthf(float depth) {
+			GLES20.glClearDepthf(depth);
+		}
+
+		public void depthFunc(int func) {
+			GLES20.glDepthFunc(func);
+		}
+
+		public void depthMask(boolean flag) {
+			GLES20.glDepthMask(flag);
+		}
+
+		public void cullFace(int mode) {
+			GLES20.glCullFace(mode);
+		}
+
+		public void genBuffers(int n, int[] buffers, int offset) {
+			GLES20.glGenBuffers(n, buffers, offset);
+		}
+
+		public void bufferData(int target, int size, Buffer data, int usage) {
+			GLES20.glBufferData(target, size, data, usage);
+		}
+
+		public void deleteBuffers(int n, int[] buffers, int offset) {
+			GLES20.glDeleteBuffers(n, buffers, offset);
+		}
+
+		public void genTextures(int n, int[] textures, int offset) {
+			GLES20.glGenTextures(n, textures, offset);
+		}
+
+		public void deleteTextures(int n, int[] textures, int offset) {
+			GLES20.glDeleteTextures(n, textures, offset);
+		}
+
+		public void texParameteri(int target, int pname, int param) {
+			GLES20.glTexParameteri(target, pname, param);
+		}
+
+		public void texImage2D(int target, int level, int internalformat, int width, int height, int border,
+				int format, int type, Buffer pixels) {
+			GLES20.glTexImage2D(target, level, internalformat, width, height, border, format, type, pixels);
+		}
+
+		public void texImage2D(int target, int level, Bitmap bitmap) {
+			GLUtils.texImage2D(target, level, bitmap, 0);
+		}
+
+		public void genRenderbuffers(int n, int[] renderbuffers, int offset) {
+			GLES20.glGenRenderbuffers(n, renderbuffers, offset);
+		}
+
+		public void bindRenderbuffer(int target, int renderbuffer) {
+			GLES20.glBindRenderbuffer(target, renderbuffer);
+		}
+
+		public void renderbufferStorage(int target, int internalformat, int width, int height) {
+			GLES20.glRenderbufferStorage(target, internalformat, width, height);
+		}
+
+		public void deleteRenderbuffers(int n, int[] renderbuffers, int offset) {
+			GLES20.glDeleteRenderbuffers(n, renderbuffers, offset);
+		}
+
+		public void genFramebuffers(int n, int[] framebuffers, int offset) {
+			GLES20.glGenFramebuffers(n, framebuffers, offset);
+		}
+
+		public void framebufferTexture2D(int target, int attachment, int textarget, int texture, int level) {
+			GLES20.glFramebufferTexture2D(target, attachment, textarget, texture, level);
+		}
+
+		public void framebufferRenderbuffer(int target, int attachment, int renderbuffertarget, int renderbuffer) {
+			GLES20.glFramebufferRenderbuffer(target, attachment, renderbuffertarget, renderbuffer);
+		}
+
+		public int checkFramebufferStatus(int target) {
+			return GLES20.glCheckFramebufferStatus(target);
+		}
+
+		public void deleteFramebuffers(int n, int[] framebuffers, int offset) {
+			GLES20.glDeleteFramebuffers(n, framebuffers, offset);
+		}
+	};
+
+	// GL ES 2.0 guarantees at least 8 of each
+	private static final int MAX_TEXTURE_UNITS = 32;
+	private static final int MAX_VERTEX_ATTRIBS = 32;
+
+	private final GL _gles;
+
+	private int _program;
+	private int _activeTexture;				// unit index, not GL_TEXTURE0 + unit
+	private int[] _boundTextures = new int[MAX_TEXTURE_UNITS];
+	private boolean[] _enabledAttributes = new boolean[MAX_VERTEX_ATTRIBS];
+
+	// last uniform values - per program, indexed by location.
+	// A short list instead of a map: no boxing of program ids per frame
+	private int[] _programIds = new int[4];
+	private float[][][] _programUniforms = new float[4][][];
+	private int _numPrograms;
+	private int _current = -1;		// index of the current program in the list
+
+	// statistics
+	private int _issuedCalls;
+	private int _filteredCalls;
+	private int _inactiveCalls;
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	public GLState() {
+		this(GLES20_CALLS);
+	}
+
+	public GLState(GL gles) {
+		this._gles = gles;
+		reset();
+	}
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * Forgets everything - the next call of every kind goes through.
+	 * Call for a new context, before any other call.
+	 */
+	public void reset() {
+		_program = -1;
+		_activeTexture = -1;
+		for (int i = 0; i < MAX_TEXTURE_UNITS; i++)
+			_boundTextures[i] = -1;
+		for (int i = 0; i < MAX_VERTEX_ATTRIBS; i++)
+			_enabledAttributes[i] = false;
+		for (int i = 0; i < _numPrograms; i++)
+			_programUniforms[i] = null;
+		_numPrograms = 0;
+		_current = -1;
+	}
+
+	/**
+	 * Forgets the uniform values of a program - call when it is deleted,
+	 * its id may come back for another program
+	 */
+	public void forgetProgram(int program) {
+		int i = indexOf(program);
+		if (i < 0)
+			return;
+
+		// move the last one into its place
+		_numPrograms--;
+		_programIds[i] = _programIds[_numPrograms];
+		_programUniforms[i] = _programUniforms[_numPrograms];
+		_programUniforms[_numPrograms] = null;
+
+		if (program == _program) {
+			_program = -1;
+			_current = -1;
+		}
+		else if (_current == _numPrograms) {
+			_current = i;
+		}
+	}
+
+	/**
+	 * Forgets a texture - call when it is deleted. GL unbinds it and
+	 * its id may come back for another texture.
+	 */
+	public void forgetTexture(int texture) {
+		for (int i = 0; i < MAX_TEXTURE_UNITS; i++)
+			if (_boundTextures[i] == texture)
+				_boundTextures[i] = -1;
+	}
+
+	public void useProgram(int program) {
+		if (program == _program) {
+			_filteredCalls++;
+			return;
+		}
+		_gles.useProgram(program);
+		_issuedCalls++;
+		_program = program;
+
+		_current = indexOf(program);
+		if (_current < 0) {
+			if (_numPrograms == _programIds.length) {
+				int[] ids = new int[_numPrograms * 2];
+				float[][][] uniforms = new float[_numPrograms * 2][][];
+				System.arraycopy(_programIds, 0, ids, 0, _numPrograms);
+				System.arraycopy(_programUniforms, 0, uniforms, 0, _numPrograms);
+				_programIds = ids;
+				_programUniforms = uniforms;
+			}
+			_current = _numPrograms++;
+			_programIds[_current] = program;
+			_programUniforms[_current] = new float[0][];
+		}
+	}
+
+	private int indexOf(int program) {
+		for (int i = 0; i < _numPrograms; i++)
+			if (_programIds[i] == program)
+				return i;
+		return -1;
+	}
+
+	/**
+	 * @param unit 0, 1, ... (not GL_TEXTURE0 + unit)
+	 */
+	public void activeTexture(int unit) {
+		if (unit == _activeTexture) {
+			_filteredCalls++;
+			return;
+		}
+		_gles.activeTexture(GLES20.GL_TEXTURE0 + unit);
+		_issuedCalls++;
+		_activeTexture = unit;
+	}
+
+	/**
+	 * Binds a GL_TEXTURE_2D texture to the active unit
+	 */
+	public void bindTexture(int texture) {
+		if (_activeTexture >= 0 && _boundTextures[_activeTexture] == texture) {
+			_filteredCalls++;
+			return;
+		}
+		_gles.bindTexture(GLES20.GL_TEXTURE_2D, texture);
+		_issuedCalls++;
+		if (_activeTexture >= 0)
+			_boundTextures[_activeTexture] = texture;
+	}
+
+	public void enableVertexAttribArray(int index) {
+		if (index < 0 || _enabledAttributes[index]) {
+			_filteredCalls++;
+			return;
+		}
+		_gles.enableVertexAttribArray(index);
+		_issuedCalls++;
+		_enabledAttributes[index] = true;
+	}
+
+	public void disableVertexAttribArray(int index) {
+		if (index < 0 || !_enabledAttributes[index]) {
+			_filteredCalls++;
+			return;
+		}
+		_gles.disableVertexAttribArray(index);
+		_issuedCalls++;
+		_enabledAttributes[index] = false;
+	}
+
+	/*************************
+	 * UNIFORMS - of the current program
+	 ************************/
+	public void uniform1f(int location, float x) {
+		if (inactive(location))
+			return;
+		float[] cached = cached(location, 1);
+		if (cached[0] == x) {
+			_filteredCalls++;
+			return;
+		}
+		cached[0] = x;
+		_gles.uniform1f(location, x);
+		_issuedCalls++;
+	}
+
+	public void uniform1i(int location, int x) {
+		if (inactive(location))
+			return;
+		float[] cached = cached(location, 1);
+		if (cached[0] == x) {
+			_filteredCalls++;
+			return;
+		}
+		cached[0] = x;
+		_gles.uniform1i(location, x);
+		_issuedCalls++;
+	}
+
+	public void uniform3fv(int location, float[] v, int offset) {
+		if (inactive(location))
+			return;
+		if (!changed(location, v, offset, 3)) {
+			_filteredCalls++;
+			return;
+		}
+		_gles.uniform3fv(location, 1, v, offset);
+		_issuedCalls++;
+	}
+
+	public void uniform4fv(int location, float[] v, int offset) {
+		if (inactive(location))
+			return;
+		if (!changed(location, v, offset, 4)) {
+			_filteredCalls++;
+			return;
+		}
+		_gles.uniform4fv(location, 1, v, offset);
+		_issuedCalls++;
+	}
+
+	public void uniformMatrix4fv(int location, float[] m, int offset) {
+		if (inactive(location))
+			return;
+		if (!changed(location, m, offset, 16)) {
+			_filteredCalls++;
+			return;
+		}
+		_gles.uniformMatrix4fv(location, 1, false, m, offset);
+		_issuedCalls++;
+	}
+
+	/**
+	 * Compares v with the cached value and stores it if it differs
+	 * @return true if the uniform has to be sent
+	 */
+	private boolean changed(int location, float[] v, int offset, int size) {
+		float[] cached = cached(location, size);
+		boolean changed = false;
+		for (int i = 0; i < size; i++) {
+			if (cached[i] != v[offset + i]) {
+				changed = true;
+				break;
+			}
+		}
+		if (changed)
+			System.arraycopy(v, offset, cached, 0, size);
+		return changed;
+	}
+
+	/**
+	 * Counts a call for location -1 (or without a program) and drops it -
+	 * GL ignores those anyway, so they are not a saved call either
+	 * @return true if the call is to be dropped
+	 */
+	private boolean inactive(int location) {
+		if (location >= 0 && _current >= 0)
+			return false;
+		_inactiveCalls++;
+		return true;
+	}
+
+	/**
+	 * @return the cached value of a uniform of the current program. A new one
+	 *         holds NaN, which compares unequal to everything.
+	 */
+	private float[] cached(int location, int size) {
+		float[][] uniforms = _programUniforms[_current];
+		if (location >= uniforms.length) {
+			float[][] bigger = new float[location + 1][];
+			System.arraycopy(uniforms, 0, bigger, 0, uniforms.length);
+			uniforms = bigger;
+			_programUniforms[_current] = uniforms;
+		}
+		float[] cached = uniforms[location];
+		if (cached == null || cached.length != size) {
+			cached = new float[size];
+			for (int i = 0; i < size; i++)
+				cached[i] = Float.NaN;
+			uniforms[location] = cached;
+		}
+		return cached;
+	}
+
+	/***************************
+	 * GET/SET
+	 *************************/
+
+	/**
+	 * @return the GL the calls go to - for the ones GLState doesn't filter
+	 */
+	public GL get_gles() {
+		return _gles;
+	}
+
+	public int get_issuedCalls() {
+		return _issuedCalls;
+	}
+
+	public int get_filteredCalls() {
+		return _filteredCalls;
+	}
+
+	/**
+	 * @return # of uniform calls for location -1 - not counted as filtered
+	 */
+	public int get_inactiveCalls() {
+		return _inactiveCalls;
+	}
+
+	public void resetCounters() {
+		_issuedCalls = 0;
+		_filteredCalls = 0;
+		_inactiveCalls = 0;
+	}
+}
@@ -0,0 +1,987 @@
+/**
+ * Static analysis and minification of a GLSL ES 1.00 vertex/fragment pair,
+ * run on a variant's sources before they are compiled:
+ *  - #ifdef/#if blocks are resolved with the variant's #defines
+ *  - functions main() never reaches are removed
+ *  - locals that are never read, and vertex shader writes to varyings the
+ *    fragment shader doesn't read, are removed
+ *  - uniforms, attributes and varyings nothing uses anymore are removed
+ *  - float constant expressions (2.0 * 0.5) are folded
+ *  - comments and whitespace are dropped - the remaining directives stay
+ *    on their lines where they were, names in #define bodies count as used
+ * The report lists what was removed, and the fragment inputs that look
+ * like they could be lowp - these are only reported, never changed.
+ *
+ * The analysis is token based and conservative: a declaration is only
+ * removed if nothing refers to it, and only side-effect free statements
+ * are. Sources it can't follow (function-like macros, unbalanced braces)
+ * throw IllegalArgumentException - compile those as they are.
+ *
+ * Pure Java, no GL - it can run anywhere.
+ */
+
+package graphics.shaders;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class GlslOptimizer {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+
+	/**
+	 * The optimized pair and what was done to it
+	 */
+	public static class Result {
+		private final String _vertex;
+		private final String _fragment;
+		private final String _report;
+
+		Result(String vertex, String fragment, String report) {
+			this._vertex = vertex;
+			this._fragment = fragment;
+			this._report = report;
+		}
+
+		public String get_vertex() {
+			return _vertex;
+		}
+
+		public String get_fragment() {
+			return _fragment;
+		}
+
+		public String get_report() {
+			return _report;
+		}
+	}
+
+	// top level items
+	private static final int FUNCTION = 0;
+	private static final int PROTOTYPE = 1;
+	private static final int DECLARATION = 2;	// uniform/attribute/varying
+	private static final int OTHER = 3;			// precision, consts, structs... kept as they are
+	private static final int DIRECTIVE = 4;		// #version, #define... - a line of its own, kept where it was
+
+	// a directive left by resolve() is one token - the whole line
+	private static final Pattern TOKEN = Pattern.compile(
+			"\\s+|(#[^\\n]*)|([A-Za-z_][A-Za-z0-9_]*)|(0[xX][0-9A-Fa-f]+|(?:\\d+\\.\\d*|\\.\\d+|\\d+)(?:[eE][+-]?\\d+)?)"
+			+ "|(<<=|>>=|\\+\\+|--|\\+=|-=|\\*=|/=|==|!=|<=|>=|&&|\\|\\||\\^\\^|<<|>>|[^\\sA-Za-z0-9_])");
+
+	private static final HashSet<String> TYPES = new HashSet<String>(Arrays.asList(
+			"void", "bool", "int", "float", "vec2", "vec3", "vec4", "bvec2", "bvec3", "bvec4",
+			"ivec2", "ivec3", "ivec4", "mat2", "mat3", "mat4", "sampler2D", "samplerCube"));
+
+	private static final HashSet<String> PRECISIONS = new HashSet<String>(Arrays.asList(
+			"lowp", "mediump", "highp"));
+
+	private static final HashSet<String> ASSIGNMENTS = new HashSet<String>(Arrays.asList(
+			"=", "+=", "-=", "*=", "/=", "++", "--"));
+
+	// calls that keep a value in the [0, 1] color range it came in
+	private static final HashSet<String> LOWP_SAFE_CALLS = new HashSet<String>(Arrays.asList(
+			"vec2", "vec3", "vec4", "clamp", "min", "max", "mix"));
+
+	/**
+	 * A top level declaration or function
+	 */
+	private static class Item {
+		int kind;
+		String name;						// function name
+		ArrayList<String> tokens;
+		// DECLARATION: qualifiers and type, then one entry (name [size]) per variable
+		String qualifier;
+		ArrayList<String> head;
+		ArrayList<ArrayList<String>> variables;
+
+		Item(int kind, ArrayList<String> tokens) {
+			this.kind = kind;
+			this.tokens = tokens;
+		}
+	}
+
+	// per optimize() call
+	private StringBuilder _report;
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	public GlslOptimizer() {
+
+	}
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * @return the optimized pair - the fragment shader is done first, so the
+	 *         vertex shader knows which varyings are read
+	 */
+	public Result optimize(String vertexSource, String fragmentSource) {
+		_report = new StringBuilder();
+
+		ArrayList<Item> fs = parse(resolve(fragmentSource));
+		optimize("fragment", fs, null);
+		reportLowp(fs);
+
+		HashSet<String> read = new HashSet<String>();
+		for (int i = 0; i < fs.size(); i++) {
+			Item item = fs.get(i);
+			if (item.kind == DECLARATION && item.qualifier.equals("varying"))
+				for (int v = 0; v < item.variables.size(); v++)
+					read.add(item.variables.get(v).get(0));
+		}
+
+		ArrayList<Item> vs = parse(resolve(vertexSource));
+		optimize("vertex", vs, read);
+
+		String vertex = emit(vs);
+		String fragment = emit(fs);
+		_report.append("size: vertex ").append(vertexSource.length()).append(" -> ").append(vertex.length())
+				.append(", fragment ").append(fragmentSource.length()).append(" -> ").append(fragment.length());
+		return new Result(vertex, fragment, _report.toString());
+	}
+
+	/*************************
+	 * PREPROCESSOR
+	 ************************/
+
+	/**
+	 * Drops comments and resolves the conditionals
+	 * @return the code left - the other directives (#version, #extension,
+	 *         #define...) stay on their lines, where they were
+	 */
+	private String resolve(String source) {
+		String[] lines = stripComments(source).split("\n");
+		HashMap<String, String> macros = new HashMap<String, String>();
+
+		// per #if level: is the branch taken, was one taken already, is the enclosing level live
+		boolean[] taking = new boolean[64];
+		boolean[] taken = new boolean[64];
+		boolean[] live = new boolean[64];
+		int level = 0;
+		live[0] = true;
+		taking[0] = true;
+
+		StringBuilder code = new StringBuilder(source.length());
+		for (int l = 0; l < lines.length; l++) {
+			String line = lines[l].trim();
+			boolean active = taking[level] && live[level];
+
+			if (!line.startsWith("#")) {
+				if (active && line.length() > 0)
+					code.append(line).append('\n');
+				continue;
+			}
+
+			String directive = line.substring(1).trim();
+			String keyword = directive.split("[\\s(]", 2)[0];
+			String rest = directive.substring(keyword.length()).trim();
+
+			if (keyword.equals("ifdef") || keyword.equals("ifndef") || keyword.equals("if")) {
+				if (++level == taking.length)
+					throw new IllegalArgumentException("#if nested too deep");
+				live[level] = active;
+				boolean condition;
+				if (keyword.equals("if"))
+					condition = active && evaluate(rest, macros) != 0;
+				else
+					condition = macros.containsKey(rest) == keyword.equals("ifdef");
+				taking[level] = condition;
+				taken[level] = condition;
+			}
+			else if (keyword.equals("elif")) {
+				if (level == 0)
+					throw new IllegalArgumentException("#elif without #if");
+				boolean condition = !taken[level] && live[level] && evaluate(rest, macros) != 0;
+				taking[level] = condition;
+				taken[level] |= condition;
+			}
+			else if (keyword.equals("else")) {
+				if (level == 0)
+					throw new IllegalArgumentException("#else without #if");
+				taking[level] = !taken[level];
+				taken[level] = true;
+			}
+			else if (keyword.equals("endif")) {
+				if (level == 0)
+					throw new IllegalArgumentException("#endif without #if");
+				level--;
+			}
+			else if (active) {
+				if (keyword.equals("define")) {
+					String[] parts = rest.split("\\s+", 2);
+					if (parts[0].indexOf('(') >= 0)
+						throw new IllegalArgumentException("Function-like macro " + parts[0]);
+					macros.put(parts[0], parts.length > 1 ? parts[1] : "");
+				}
+				else if (keyword.equals("undef")) {
+					macros.remove(rest);
+				}
+				code.append('#').append(keyword).append(rest.length() > 0 ? " " : "").append(rest).append('\n');
+			}
+		}
+		if (level != 0)
+			throw new IllegalArgumentException("#if without #endif");
+		return code.toString();
+	}
+
+	// comments -> a space, line breaks kept so directives stay on their lines
+	private static String stripComments(String source) {
+		StringBuilder out = new StringBuilder(source.length());
+		int i = 0;
+		int n = source.length();
+		while (i < n) {
+			char c = source.charAt(i);
+			if (c == '/' && i + 1 < n && source.charAt(i + 1) == '/') {
+				while (i < n && source.charAt(i) != '\n')
+					i++;
+				out.append(' ');
+			}
+			else if (c == '/' && i + 1 < n && source.charAt(i + 1) == '*') {
+				int end = source.indexOf("*/", i + 2);
+				if (end < 0)
+					throw new IllegalArgumentException("Unterminated comment");
+				for (int k = i; k < end; k++)
+					if (source.charAt(k) == '\n')
+						out.append('\n');
+				out.append(' ');
+				i = end + 2;
+			}
+			else {
+				out.append(c == '\r' ? '\n' : c);
+				i++;
+			}
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Evaluates an #if expression: defined, !, &&, ||, comparisons, integers and macros
+	 */
+	private static int evaluate(String expression, HashMap<String, String> macros) {
+		ArrayList<String> tokens = tokenize(expression);
+		int[] position = {0};
+		int value = evaluateOr(tokens, position, macros);
+		if (position[0] != tokens.size())
+			throw new IllegalArgumentException("Bad #if: " + expression);
+		return value;
+	}
+
+	private static int evaluateOr(ArrayList<String> t, int[] p, HashMap<String, String> macros) {
+		int value = evaluateAnd(t, p, macros);
+		while (p[0] < t.size() && t.get(p[0]).equals("||")) {
+			p[0]++;
+			int right = evaluateAnd(t, p, macros);
+			value = (value != 0 || right != 0) ? 1 : 0;
+		}
+		return value;
+	}
+
+	private static int evaluateAnd(ArrayList<String> t, int[] p, HashMap<String, String> macros) {
+		int value = evaluateRelation(t, p, macros);
+		while (p[0] < t.size() && t.get(p[0]).equals("&&")) {
+			p[0]++;
+			int right = evaluateRelation(t, p, macros);
+			value = (value != 0 && right != 0) ? 1 : 0;
+		}
+		return value;
+	}
+
+	private static int evaluateRelation(ArrayList<String> t, int[] p, HashMap<String, String> macros) {
+		int value = evaluateUnary(t, p, macros);
+		if (p[0] < t.size()) {
+			String op = t.get(p[0]);
+			if (op.equals("==") || op.equals("!=") || op.equals("<") || op.equals(">") || op.equals("<=") || op.equals(">=")) {
+				p[0]++;
+				int right = evaluateUnary(t, p, macros);
+				boolean result;
+				if (op.equals("=="))
+					result = value == right;
+				else if (op.equals("!="))
+					result = value != right;
+				else if (op.equals("<"))
+					result = value < right;
+				else if (op.equals(">"))
+					result = value > right;
+				else if (op.equals("<="))
+					result = value <= right;
+				else
+					result = value >= right;
+				value = result ? 1 : 0;
+			}
+		}
+		return value;
+	}
+
+	private static int evaluateUnary(ArrayList<String> t, int[] p, HashMap<String, String> macros) {
+		if (p[0] >= t.size())
+			throw new IllegalArgumentException("Bad #if");
+		String token = t.get(p[0]++);
+		if (token.equals("!"))
+			return evaluateUnary(t, p, macros) == 0 ? 1 : 0;
+		if (token.equals("(")) {
+			int value = evaluateOr(t, p, macros);
+			expect(t, p, ")");
+			return value;
+		}
+		if (token.equals("defined")) {
+			boolean parenthesized = p[0] < t.size() && t.get(p[0]).equals("(");
+			if (parenthesized)
+				p[0]++;
+			if (p[0] >= t.size())
+				throw new IllegalArgumentException("Bad defined()");
+			String name = t.get(p[0]++);
+			if (parenthesized)
+				expect(t, p, ")");
+			return macros.containsKey(name) ? 1 : 0;
+		}
+		if (Character.isDigit(token.charAt(0)))
+			return Integer.decode(token);
+		if (isIdentifier(token)) {
+			String value = macros.get(token);
+			if (value == null || value.length() == 0)
+				return 0;
+			return evaluate(value, macros);
+		}
+		throw new IllegalArgumentException("Bad #if token " + token);
+	}
+
+	private static void expect(ArrayList<String> t, int[] p, String token) {
+		if (p[0] >= t.size() || !t.get(p[0]).equals(token))
+			throw new IllegalArgumentException("Expected " + token);
+		p[0]++;
+	}
+
+	/*************************
+	 * PARSING
+	 ************************/
+
+	private static ArrayList<String> tokenize(String code) {
+		ArrayList<String> tokens = new ArrayList<String>();
+		Matcher m = TOKEN.matcher(code);
+		int position = 0;
+		while (position < code.length()) {
+			if (!m.find(position) || m.start() != position)
+				throw new IllegalArgumentException("Can't read " + code.substring(position, Math.min(code.length(), position + 20)));
+			String token = m.group();
+			if (token.trim().length() > 0)
+				tokens.add(token);
+			position = m.end();
+		}
+		return tokens;
+	}
+
+	/**
+	 * Splits the code into top level items
+	 */
+	private ArrayList<Item> parse(String code) {
+		ArrayList<String> tokens = tokenize(code);
+		ArrayList<Item> items = new ArrayList<Item>();
+
+		ArrayList<String> current = new ArrayList<String>();
+		int depth = 0;
+		int bodyStart = -1;		// index in current of the { opening the item's outermost braces
+		for (int i = 0; i < tokens.size(); i++) {
+			String token = tokens.get(i);
+			if (isDirective(token) && current.isEmpty()) {
+				current.add(token);
+				items.add(new Item(DIRECTIVE, current));
+				current = new ArrayList<String>();
+				continue;
+			}
+			current.add(token);
+			if (token.equals("{")) {
+				if (depth == 0)
+					bodyStart = current.size() - 1;
+				depth++;
+			}
+			else if (token.equals("}")) {
+				if (--depth < 0)
+					throw new IllegalArgumentException("Unbalanced }");
+				// a function ends with its body - "(...) {...}"
+				if (depth == 0 && bodyStart > 0 && current.get(bodyStart - 1).equals(")")) {
+					items.add(classify(current));
+					current = new ArrayList<String>();
+					bodyStart = -1;
+				}
+			}
+			else if (token.equals(";") && depth == 0) {
+				items.add(classify(current));
+				current = new ArrayList<String>();
+				bodyStart = -1;
+			}
+		}
+		if (depth != 0 || current.size() > 0)
+			throw new IllegalArgumentException("Unbalanced braces or missing ;");
+		return items;
+	}
+
+	private Item classify(ArrayList<String> tokens) {
+		String first = tokens.get(0);
+		String last = tokens.get(tokens.size() - 1);
+
+		// uniform/attribute/varying declarations - one or more variables, no initializers
+		int q = 0;
+		String qualifier = null;
+		while (q < tokens.size() && (tokens.get(q).equals("invariant") || PRECISIONS.contains(tokens.get(q))
+				|| tokens.get(q).equals("uniform") || tokens.get(q).equals("attribute") || tokens.get(q).equals("varying"))) {
+			if (!tokens.get(q).equals("invariant") && !PRECISIONS.contains(tokens.get(q)))
+				qualifier = tokens.get(q);
+			q++;
+		}
+		if (qualifier != null && q + 2 < tokens.size() && !tokens.contains("=") && !tokens.contains("{")
+				&& !containsDirective(tokens)) {
+			Item item = new Item(DECLARATION, tokens);
+			item.qualifier = qualifier;
+			item.head = new ArrayList<String>(tokens.subList(0, q + 1));
+			item.variables = new ArrayList<ArrayList<String>>();
+			ArrayList<String> variable = new ArrayList<String>();
+			for (int i = q + 1; i < tokens.size() - 1; i++) {
+				if (tokens.get(i).equals(",")) {
+					item.variables.add(variable);
+					variable = new ArrayList<String>();
+				}
+				else
+					variable.add(tokens.get(i));
+			}
+			item.variables.add(variable);
+			return item;
+		}
+
+		// functions - "type name(...) {...}" or a prototype "type name(...);"
+		int open = tokens.indexOf("(");
+		if (open > 0 && !first.equals("precision") && !tokens.subList(0, open).contains("=")
+				&& isIdentifier(tokens.get(open - 1)) && (last.equals("}") || last.equals(";"))) {
+			Item item = new Item(last.equals("}") ? FUNCTION : PROTOTYPE, tokens);
+			item.name = tokens.get(open - 1);
+			return item;
+		}
+
+		return new Item(OTHER, tokens);
+	}
+
+	/*************************
+	 * OPTIMIZATION
+	 ************************/
+
+	/**
+	 * Removes what is dead, until nothing more is
+	 * @param readVaryings varyings the next stage reads - null for the fragment shader
+	 */
+	private void optimize(String stage, ArrayList<Item> items, HashSet<String> readVaryings) {
+		int functions = 0, variables = 0, locals = 0, writes = 0;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+
+			// functions main() doesn't reach
+			HashSet<String> reachable = reachableFunctions(items);
+			for (int i = items.size() - 1; i >= 0; i--) {
+				Item item = items.get(i);
+				if ((item.kind == FUNCTION || item.kind == PROTOTYPE) && !reachable.contains(item.name)) {
+					items.remove(i);
+					if (item.kind == FUNCTION) {
+						note(stage, "function", item.name);
+						functions++;
+					}
+					changed = true;
+				}
+			}
+
+			HashSet<String> outParameterFunctions = outParameterFunctions(items);
+			for (int i = 0; i < items.size(); i++) {
+				Item item = items.get(i);
+				if (item.kind != FUNCTION)
+					continue;
+
+				// locals never read
+				int removed = removeDeadLocals(stage, item, outParameterFunctions);
+				// writes to varyings nobody reads
+				if (readVaryings != null)
+					writes += removeVaryingWrites(stage, item, items, readVaryings, outParameterFunctions);
+				locals += removed;
+				changed |= removed > 0;
+			}
+
+			// uniforms, attributes and varyings nothing refers to
+			HashMap<String, Integer> uses = countUses(items);
+			for (int i = items.size() - 1; i >= 0; i--) {
+				Item item = items.get(i);
+				if (item.kind != DECLARATION)
+					continue;
+				for (int v = item.variables.size() - 1; v >= 0; v--) {
+					String name = item.variables.get(v).get(0);
+					if (!uses.containsKey(name)) {
+						item.variables.remove(v);
+						note(stage, item.qualifier, name);
+						variables++;
+						changed = true;
+					}
+				}
+				if (item.variables.isEmpty())
+					items.remove(i);
+			}
+		}
+
+		int folded = 0;
+		for (int i = 0; i < items.size(); i++)
+			if (items.get(i).kind == FUNCTION)
+				folded += foldConstants(items.get(i).tokens);
+
+		_report.append(stage).append(": removed ").append(functions).append(" functions, ")
+				.append(variables).append(" uniforms/attributes/varyings, ").append(locals).append(" locals, ")
+				.append(writes).append(" varying writes; folded ").append(folded).append(" constants\n");
+	}
+
+	private void note(String stage, String what, String name) {
+		_report.append(stage).append(": unused ").append(what).append(' ').append(name).append('\n');
+	}
+
+	// main() and everything it calls, directly or not
+	private static HashSet<String> reachableFunctions(ArrayList<Item> items) {
+		HashMap<String, ArrayList<Item>> functions = new HashMap<String, ArrayList<Item>>();
+		for (int i = 0; i < items.size(); i++) {
+			Item item = items.get(i);
+			if (item.kind == FUNCTION) {
+				ArrayList<Item> overloads = functions.get(item.name);
+				if (overloads == null) {
+					overloads = new ArrayList<Item>();
+					functions.put(item.name, overloads);
+				}
+				overloads.add(item);
+			}
+		}
+
+		HashSet<String> reachable = new HashSet<String>();
+		ArrayList<String> work = new ArrayList<String>();
+		reachable.add("main");
+		work.add("main");
+		// anything named outside a function (a macro, a const initializer) counts too
+		for (int i = 0; i < items.size(); i++)
+			if (items.get(i).kind == OTHER || items.get(i).kind == DIRECTIVE)
+				for (String token : withMacroBodies(items.get(i).tokens))
+					if (functions.containsKey(token) && reachable.add(token))
+						work.add(token);
+
+		while (!work.isEmpty()) {
+			ArrayList<Item> overloads = functions.get(work.remove(work.size() - 1));
+			if (overloads == null)
+				continue;
+			for (int o = 0; o < overloads.size(); o++) {
+				ArrayList<String> tokens = withMacroBodies(overloads.get(o).tokens);
+				for (int t = 0; t < tokens.size(); t++) {
+					String token = tokens.get(t);
+					if (functions.containsKey(token) && reachable.add(token))
+						work.add(token);
+				}
+			}
+		}
+		return reachable;
+	}
+
+	// functions with out/inout parameters - calls to them have side effects
+	private static HashSet<String> outParameterFunctions(ArrayList<Item> items) {
+		HashSet<String> names = new HashSet<String>();
+		for (int i = 0; i < items.size(); i++) {
+			Item item = items.get(i);
+			if (item.kind != FUNCTION && item.kind != PROTOTYPE)
+				continue;
+			int open = item.tokens.indexOf("(");
+			int close = item.tokens.indexOf(")");
+			for (int t = open; t < close; t++)
+				if (item.tokens.get(t).equals("out") || item.tokens.get(t).equals("inout"))
+					names.add(item.name);
+		}
+		return names;
+	}
+
+	// # of references to every name - member names after a '.' aren't references
+	private static HashMap<String, Integer> countUses(ArrayList<Item> items) {
+		HashMap<String, Integer> uses = new HashMap<String, Integer>();
+		for (int i = 0; i < items.size(); i++) {
+			Item item = items.get(i);
+			if (item.kind == DECLARATION)
+				continue;
+			countUses(item.tokens, 0, item.tokens.size(), uses);
+		}
+		return uses;
+	}
+
+	private static void countUses(ArrayList<String> tokens, int from, int to, HashMap<String, Integer> uses) {
+		for (int t = from; t < to; t++) {
+			String token = tokens.get(t);
+			if (isDirective(token)) {
+				// names in a macro body are used wherever the macro is
+				ArrayList<String> body = macroBody(token);
+				countUses(body, 0, body.size(), uses);
+				continue;
+			}
+			if (!isIdentifier(token) || (t > 0 && tokens.get(t - 1).equals(".")))
+				continue;
+			Integer count = uses.get(token);
+			uses.put(token, (count == null) ? 1 : count + 1);
+		}
+	}
+
+	/**
+	 * @return the tokens of a #define's body - empty for other directives
+	 */
+	private static ArrayList<String> macroBody(String directive) {
+		String[] parts = directive.substring(1).trim().split("\\s+", 3);
+		if (!parts[0].equals("define") || parts.length < 3)
+			return new ArrayList<String>();
+		return tokenize(parts[2]);
+	}
+
+	// tokens with the bodies of the #defines among them added
+	private static ArrayList<String> withMacroBodies(ArrayList<String> tokens) {
+		if (!containsDirective(tokens))
+			return tokens;
+		ArrayList<String> all = new ArrayList<String>(tokens);
+		for (int t = 0; t < tokens.size(); t++)
+			if (isDirective(tokens.get(t)))
+				all.addAll(macroBody(tokens.get(t)));
+		return all;
+	}
+
+	/**
+	 * Removes "type name = expression;" where name is never read and the expression has no side effects
+	 * @return # of locals removed
+	 */
+	private int removeDeadLocals(String stage, Item function, HashSet<String> outParameterFunctions) {
+		ArrayList<String> tokens = function.tokens;
+		int removed = 0;
+		int body = tokens.indexOf("{");
+		for (int t = body + 1; t < tokens.size(); t++) {
+			String previous = tokens.get(t - 1);
+			if (!previous.equals(";") && !previous.equals("{") && !previous.equals("}"))
+				continue;
+
+			// [const] [precision] type name (= ... | ;)
+			int n = t;
+			if (tokens.get(n).equals("const"))
+				n++;
+			if (PRECISIONS.contains(tokens.get(n)))
+				n++;
+			if (!TYPES.contains(tokens.get(n)) || tokens.get(n).equals("void"))
+				continue;
+			String name = tokens.get(n + 1);
+			String after = tokens.get(n + 2);
+			if (!isIdentifier(name) || (!after.equals("=") && !after.equals(";")))
+				continue;
+
+			int end = statementEnd(tokens, n + 2);
+			if (end < 0 || !sideEffectFree(tokens, n + 3, end, outParameterFunctions))
+				continue;
+			HashMap<String, Integer> uses = new HashMap<String, Integer>();
+			countUses(tokens, body, tokens.size(), uses);
+			if (uses.get(name) != 1)
+				continue;
+
+			tokens.subList(t, end + 1).clear();
+			note(stage, "local", function.name + "()." + name);
+			removed++;
+			t--;
+		}
+		return removed;
+	}
+
+	/**
+	 * Removes "varying[.xyz] = expression;" of varyings the next stage doesn't read - if the
+	 * shader never reads them either
+	 * @return # of writes removed
+	 */
+	private int removeVaryingWrites(String stage, Item function, ArrayList<Item> items,
+			HashSet<String> readVaryings, HashSet<String> outParameterFunctions) {
+		HashSet<String> unread = new HashSet<String>();
+		for (int i = 0; i < items.size(); i++) {
+			Item item = items.get(i);
+			if (item.kind == DECLARATION && item.qualifier.equals("varying"))
+				for (int v = 0; v < item.variables.size(); v++)
+					if (!readVaryings.contains(item.variables.get(v).get(0)))
+						unread.add(item.variables.get(v).get(0));
+		}
+		if (unread.isEmpty())
+			return 0;
+
+		ArrayList<String> tokens = function.tokens;
+		HashMap<String, Integer> uses = countUses(items);
+		int removed = 0;
+		for (String name : unread) {
+			// every reference has to be such a write, or something reads it
+			ArrayList<int[]> writes = new ArrayList<int[]>();
+			for (int t = 1; t < tokens.size(); t++) {
+				if (!tokens.get(t).equals(name) || tokens.get(t - 1).equals("."))
+					continue;
+				String previous = tokens.get(t - 1);
+				if (!previous.equals(";") && !previous.equals("{") && !previous.equals("}"))
+					break;
+				int n = t + 1;
+				if (tokens.get(n).equals(".") && isIdentifier(tokens.get(n + 1)))
+					n += 2;
+				if (!tokens.get(n).equals("="))
+					break;
+				int end = statementEnd(tokens, n);
+				if (end < 0 || !sideEffectFree(tokens, n + 1, end, outParameterFunctions))
+					break;
+				writes.add(new int[] {t, end});
+			}
+			Integer count = uses.get(name);
+			if (writes.isEmpty() || count == null || count != writes.size())
+				continue;
+
+			for (int w = writes.size() - 1; w >= 0; w--)
+				tokens.subList(writes.get(w)[0], writes.get(w)[1] + 1).clear();
+			note(stage, "write of varying", name);
+			removed += writes.size();
+			uses = countUses(items);
+		}
+		return removed;
+	}
+
+	// index of the ';' ending the statement, -1 if it leaves the block first
+	private static int statementEnd(ArrayList<String> tokens, int from) {
+		int depth = 0;
+		for (int t = from; t < tokens.size(); t++) {
+			String token = tokens.get(t);
+			if (token.equals("(") || token.equals("[") || token.equals("{"))
+				depth++;
+			else if (token.equals(")") || token.equals("]") || token.equals("}")) {
+				if (--depth < 0)
+					return -1;
+			}
+			else if (token.equals(";") && depth == 0)
+				return t;
+		}
+		return -1;
+	}
+
+	// no assignments and no calls that write their arguments
+	private static boolean sideEffectFree(ArrayList<String> tokens, int from, int to, HashSet<String> outParameterFunctions) {
+		for (int t = from; t < to; t++) {
+			String token = tokens.get(t);
+			if (ASSIGNMENTS.contains(token) || outParameterFunctions.contains(token))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Folds "a op b" of float literals where the neighbours don't bind tighter
+	 * @return # of folds
+	 */
+	private static int foldConstants(ArrayList<String> tokens) {
+		int folded = 0;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int t = 1; t + 3 < tokens.size(); t++) {
+				String a = tokens.get(t);
+				String op = tokens.get(t + 1);
+				String b = tokens.get(t + 2);
+				if (!isFloatLiteral(a) || !isFloatLiteral(b))
+					continue;
+				String before = tokens.get(t - 1);
+				String after = tokens.get(t + 3);
+
+				boolean multiplicative = op.equals("*") || op.equals("/");
+				boolean additive = op.equals("+") || op.equals("-");
+				if (multiplicative) {
+					// (x / 2.0) * 3.0 isn't x / (2.0 * 3.0)
+					if (!foldBoundary(before) && !before.equals("+") && !before.equals("-"))
+						continue;
+				}
+				else if (additive) {
+					// 2.0 + 3.0 * x isn't 5.0 * x, x - 2.0 + 3.0 isn't x - 5.0
+					if (!foldBoundary(before))
+						continue;
+					if (!after.equals(")") && !after.equals(",") && !after.equals(";") && !after.equals("]")
+							&& !after.equals("+") && !after.equals("-") && !after.equals(":") && !after.equals("?"))
+						continue;
+				}
+				else
+					continue;
+				if (after.equals(".") || after.equals("["))
+					continue;
+
+				float x = Float.parseFloat(a), y = Float.parseFloat(b);
+				float value;
+				if (op.equals("*"))
+					value = x * y;
+				else if (op.equals("/"))
+					value = x / y;
+				else if (op.equals("+"))
+					value = x + y;
+				else
+					value = x - y;
+				if (Float.isNaN(value) || Float.isInfinite(value) || value < 0)
+					continue;
+
+				tokens.set(t, floatLiteral(value));
+				tokens.remove(t + 2);
+				tokens.remove(t + 1);
+				folded++;
+				changed = true;
+			}
+		}
+		return folded;
+	}
+
+	// tokens after which an expression starts
+	private static boolean foldBoundary(String token) {
+		return token.equals("(") || token.equals(",") || token.equals("=") || token.equals("+=")
+				|| token.equals("-=") || token.equals("*=") || token.equals("/=") || token.equals("return")
+				|| token.equals("?") || token.equals(":") || token.equals("[");
+	}
+
+	private static boolean isFloatLiteral(String token) {
+		char c = token.charAt(0);
+		if (token.startsWith("0x") || token.startsWith("0X"))
+			return false;
+		return (Character.isDigit(c) || (c == '.' && token.length() > 1))
+				&& (token.indexOf('.') >= 0 || token.indexOf('e') >= 0 || token.indexOf('E') >= 0);
+	}
+
+	// GLSL needs the dot
+	private static String floatLiteral(float value) {
+		String s = Float.toString(value);
+		return (s.indexOf('.') >= 0 || s.indexOf('E') >= 0) ? s : s + ".0";
+	}
+
+	private static boolean isIdentifier(String token) {
+		char c = token.charAt(0);
+		return Character.isLetter(c) || c == '_';
+	}
+
+	private static boolean isDirective(String token) {
+		return token.charAt(0) == '#';
+	}
+
+	private static boolean containsDirective(ArrayList<String> tokens) {
+		for (int t = 0; t < tokens.size(); t++)
+			if (isDirective(tokens.get(t)))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Reports fragment uniforms/varyings without a precision qualifier that
+	 * are only multiplied, added, clamped... - color math lowp would do
+	 */
+	private void reportLowp(ArrayList<Item> items) {
+		HashMap<String, Boolean> candidates = new HashMap<String, Boolean>();
+		for (int i = 0; i < items.size(); i++) {
+			Item item = items.get(i);
+			if (item.kind != DECLARATION)
+				continue;
+			String type = item.head.get(item.head.size() - 1);
+			boolean qualified = false;
+			for (int h = 0; h < item.head.size(); h++)
+				qualified |= PRECISIONS.contains(item.head.get(h));
+			if (qualified || !(type.equals("vec3") || type.equals("vec4")))
+				continue;
+			for (int v = 0; v < item.variables.size(); v++)
+				candidates.put(item.variables.get(v).get(0), Boolean.TRUE);
+		}
+		if (candidates.isEmpty())
+			return;
+
+		// used through a macro - can't tell how
+		for (int i = 0; i < items.size(); i++)
+			for (String token : items.get(i).tokens)
+				if (isDirective(token))
+					for (String name : macroBody(token))
+						if (candidates.containsKey(name))
+							candidates.put(name, Boolean.FALSE);
+
+		for (int i = 0; i < items.size(); i++) {
+			Item item = items.get(i);
+			if (item.kind != FUNCTION)
+				continue;
+			ArrayList<String> tokens = item.tokens;
+			ArrayList<String> calls = new ArrayList<String>();	// innermost call around each token
+			for (int t = tokens.indexOf("{"); t < tokens.size(); t++) {
+				String token = tokens.get(t);
+				if (token.equals("(")) {
+					String callee = tokens.get(t - 1);
+					calls.add(isIdentifier(callee) ? callee : "(");
+				}
+				else if (token.equals(")")) {
+					if (!calls.isEmpty())
+						calls.remove(calls.size() - 1);
+				}
+				else if (candidates.containsKey(token) && !tokens.get(t - 1).equals(".")) {
+					String call = calls.isEmpty() ? "(" : calls.get(calls.size() - 1);
+					boolean divided = tokens.get(t - 1).equals("/") || tokens.get(t + 1).equals("/");
+					if (divided || (!call.equals("(") && !LOWP_SAFE_CALLS.contains(call)))
+						candidates.put(token, Boolean.FALSE);
+				}
+			}
+		}
+
+		for (String name : candidates.keySet())
+			if (candidates.get(name))
+				_report.append("fragment: ").append(name).append(" could be lowp\n");
+	}
+
+	/*************************
+	 * OUTPUT
+	 ************************/
+
+	// a line per top level item, directives on lines of their own where they were
+	private static String emit(ArrayList<Item> items) {
+		StringBuilder out = new StringBuilder();
+		for (int i = 0; i < items.size(); i++) {
+			Item item = items.get(i);
+			ArrayList<String> tokens = item.tokens;
+			if (item.kind == DECLARATION) {
+				tokens = new ArrayList<String>(item.head);
+				for (int v = 0; v < item.variables.size(); v++) {
+					if (v > 0)
+						tokens.add(",");
+					tokens.addAll(item.variables.get(v));
+				}
+				tokens.add(";");
+			}
+			String previous = null;
+			for (int t = 0; t < tokens.size(); t++) {
+				String token = tokens.get(t);
+				if (isDirective(token)) {
+					if (previous != null)
+						out.append('\n');
+					out.append(token).append('\n');
+					previous = null;
+					continue;
+				}
+				if (previous != null && needsSpace(previous, token))
+					out.append(' ');
+				out.append(token);
+				previous = token;
+			}
+			if (previous != null)
+				out.append('\n');
+		}
+		return out.toString();
+	}
+
+	// words would merge (return .5 too), and so would operators (a - -b, a / *b)
+	private static boolean needsSpace(String previous, String next) {
+		char last = previous.charAt(previous.length() - 1);
+		char first = next.charAt(0);
+		if (isWordChar(last) && (isWordChar(first) || (first == '.' && next.length() > 1)))
+			return true;
+		String operators = "+-*/=<>!&|^";
+		return operators.indexOf(last) >= 0 && operators.indexOf(first) >= 0;
+	}
+
+	private static boolean isWordChar(char c) {
+		return Character.isLetterOrDigit(c) || c == '_';
+	}
+}
@@ -0,0 +1,82 @@
+/**
+ * The light and the eye - the values every lit draw shares: light position
+ * and color, and the eye position.
+ *
+ * Like Material, every change gives a new version, and a shader only gets
+ * the values again when its last version is out of date - a light that
+ * isn't moving is uploaded once per program.
+ */
+
+package graphics.shaders;
+
+public class LightBlock {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	private float[] _position = new float[4];
+	private float[] _color = {0.5f, 0.5f, 0.5f, 1.0f};
+	private float[] _eyePosition = new float[3];
+
+	// 0 is "never uploaded"
+	private int _version = 1;
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	public LightBlock() {
+
+	}
+
+	/***************************
+	 * GET/SET
+	 *************************/
+
+	/**
+	 * @return the version - changes with every set
+	 */
+	public int get_version() {
+		return _version;
+	}
+
+	// don't modify the arrays, use the setters
+	public float[] get_position() {
+		return _position;
+	}
+
+	public void set_position(float x, float y, float z, float w) {
+		if (_position[0] == x && _position[1] == y && _position[2] == z && _position[3] == w)
+			return;
+		_position[0] = x;
+		_position[1] = y;
+		_position[2] = z;
+		_position[3] = w;
+		_version++;
+	}
+
+	public float[] get_color() {
+		return _color;
+	}
+
+	public void set_color(float r, float g, float b, float a) {
+		if (_color[0] == r && _color[1] == g && _color[2] == b && _color[3] == a)
+			return;
+		_color[0] = r;
+		_color[1] = g;
+		_color[2] = b;
+		_color[3] = a;
+		_version++;
+	}
+
+	public float[] get_eyePosition() {
+		return _eyePosition;
+	}
+
+	public void set_eyePosition(float x, float y, float z) {
+		if (_eyePosition[0] == x && _eyePosition[1] == y && _eyePosition[2] == z)
+			return;
+		_eyePosition[0] = x;
+		_eyePosition[1] = y;
+		_eyePosition[2] = z;
+		_version++;
+	}
+}
@@ -0,0 +1,91 @@
+/**
+ * Surface properties of an object: ambient, diffuse and specular color and
+ * the shininess of the specular highlight.
+ *
+ * Every change gives the material a new version, unique among all
+ * materials. A shader remembers the version it was last given, so the
+ * values are only uploaded again when they (or the material) change.
+ */
+
+package graphics.shaders;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Material {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	// 0 is "never uploaded"
+	private static final AtomicInteger _versions = new AtomicInteger(1);
+
+	private float[] _ambient = {1.0f, 0.5f, 0.5f, 1.0f};
+	private float[] _diffuse = {0.5f, 0.5f, 0.5f, 1.0f};
+	private float[] _specular = {1.0f, 1.0f, 1.0f, 1.0f};
+	private float _shininess = 5.0f;
+
+	private int _version;
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	public Material() {
+		_version = _versions.getAndIncrement();
+	}
+
+	/***************************
+	 * GET/SET
+	 *************************/
+
+	/**
+	 * @return the version - changes with every set
+	 */
+	public int get_version() {
+		return _version;
+	}
+
+	// rgba - don't modify, use the setters
+	public float[] get_ambient() {
+		return _ambient;
+	}
+
+	public void set_ambient(float r, float g, float b, float a) {
+		set(_ambient, r, g, b, a);
+	}
+
+	public float[] get_diffuse() {
+		return _diffuse;
+	}
+
+	public void set_diffuse(float r, float g, float b, float a) {
+		set(_diffuse, r, g, b, a);
+	}
+
+	public float[] get_specular() {
+		return _specular;
+	}
+
+	public void set_specular(float r, float g, float b, float a) {
+		set(_specular, r, g, b, a);
+	}
+
+	public float get_shininess() {
+		return _shininess;
+	}
+
+	public void set_shininess(float shininess) {
+		if (shininess == _shininess)
+			return;
+		_shininess = shininess;
+		_version = _versions.getAndIncrement();
+	}
+
+	private void set(float[] color, float r, float g, float b, float a) {
+		if (color[0] == r && color[1] == g && color[2] == b && color[3] == a)
+			return;
+		color[0] = r;
+		color[1] = g;
+		color[2] = b;
+		color[3] = a;
+		_version = _versions.getAndIncrement();
+	}
+}
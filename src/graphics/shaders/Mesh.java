@@ -5,18 +5,26 @@
 
 package graphics.shaders;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.StringTokenizer;
+import java.util.Arrays;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
+import android.opengl.GLES20;
 import android.util.Log;
 
 public class Mesh {
@@ -28,38 +36,69 @@ public class Mesh {
 	// Constants
 	private static final int FLOAT_SIZE_BYTES = 4;
 	private static final int SHORT_SIZE_BYTES = 2;
-	// the number of elements for each vertex
-	// [coordx, coordy, coordz, normalx, normaly, normalz....]
-	private final int VERTEX_ARRAY_SIZE = 8;
-	
-	// if tex coords exist
-	private final int VERTEX_TC_ARRAY_SIZE = 8;
+	private static final int INT_SIZE_BYTES = 4;
+
+	// vertices addressable by GL_UNSIGNED_SHORT indices
+	private static final int MAX_SHORT_VERTICES = 65536;
 
-	// Vertices
+	// drawn in place of a mesh that failed to load - an octahedron
+	private static final String PLACEHOLDER_OFF = "OFF\n6 8 12\n0 0 4\n4 0 0\n0 4 0\n-4 0 0\n0 -4 0\n0 0 -4\n"
+			+ "3 1 0 4\n3 4 0 3\n3 3 0 2\n3 2 0 1\n3 1 5 2\n3 2 5 3\n3 3 5 4\n3 4 5 1\n";
+
+	// Vertices - interleaved [coordx, coordy, coordz, normalx, normaly, normalz, u, v]
+	// (see MeshParser.VERTEX_ARRAY_SIZE)
 	private float _vertices[];
 
-	// Normals
-	private float _normals[];
-	
-	// Texture coordinates
-	private float _texCoords[];
-	
+	private int _numVertices;
+
 	// Indices
-	private short _indices[];	
+	private int _indices[];	
+	private int _numIndices;
 	
 	// Buffers - index, vertex, normals and texcoords
-	private FloatBuffer _vb;
+	private ByteBuffer _vb;		// interleaved vertices, laid out as _format says
 	private FloatBuffer _nb;
-	private ShortBuffer _ib;
+	private Buffer _ib;			// ShortBuffer, or IntBuffer for > 65536 vertices
 	private FloatBuffer _tcb;
 
-	// Normals
-	private float[] _faceNormals;
-	private int[]   _surroundingFaces; // # of surrounding faces for each vertex
+	// vertex layout of _vb
+	private VertexFormat _format = VertexFormat.FLOAT;
+
+	// text meshes: quantize the vertices after loading (binary meshes keep their layout)
+	private boolean _quantize;
+
+	// index buffers of the LODs, [0] = _ib (the full mesh) - all share _vb
+	private Buffer[] _lodIbs;
+	private int[] _lodNumIndices;
+
+	// bounding box and sphere (object space)
+	private float[] _boundsMin = new float[3];
+	private float[] _boundsMax = new float[3];
+	private float[] _center = new float[3];
+	private float _boundingRadius;
+
+	// drawable chunks per LOD - built on first use
+	private MeshChunk[][] _chunks;
+	private boolean _chunksIntIndices;
 
 	// Store the context
 	Context activity; 
 
+	// parsers and tangent generators keep their buffers between meshes -
+	// one per loading thread (the AssetLoader workers)
+	private static final ThreadLocal<MeshParser> sParser = new ThreadLocal<MeshParser>() {
+		@Override
+		protected MeshParser initialValue() {
+			return new MeshParser();
+		}
+	};
+	private static final ThreadLocal<TangentGenerator> sTangentGenerator = new ThreadLocal<TangentGenerator>() {
+		@Override
+		protected TangentGenerator initialValue() {
+			return new TangentGenerator();
+		}
+	};
+
 
 	/***************************
 	 * CONSTRUCTOR(S)
@@ -68,404 +107,374 @@ public class Mesh {
 
 	}
 
-	public Mesh(int meshID) {
+	public Mesh(int meshID) throws IOException {
 		this(meshID, null);
 	}
 
-	public Mesh(int meshID, Context activity) {
+	public Mesh(int meshID, Context activity) throws IOException {
+		this(meshID, activity, false);
+	}
+
+	/**
+	 * @param quantize true to use the 16 byte quantized vertex layout (see VertexQuantizer)
+	 * @throws IOException if the mesh can't be read - there is no half-loaded Mesh
+	 */
+	public Mesh(int meshID, Context activity, boolean quantize) throws IOException {
 		this.meshID = meshID;
 		this.activity = activity;
+		this._quantize = quantize;
 
 		loadFile();
 	}
 
+	// Memory maps a binary mesh file (see MeshFile/MeshConverter)
+	public Mesh(File file) throws IOException {
+		loadFile(file);
+	}
+
+	/**
+	 * @return a small mesh (an octahedron) to draw in place of one that failed to load
+	 */
+	public static Mesh createPlaceholder() {
+		Mesh mesh = new Mesh();
+		try {
+			mesh.loadText(new ByteArrayInputStream(PLACEHOLDER_OFF.getBytes()));
+		} catch (IOException e) {
+			throw new IllegalStateException("Placeholder mesh: " + e.getMessage());
+		}
+		return mesh;
+	}
+
 	/**************************
 	 * OTHER METHODS
 	 *************************/
 
 	/**
-	 * Tries to load a file - either a .OBJ or a .OFF
-	 * @return 1 if file was loaded properly, 0 if not 
+	 * Loads a file - a binary mesh (see MeshFile), a .OBJ or a .OFF
 	 */
-	private int loadFile() {
-		//Log.d("Start-loadFile", "Starting loadFile");
+	private void loadFile() throws IOException {
+		// Binary meshes stored uncompressed are mapped straight from the apk
+		ByteBuffer mapped = mapResource();
+		if (mapped != null && MeshFile.isMeshFile(mapped)) {
+			loadBinary(mapped);
+			return;
+		}
+
+		// Read the file from the resource
+		InputStream inputStream = new BufferedInputStream(activity.getResources().openRawResource(meshID));
 		try {
-			// Read the file from the resource
-			//Log.d("loadFile", "Trying to buffer read");
-			InputStream inputStream = activity.getResources().openRawResource(meshID);
-
-			// setup Bufferedreader
-			BufferedReader in = new BufferedReader(new InputStreamReader(inputStream));
-
-			// Try to parse the file
-			//Log.d("loadFile", "Trying to buffer read2");
-			String str = in.readLine();
-
-			// Make sure it's a .OFF file
-			if (str.equals("OFF"))
-				loadOFF(in);
-			else if (str.equals("OBJ"))
-				loadOBJ(in);
-			
-			// Generate your vertex, normal and index buffers
-			// vertex buffer
-			_vb = ByteBuffer.allocateDirect(_vertices.length
-					* FLOAT_SIZE_BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
-			_vb.put(_vertices);
-			_vb.position(0);
-
-			// index buffer
-			_ib = ByteBuffer.allocateDirect(_indices.length
-					* SHORT_SIZE_BYTES).order(ByteOrder.nativeOrder()).asShortBuffer();
-			_ib.put(_indices);
-			_ib.position(0);
-
-			//Log.d("loadFile - size", _indices.length/3 + "," + _vertices.length);
-			// close the reader
-			in.close();
-			return 1;
-		} catch (Exception e) {
-			//Log.d("Error-LoadFile", "FOUND ERROR: " + e.toString());
-			return 0;
+			// compressed binary mesh - one copy, but still no parsing
+			inputStream.mark(MeshFile.HEADER_SIZE_BYTES);
+			byte[] magic = new byte[4];
+			int read = inputStream.read(magic);
+			inputStream.reset();
+			if (read == magic.length && MeshFile.isMeshFile(ByteBuffer.wrap(magic)))
+				loadBinary(readDirect(inputStream));
+			else
+				loadText(inputStream);
+		} finally {
+			inputStream.close();
 		}
 	}
 
 	/**
-	 * Loads the .off file
-	 * 
-	 * OFF FORMAT:
-	 * ------------
-	 * Line 1
-		OFF
-	   Line 2
-		vertex_count face_count edge_count
-	   One line for each vertex:
-		x y z 
-		for vertex 0, 1, ..., vertex_count-1
-	   One line for each polygonal face:
-		n v1 v2 ... vn, 
-		the number of vertices, and the vertex indices for each face.
-	 * 
-	 * 
-	 * @return 1 if file was loaded properly, 0 if not 
+	 * Memory maps a binary mesh file
 	 */
-	private int loadOFF(BufferedReader in) throws Exception {
+	private void loadFile(File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
 		try {
-			/* read # of vertices, faces, edges */
-			String str = in.readLine();
-			//Log.d("STR", str);
-
-			// tokenizer based on space
-			StringTokenizer tokenizer = new StringTokenizer(str);
-			int _numVertices = Integer.parseInt(tokenizer.nextToken());
-			int _numFaces = Integer.parseInt(tokenizer.nextToken());
-			//int _numEdges = Integer.parseInt(tokenizer.nextToken());
-
-			// read vertices - going to store vertex coordinates + normals
-			_vertices = new float[_numVertices * this.VERTEX_ARRAY_SIZE]; 
-			int i = 0;
-			for (i = 0; i < _numVertices; i++) {
-				str = in.readLine();
-
-				// tokenizer based on space
-				tokenizer = new StringTokenizer(str);
-				_vertices[i * this.VERTEX_ARRAY_SIZE]     = Float.parseFloat(tokenizer.nextToken());
-				_vertices[i * this.VERTEX_ARRAY_SIZE + 1] = Float.parseFloat(tokenizer.nextToken());
-				_vertices[i * this.VERTEX_ARRAY_SIZE + 2] = Float.parseFloat(tokenizer.nextToken());
-				//Log.d("Str vertices:", _vertices[i * this.VERTEX_ARRAY_SIZE + 0] + "," + _vertices[i * this.VERTEX_ARRAY_SIZE + 1] + "," + _vertices[i * this.VERTEX_ARRAY_SIZE + 2]);
-			}
+			FileChannel channel = fis.getChannel();
+			loadBinary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			fis.close();
+		}
+	}
 
-			//Log.d("ReadFile", "Read vertices");
+	/**
+	 * Parses a .OBJ or .OFF file
+	 */
+	private void loadText(InputStream inputStream) throws IOException {
+		// Parse it straight into primitive arrays - with this thread's parser
+		MeshParser parser = sParser.get();
+		if (!parser.parse(inputStream))
+			throw new IOException("Mesh " + meshID + " is not an OFF or OBJ file");
+
+		Log.d("Mesh", "mesh " + meshID + ": " + parser.get_numUnweldedVertices() + " -> "
+				+ parser.get_numVertices() + " vertices after welding");
+
+		_vertices = parser.get_vertices();
+		_indices = parser.get_indices();
+		_numIndices = _indices.length;
+
+		// reorder triangles for the post-transform cache, then vertices for fetch
+		VertexCacheSimulator cache = new VertexCacheSimulator();
+		cache.simulate(_indices, _numIndices, parser.get_numVertices());
+		float acmr = cache.get_acmr();
+
+		VertexCacheOptimizer.optimize(_indices, _numIndices, parser.get_numVertices());
+		_vertices = VertexCacheOptimizer.optimizeVertexFetch(_vertices, MeshParser.VERTEX_ARRAY_SIZE, _indices, _numIndices);
+		_numVertices = _vertices.length / MeshParser.VERTEX_ARRAY_SIZE;
+
+		cache.simulate(_indices, _numIndices, _numVertices);
+		Log.d("Mesh", "mesh " + meshID + ": ACMR " + acmr + " -> " + cache.get_acmr());
+		
+		// tangents for normal mapping
+		float[] tangents = sTangentGenerator.get().generate(_vertices, MeshParser.VERTEX_ARRAY_SIZE, _numVertices, _indices, _numIndices);
+
+		// Generate your vertex, normal and index buffers
+		// vertex buffer
+		_format = _quantize ? VertexQuantizer.computeFormat(_vertices, _numVertices, true) : VertexFormat.FLOAT_TANGENTS;
+		_vb = ByteBuffer.allocateDirect(_numVertices * _format.get_stride()).order(ByteOrder.nativeOrder());
+		VertexQuantizer.encode(_vertices, tangents, _numVertices, _format, _vb);
+
+		if (_quantize) {
+			float[] error = VertexQuantizer.measureError(_vertices, _numVertices, _vb, _format);
+			Log.d("Mesh", "mesh " + meshID + ": quantized, max error position " + error[0]
+					+ ", normal " + error[1] + " deg, texcoord " + error[2]);
+		}
 
-			// read faces and setup the index buffer
-			// array size
-			int arraySize = _numFaces * 3;
-			_indices = new short[arraySize];
+		// index buffer - 16 bits whenever the vertices fit
+		_ib = createIndexBuffer(_indices, _numIndices, _numVertices > MAX_SHORT_VERTICES);
 
-			// setup the normals
-			_normals = new float[_numVertices * this.VERTEX_ARRAY_SIZE]; 
-			_faceNormals = new float[arraySize]; // NEEDED?
-			_surroundingFaces = new int[_numVertices]; // # of surrounding faces for each vertex
+		buildLods(_vertices, MeshParser.VERTEX_ARRAY_SIZE, _indices);
 
-			// initialize to 0
-			for(int x = 0; x < _numVertices; x++) {
-				_vertices[x * this.VERTEX_ARRAY_SIZE + 3] = 0;
-				_vertices[x * this.VERTEX_ARRAY_SIZE + 4] = 0;
-				_vertices[x * this.VERTEX_ARRAY_SIZE + 5] = 0;
-				_surroundingFaces[x] = 0;
-			}
+		//Log.d("loadFile - size", _indices.length/3 + "," + _vertices.length);
+	}
 
-			for (i = 0; i < _numFaces; i++) {
-				str = in.readLine();
-				// tokenizer based on space
-				tokenizer = new StringTokenizer(str);
-				// number of vertices for the face - make sure it's 3! [Might add support for 4 later]
-				short numV = Byte.parseByte(tokenizer.nextToken());
-				if (numV != 3)
-					throw new IOException("TEST!!");
-
-				short firstV = Short.parseShort(tokenizer.nextToken());
-				short secondV = Short.parseShort(tokenizer.nextToken());
-				short thirdV = Short.parseShort(tokenizer.nextToken());
-
-				// Store in the index buffer
-				_indices[i * 3 + 0] = firstV;
-				_indices[i * 3 + 1] = secondV;
-				_indices[i * 3 + 2] = thirdV;
-
-				// Calculate the face normal
-				setFaceNormal(i, firstV, secondV, thirdV);
-			}
+	/**
+	 * Uses the vertex and index data of a binary mesh in place - the LOD
+	 * index buffers are slices of the file too, only the bounds are copied.
+	 * _vertices and _indices stay null - the data only lives in the buffers.
+	 */
+	private void loadBinary(ByteBuffer data) throws IOException {
+		MeshFile header = MeshFile.readHeader(data);
+
+		_format = header.get_format();
+		_vb = header.vertexSlice(data);
+		if (header.get_indexSize() == INT_SIZE_BYTES)
+			_ib = header.indexSlice(data).asIntBuffer();
+		else
+			_ib = header.indexSlice(data).asShortBuffer();
+		_numVertices = header.get_vertexCount();
+		_numIndices = header.get_indexCount();
+
+		// tangents, bounds and LODs are added offline - older files go through MeshConverter again
+		if (header.get_version() < 3)
+			throw new IOException("Binary mesh " + meshID + " is version " + header.get_version() + " - reconvert it with MeshConverter");
+		if (!_format.hasTangents())
+			throw new IOException("Binary mesh " + meshID + " has no tangents - reconvert it with MeshConverter");
+
+		setBounds(header.readBounds(data));
+		_lodIbs = new Buffer[header.get_numLods()];
+		_lodNumIndices = new int[header.get_numLods()];
+		_lodIbs[0] = _ib;
+		_lodNumIndices[0] = _numIndices;
+		for (int l = 1; l < header.get_numLods(); l++) {
+			if (header.get_indexSize() == INT_SIZE_BYTES)
+				_lodIbs[l] = header.lodIndexSlice(data, l).asIntBuffer();
+			else
+				_lodIbs[l] = header.lodIndexSlice(data, l).asShortBuffer();
+			_lodNumIndices[l] = header.get_lodIndexCount(l);
+		}
+		_chunks = null;
+	}
 
-			// finally calculate the exact vertex normals
-			for(int x = 0; x < _numVertices; x++) {
-				_vertices[x * this.VERTEX_ARRAY_SIZE + 3] /= _surroundingFaces[x];
-				_vertices[x * this.VERTEX_ARRAY_SIZE + 4] /= _surroundingFaces[x];
-				_vertices[x * this.VERTEX_ARRAY_SIZE + 5] /= _surroundingFaces[x];
-			}
-			
-			return 1;
-			
-		} catch (Exception e) {
-			throw e;
+	/**
+	 * Computes the bounds and simplifies the mesh into the LOD chain
+	 * (see MeshSimplifier) - text meshes only, binary meshes have both
+	 * precomputed. The levels share the vertex buffer.
+	 * @param vertices positions at 0 of each vertex
+	 * @param stride # of floats per vertex
+	 * @param indices the full mesh
+	 */
+	private void buildLods(float[] vertices, int stride, int[] indices) {
+		setBounds(MeshFile.computeBounds(vertices, stride, _numVertices));
+
+		MeshSimplifier simplifier = new MeshSimplifier();
+		int[][] levels = simplifier.buildLods(vertices, stride, _numVertices, indices, _numIndices);
+		if (levels.length > 0)
+			Log.d("Mesh", "mesh " + meshID + ": " + levels.length + " LODs, error " + simplifier.get_error());
+
+		_lodIbs = new Buffer[levels.length + 1];
+		_lodNumIndices = new int[levels.length + 1];
+		_lodIbs[0] = _ib;
+		_lodNumIndices[0] = _numIndices;
+		for (int l = 0; l < levels.length; l++) {
+			_lodIbs[l + 1] = createIndexBuffer(levels[l], levels[l].length, _ib instanceof IntBuffer);
+			_lodNumIndices[l + 1] = levels[l].length;
 		}
+		_chunks = null;
 	}
 
-	
 	/**
-	 * Loads an OBJ file
-	 * OBJ FORMAT:
-	 * ----------
-	   list of vertices:
-	     v x y z
-	   list of tex coords:
-	     vt u v
-	   list of normals:
-	     vn x y z
-	   list of faces
-	     f pos1/tc1/n1 pos2/tc2/n2 pos3/tc3/n3
-	 * 
-	 * @param in The BufferedReader object
-	 * @return true = file properly parsed
-	 * @throws Exception
+	 * @param bounds MeshFile.computeBounds layout
 	 */
-	private int loadOBJ(BufferedReader in) throws Exception {
-		try {
-			//Log.d("In OBJ:", "First");
-			/* read vertices first */
-			String str = in.readLine();
-			StringTokenizer t = new StringTokenizer(str);
-			
-			String type = t.nextToken();
-			
-			// keep reading vertices
-			int numVertices = 0;
-			ArrayList<Float> vs = new ArrayList<Float>(100); // vertices
-			ArrayList<Float> tc = new ArrayList<Float>(100); // texture coords
-			ArrayList<Float> ns = new ArrayList<Float>(100); // normals
-			
-			while(type.equals("v")) {
-				//Log.d("In OBJ:", "V: " + str);
-				
-				vs.add(Float.parseFloat(t.nextToken())); 	// x
-				vs.add(Float.parseFloat(t.nextToken()));	// y
-				vs.add(Float.parseFloat(t.nextToken()));	// z
-			
-				// next vertex
-				str = in.readLine();
-				t = new StringTokenizer(str);
-				
-				type = t.nextToken();
-				numVertices++;
-			}
-			
-			// read tex coords
-			int numTexCoords = 0;
-			if (type.equals("vt")) {
-				while(type.equals("vt")) {
-					tc.add(Float.parseFloat(t.nextToken())); 	// u
-					tc.add(Float.parseFloat(t.nextToken()));	// v
-				
-					// next texture coord
-					str = in.readLine();
-					t = new StringTokenizer(str);
-					
-					type = t.nextToken();
-					numTexCoords++;
-				}
-			}
-			
-			// read vertex normals
-			if (type.equals("vn")) {
-				while(type.equals("vn")) {
-					ns.add(Float.parseFloat(t.nextToken())); 	// x
-					ns.add(Float.parseFloat(t.nextToken()));	// y
-					ns.add(Float.parseFloat(t.nextToken()));	// y
-					
-					// next texture coord
-					str = in.readLine();
-					t = new StringTokenizer(str);
-					
-					type = t.nextToken();
-				}
-			}
-			
-			
-			// create the vertex buffer
-			float[] _v = new float[numVertices * 3];
-			// create the normal buffer
-			float[] _n = new float[numVertices * 3];
-			// texcoord
-			_texCoords = new float[numTexCoords * 2];
-			
-			// copy over data - INEFFICIENT [SHOULD BE A BETTER WAY]
-			for(int i = 0; i < numVertices; i++) {
-				_v[i * 3] 	 = vs.get(i * 3);
-				_v[i * 3 + 1] = vs.get(i * 3 + 1);
-				_v[i * 3 + 2] = vs.get(i * 3 + 2);
-				
-				_n[i * 3 ] 	= -ns.get(i * 3);
-				_n[i * 3 + 1] = -ns.get(i * 3 + 1);
-				_n[i * 3 + 2] = -ns.get(i * 3 + 2);
-				
-				// transfer tex coordinates
-				if (i < numTexCoords) {
-					_texCoords[i * 2] 	  = tc.get(i * 2);
-					_texCoords[i * 2 + 1] = tc.get(i * 2 + 1);
-				}
+	private void setBounds(float[] bounds) {
+		System.arraycopy(bounds, 0, _boundsMin, 0, 3);
+		System.arraycopy(bounds, 3, _boundsMax, 0, 3);
+		System.arraycopy(bounds, 6, _center, 0, 3);
+		_boundingRadius = bounds[9];
+	}
+
+	/**
+	 * Splits the full mesh into drawable chunks.
+	 * @param intIndicesSupported true if the device has OES_element_index_uint
+	 * @return one chunk if the mesh can be drawn in one go, otherwise
+	 * several chunks with 16-bit indices
+	 */
+	public MeshChunk[] getChunks(boolean intIndicesSupported) {
+		return getChunks(intIndicesSupported, 0);
+	}
+
+	/**
+	 * Splits a level of detail into drawable chunks.
+	 * @param lod 0 = full mesh, clamped to get_numLods() - 1
+	 */
+	public MeshChunk[] getChunks(boolean intIndicesSupported, int lod) {
+		lod = Math.max(0, Math.min(lod, _lodIbs.length - 1));
+		if (_chunks == null || _chunksIntIndices != intIndicesSupported) {
+			_chunks = new MeshChunk[_lodIbs.length][];
+			_chunksIntIndices = intIndicesSupported;
+		}
+		if (_chunks[lod] != null)
+			return _chunks[lod];
+
+		Buffer ib = _lodIbs[lod];
+		int numIndices = _lodNumIndices[lod];
+		if (ib instanceof ShortBuffer || intIndicesSupported) {
+			int type = (ib instanceof ShortBuffer) ? GLES20.GL_UNSIGNED_SHORT : GLES20.GL_UNSIGNED_INT;
+			_chunks[lod] = new MeshChunk[] { new MeshChunk(_vb, _format, _numVertices, ib, numIndices, type) };
+		}
+		else {
+			_chunks[lod] = splitChunks((IntBuffer)ib, numIndices);
+		}
+		return _chunks[lod];
+	}
+
+	/**
+	 * Splits the triangles (in order) into chunks of at most 65536 vertices.
+	 * Every chunk gets its own copy of the vertices it uses.
+	 */
+	private MeshChunk[] splitChunks(IntBuffer ib, int numIndices) {
+		ArrayList<MeshChunk> chunks = new ArrayList<MeshChunk>();
+
+		// original vertex -> chunk vertex (-1 = not in the current chunk)
+		int[] remap = new int[_numVertices];
+		Arrays.fill(remap, -1);
+
+		int[] chunkVertices = new int[MAX_SHORT_VERTICES];	// chunk vertex -> original vertex
+		int[] chunkIndices = new int[Math.min(numIndices, MAX_SHORT_VERTICES * 6)];
+		int numChunkVertices = 0;
+		int numChunkIndices = 0;
+
+		for (int t = 0; t < numIndices; t += 3) {
+			// how many new vertices would the triangle add?
+			int needed = 0;
+			for (int k = 0; k < 3; k++)
+				if (remap[ib.get(t + k)] < 0)
+					needed++;
+
+			if (numChunkVertices + needed > MAX_SHORT_VERTICES
+					|| numChunkIndices + 3 > chunkIndices.length) {
+				chunks.add(createChunk(chunkVertices, numChunkVertices, chunkIndices, numChunkIndices));
+				for (int i = 0; i < numChunkVertices; i++)
+					remap[chunkVertices[i]] = -1;
+				numChunkVertices = 0;
+				numChunkIndices = 0;
 			}
-			
-			// now read all the faces
-			String fFace, sFace, tFace;
-			ArrayList<Float> mainBuffer = new ArrayList<Float>(numVertices * 6);
-			ArrayList<Short> indicesB = new ArrayList<Short>(numVertices * 3);
-			StringTokenizer lt, ft; // the face tokenizer
-			int numFaces = 0;
-			short index = 0;
-			if (type.equals("f")) {
-				while (type.equals("f")) {
-					// Each line: f v1/vt1/vn1 v2/vt2/vn2 
-					// Figure out all the vertices
-					for (int j = 0; j < 3; j++) {
-						fFace = t.nextToken();
-						// another tokenizer - based on /
-						ft = new StringTokenizer(fFace, "/");
-						int vert = Integer.parseInt(ft.nextToken()) - 1;
-						int texc = Integer.parseInt(ft.nextToken()) - 1;
-						int vertN = Integer.parseInt(ft.nextToken()) - 1;
-						
-						// Add to the index buffer
-						indicesB.add(index++);
-						
-						// Add all the vertex info
-						mainBuffer.add(_v[vert * 3]); 	 // x
-						mainBuffer.add(_v[vert * 3 + 1]);// y
-						mainBuffer.add(_v[vert * 3 + 2]);// z
-					
-						// add the normal info
-						mainBuffer.add(_n[vertN * 3]); 	  // x
-						mainBuffer.add(_n[vertN * 3 + 1]); // y
-						mainBuffer.add(_n[vertN * 3 + 2]); // z
-						
-						// add the tex coord info
-						mainBuffer.add(_texCoords[texc * 2]); 	  // u
-						mainBuffer.add(_texCoords[texc * 2 + 1]); // v
-						
-					}
-					
-					// next face
-					str = in.readLine();
-					if (str != null) {
-						t = new StringTokenizer(str);
-						numFaces++;
-						type = t.nextToken();
-					}
-					else
-						break;
+
+			for (int k = 0; k < 3; k++) {
+				int v = ib.get(t + k);
+				if (remap[v] < 0) {
+					remap[v] = numChunkVertices;
+					chunkVertices[numChunkVertices++] = v;
 				}
+				chunkIndices[numChunkIndices++] = remap[v];
 			}
-			
-			mainBuffer.trimToSize();
-			//Log.d("COMPLETED MAINBUFFER:", "" + mainBuffer.size());
-			
-			_vertices = new float[mainBuffer.size()];
-			
-			// copy over the mainbuffer to the vertex + normal array
-			for(int i = 0; i < mainBuffer.size(); i++)
-				_vertices[i] = mainBuffer.get(i);
-			
-			//Log.d("COMPLETED TRANSFER:", "VERTICES: " + _vertices.length);
-			
-			// copy over indices buffer
-			indicesB.trimToSize();
-			_indices = new short[indicesB.size()];
-			for(int i = 0; i < indicesB.size(); i++) {
-				_indices[i] = indicesB.get(i);
-			}
-			
-			return 1;
-			
-		} catch(Exception e) {
-			throw e;
 		}
+		if (numChunkIndices > 0)
+			chunks.add(createChunk(chunkVertices, numChunkVertices, chunkIndices, numChunkIndices));
+
+		Log.d("Mesh", "mesh " + meshID + ": " + _numVertices + " vertices split into "
+				+ chunks.size() + " 16-bit chunks");
+		return chunks.toArray(new MeshChunk[chunks.size()]);
+	}
+
+	private MeshChunk createChunk(int[] vertices, int numVertices, int[] indices, int numIndices) {
+		// copied byte for byte - works for every vertex format
+		int stride = _format.get_stride();
+		ByteBuffer vb = ByteBuffer.allocateDirect(numVertices * stride).order(ByteOrder.nativeOrder());
+		for (int i = 0; i < numVertices; i++)
+			for (int k = 0; k < stride; k++)
+				vb.put(_vb.get(vertices[i] * stride + k));
+		vb.position(0);
+
+		return new MeshChunk(vb, _format, numVertices, createIndexBuffer(indices, numIndices, false),
+				numIndices, GLES20.GL_UNSIGNED_SHORT);
 	}
+
 	/**
-	 * Sets the face normal of the i'th face
-	 * @param i the index of the face
-	 * @param firstV first vertex of the triangle
-	 * @param secondV second vertex of the triangle
-	 * @param thirdV third vertex of the triangle
+	 * Creates a direct index buffer
+	 * @param intIndices true for 32-bit indices, false for 16-bit
 	 */
-	private void setFaceNormal(int i, int firstV, int secondV, int thirdV) {
-		// get coordinates of all the vertices
-		float v1[] = {_vertices[firstV * VERTEX_ARRAY_SIZE], _vertices[firstV * VERTEX_ARRAY_SIZE + 1], _vertices[firstV * VERTEX_ARRAY_SIZE + 2]};
-		float v2[] = {_vertices[secondV * VERTEX_ARRAY_SIZE], _vertices[secondV * VERTEX_ARRAY_SIZE + 1], _vertices[secondV * VERTEX_ARRAY_SIZE + 2]};
-		float v3[] = {_vertices[thirdV * VERTEX_ARRAY_SIZE], _vertices[thirdV * VERTEX_ARRAY_SIZE + 1], _vertices[thirdV * VERTEX_ARRAY_SIZE + 2]};
-
-		// calculate the cross product of v1-v2 and v2-v3
-		float v1v2[] = {v1[0]-v2[0], v1[1]-v2[1], v1[2]-v2[2]};
-		float v3v2[] = {v3[0]-v2[0], v3[1]-v2[1], v3[2]-v2[2]};
-		
-		float cp[] = crossProduct(v1v2, v3v2);
+	private static Buffer createIndexBuffer(int[] indices, int numIndices, boolean intIndices) {
+		if (intIndices) {
+			IntBuffer ib = ByteBuffer.allocateDirect(numIndices
+					* INT_SIZE_BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+			ib.put(indices, 0, numIndices);
+			ib.position(0);
+			return ib;
+		}
 
-		// try normalizing here
-		float sqrt = (float)Math.sqrt(cp[0] * cp[0] +
-				cp[1] * cp[1] +
-				cp[2] * cp[2]);
+		ShortBuffer ib = ByteBuffer.allocateDirect(numIndices
+				* SHORT_SIZE_BYTES).order(ByteOrder.nativeOrder()).asShortBuffer();
+		for (int i = 0; i < numIndices; i++)
+			ib.put((short)indices[i]);
+		ib.position(0);
+		return ib;
+	}
 
-		cp[0] /= sqrt;
-		cp[1] /= sqrt;
-		cp[2] /= sqrt;
-		
-		if (cp[0] == -0.0f)
-			cp[0] = 0.0f;
-		if (cp[1] == -0.0f)
-			cp[1] = 0.0f;
-		if (cp[2] == -0.0f)
-			cp[2] = 0.0f;
-		// end normalizing
-
-		// set the normal
-		_faceNormals[i * 3]     = cp[0];
-		_faceNormals[i * 3 + 1] = cp[1];
-		_faceNormals[i * 3 + 2] = cp[2];
-
-		_vertices[firstV * this.VERTEX_ARRAY_SIZE + 3] += _faceNormals[i * 3];
-		_vertices[firstV * this.VERTEX_ARRAY_SIZE + 4] += _faceNormals[i * 3 + 1];
-		_vertices[firstV * this.VERTEX_ARRAY_SIZE + 5] += _faceNormals[i * 3 + 2];
-		
-		_vertices[secondV * this.VERTEX_ARRAY_SIZE + 3] += _faceNormals[i * 3];
-		_vertices[secondV * this.VERTEX_ARRAY_SIZE + 4] += _faceNormals[i * 3 + 1];
-		_vertices[secondV * this.VERTEX_ARRAY_SIZE + 5] += _faceNormals[i * 3 + 2];
+	/**
+	 * Maps the raw resource if it's stored uncompressed in the apk
+	 * @return the mapped file, or null if it can't be mapped
+	 */
+	private ByteBuffer mapResource() throws IOException {
+		AssetFileDescriptor afd;
+		try {
+			afd = activity.getResources().openRawResourceFd(meshID);
+		} catch (Resources.NotFoundException e) {
+			return null; // compressed
+		}
+		if (afd == null)
+			return null;
 
-		_vertices[thirdV * this.VERTEX_ARRAY_SIZE + 3] += _faceNormals[i * 3];
-		_vertices[thirdV * this.VERTEX_ARRAY_SIZE + 4] += _faceNormals[i * 3 + 1];
-		_vertices[thirdV * this.VERTEX_ARRAY_SIZE + 5] += _faceNormals[i * 3 + 2];
+		FileInputStream fis = afd.createInputStream();
+		try {
+			return fis.getChannel().map(FileChannel.MapMode.READ_ONLY, afd.getStartOffset(), afd.getLength());
+		} finally {
+			fis.close();
+			afd.close();
+		}
+	}
 
-		// increment # of faces around the vertex
-		_surroundingFaces[firstV]++;
-		_surroundingFaces[secondV]++;
-		_surroundingFaces[thirdV]++;
+	/**
+	 * Reads the rest of the stream into a direct buffer
+	 */
+	private static ByteBuffer readDirect(InputStream in) throws IOException {
+		byte[] chunk = new byte[8192];
+		ByteBuffer data = ByteBuffer.allocateDirect(Math.max(in.available(), chunk.length));
+		int read;
+		while ((read = in.read(chunk)) != -1) {
+			if (data.remaining() < read) {
+				ByteBuffer bigger = ByteBuffer.allocateDirect(data.capacity() * 2 + read);
+				data.flip();
+				bigger.put(data);
+				data = bigger;
+			}
+			data.put(chunk, 0, read);
+		}
+		data.flip();
+		return data.slice();
 	}
 
 	/**
@@ -503,20 +512,78 @@ public class Mesh {
 	public void set_vertices(float[] _vertices) {
 		this._vertices = _vertices;
 	}
-	public short[] get_indices() {
+	public int[] get_indices() {
 		return _indices;
 	}
 
-	public FloatBuffer get_vb() {
+	public int get_numVertices() {
+		return _numVertices;
+	}
+
+	public int get_numIndices() {
+		return _numIndices;
+	}
+
+	/**
+	 * @return the interleaved vertices - see get_format() for the layout
+	 */
+	public ByteBuffer get_vb() {
 		return this._vb;
 	}
+
+	public VertexFormat get_format() {
+		return this._format;
+	}
 	
 	public FloatBuffer get_nb() {
 		return this._nb;
 	}
 	
-	public ShortBuffer get_ib() {
+	public Buffer get_ib() {
 		return this._ib;
 	}
 
+	/**
+	 * @return # of levels of detail, including the full mesh
+	 */
+	public int get_numLods() {
+		return _lodIbs == null ? 1 : _lodIbs.length;
+	}
+
+	public int get_numIndices(int lod) {
+		return _lodNumIndices[lod];
+	}
+
+	/**
+	 * @return minimum corner of the bounding box (object space)
+	 */
+	public float[] get_boundsMin() {
+		return _boundsMin;
+	}
+
+	/**
+	 * @return maximum corner of the bounding box (object space)
+	 */
+	public float[] get_boundsMax() {
+		return _boundsMax;
+	}
+
+	/**
+	 * @return center of the bounding sphere (object space)
+	 */
+	public float[] get_center() {
+		return _center;
+	}
+
+	public float get_boundingRadius() {
+		return _boundingRadius;
+	}
+
+	/**
+	 * @return GL_UNSIGNED_SHORT or GL_UNSIGNED_INT
+	 */
+	public int get_indexType() {
+		return (_ib instanceof IntBuffer) ? GLES20.GL_UNSIGNED_INT : GLES20.GL_UNSIGNED_SHORT;
+	}
+
 }
@@ -0,0 +1,68 @@
+/**
+ * A drawable piece of a Mesh: a vertex buffer + an index buffer that can be
+ * drawn with a single glDrawElements.
+ * Meshes that fit their index type are one chunk; big meshes on devices
+ * without 32-bit index support are split into several 16-bit chunks.
+ */
+
+package graphics.shaders;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+import android.opengl.GLES20;
+
+public class MeshChunk {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	private ByteBuffer _vb;
+	private VertexFormat _format;
+	private Buffer _ib;
+	private int _numVertices;
+	private int _numIndices;
+	private int _indexType;		// GL_UNSIGNED_SHORT or GL_UNSIGNED_INT
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	public MeshChunk(ByteBuffer vb, VertexFormat format, int numVertices, Buffer ib, int numIndices, int indexType) {
+		this._vb = vb;
+		this._format = format;
+		this._numVertices = numVertices;
+		this._ib = ib;
+		this._numIndices = numIndices;
+		this._indexType = indexType;
+	}
+
+	/***************************
+	 * GET/SET
+	 *************************/
+	public ByteBuffer get_vb() {
+		return _vb;
+	}
+
+	public VertexFormat get_format() {
+		return _format;
+	}
+
+	public Buffer get_ib() {
+		return _ib;
+	}
+
+	public int get_numVertices() {
+		return _numVertices;
+	}
+
+	public int get_numIndices() {
+		return _numIndices;
+	}
+
+	public int get_indexType() {
+		return _indexType;
+	}
+
+	public boolean hasIntIndices() {
+		return _indexType == GLES20.GL_UNSIGNED_INT;
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ * Offline converter: text .OFF/.OBJ meshes -> binary mesh files (see MeshFile).
+ * Plain Java, no Android dependencies - run it on the build machine:
+ *
+ *   java -cp bin/classes graphics.shaders.MeshConverter [-be] [-q] in.txt out.msh [in2.txt out2.msh ...]
+ *
+ * -be writes big endian data, the default is little endian (every Android ABI).
+ * -q  writes the 16 byte quantized vertex layout instead of 48 byte floats
+ *     (see VertexQuantizer) and prints the measured error.
+ *
+ * Tangents, bounds and the LOD chain (see MeshSimplifier.buildLods) are
+ * computed here and stored, Mesh only maps them.
+ *
+ * An input can also be a binary mesh from an older version (which Mesh
+ * rejects) - it's read back and written in the current format.
+ *
+ * Note: aapt compresses files in res/raw unless their extension is on its
+ * no-compress list (or passed with -0). Mesh can only memory map
+ * uncompressed resources - compressed ones are still loaded without
+ * parsing, but through one copy.
+ */
+
+package graphics.shaders;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class MeshConverter {
+
+	public static void main(String[] args) throws IOException {
+		ByteOrder order = ByteOrder.LITTLE_ENDIAN;
+		boolean quantize = false;
+		int first = 0;
+		for (; first < args.length && args[first].startsWith("-"); first++) {
+			if (args[first].equals("-be"))
+				order = ByteOrder.BIG_ENDIAN;
+			else if (args[first].equals("-q"))
+				quantize = true;
+			else
+				break;
+		}
+
+		if (args.length - first < 2 || (args.length - first) % 2 != 0) {
+			System.err.println("Usage: MeshConverter [-be] [-q] in.txt out.msh [in2.txt out2.msh ...]");
+			System.exit(1);
+		}
+
+		MeshParser parser = new MeshParser();
+		for (int i = first; i < args.length; i += 2)
+			convert(parser, args[i], args[i + 1], order, quantize);
+	}
+
+	/**
+	 * Converts one file
+	 * @param quantize true for the quantized vertex layout
+	 */
+	public static void convert(MeshParser parser, String in, String out, ByteOrder order, boolean quantize) throws IOException {
+		float[] vertices;
+		int[] indices;
+		String source;
+
+		InputStream is = new BufferedInputStream(new FileInputStream(in));
+		try {
+			is.mark(MeshFile.HEADER_SIZE_BYTES);
+			byte[] magic = new byte[4];
+			int read = is.read(magic);
+			is.reset();
+
+			if (read == magic.length && MeshFile.isMeshFile(ByteBuffer.wrap(magic))) {
+				// older binary mesh - decode it and run it through again
+				ByteBuffer data = readFully(is);
+				MeshFile header = MeshFile.readHeader(data);
+				vertices = header.readVertices(data);
+				indices = header.readIndices(data);
+				source = "binary mesh version " + header.get_version()
+						+ (header.get_format().hasTangents() ? "" : " without tangents");
+			}
+			else {
+				if (!parser.parse(is))
+					throw new IOException(in + " is not an OFF or OBJ file");
+				vertices = parser.get_vertices();
+				indices = parser.get_indices();
+				source = parser.get_numUnweldedVertices() + " vertices before welding";
+			}
+		} finally {
+			is.close();
+		}
+		int numVertices = vertices.length / MeshParser.VERTEX_ARRAY_SIZE;
+
+		// reorder triangles for the post-transform cache, then vertices for fetch
+		VertexCacheSimulator cache = new VertexCacheSimulator();
+		cache.simulate(indices, indices.length, numVertices);
+		float acmr = cache.get_acmr();
+
+		VertexCacheOptimizer.optimize(indices, indices.length, numVertices);
+		vertices = VertexCacheOptimizer.optimizeVertexFetch(vertices, MeshParser.VERTEX_ARRAY_SIZE, indices, indices.length);
+		numVertices = vertices.length / MeshParser.VERTEX_ARRAY_SIZE;
+		cache.simulate(indices, indices.length, numVertices);
+
+		// tangents for normal mapping
+		float[] tangents = new TangentGenerator().generate(vertices, MeshParser.VERTEX_ARRAY_SIZE, numVertices, indices, indices.length);
+
+		// LOD chain and bounds, so Mesh can map them instead of simplifying at load
+		MeshSimplifier simplifier = new MeshSimplifier();
+		int[][] lods = simplifier.buildLods(vertices, MeshParser.VERTEX_ARRAY_SIZE, numVertices, indices, indices.length);
+
+		VertexFormat format = quantize ? VertexQuantizer.computeFormat(vertices, numVertices, true) : VertexFormat.FLOAT_TANGENTS;
+
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(out));
+		try {
+			MeshFile.write(os, vertices, tangents, indices, lods, format, order);
+		} finally {
+			os.close();
+		}
+
+		System.out.println(in + " -> " + out + ": " + numVertices + " vertices (" + source + "), "
+				+ indices.length / 3 + " triangles, ACMR " + acmr + " -> " + cache.get_acmr()
+				+ ", " + lods.length + " LODs (error " + simplifier.get_error() + ")");
+
+		if (quantize) {
+			ByteBuffer encoded = ByteBuffer.allocate(numVertices * format.get_stride()).order(order);
+			VertexQuantizer.encode(vertices, tangents, numVertices, format, encoded);
+			float[] error = VertexQuantizer.measureError(vertices, numVertices, encoded, format);
+			System.out.println("  quantized: " + format.get_stride() + " bytes/vertex, max error position "
+					+ error[0] + " (bound " + VertexQuantizer.positionErrorBound(format) + "), normal "
+					+ error[1] + " degrees (bound " + VertexQuantizer.NORMAL_ERROR_BOUND_DEGREES + "), texcoord "
+					+ error[2] + " (bound " + VertexQuantizer.texCoordErrorBound(format) + ")");
+		}
+	}
+
+	/**
+	 * Reads the rest of the stream
+	 */
+	private static ByteBuffer readFully(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] chunk = new byte[8192];
+		int read;
+		while ((read = in.read(chunk)) != -1)
+			bytes.write(chunk, 0, read);
+		return ByteBuffer.wrap(bytes.toByteArray());
+	}
+}
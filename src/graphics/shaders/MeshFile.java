@@ -0,0 +1,433 @@
+/**
+ * Precompiled binary mesh format.
+ * Written offline by MeshConverter and memory mapped by Mesh at runtime -
+ * vertex and index data (including the LOD chain) are stored exactly the
+ * way they go to OpenGL, so loading is just a mapping + buffer slices
+ * (and one pass over the indices to range check them).
+ *
+ * FORMAT (all ints in the file's byte order):
+ * ------------
+ *  0  'M' 'S' 'H' 'B'	magic
+ *  4  version
+ *  8  0x01020304		byte order marker
+ * 12  vertex stride	(# of 4 byte words per vertex - 8 float, 12 float + tangents, 4 quantized)
+ * 16  vertex count
+ * 20  index count
+ * 24  index size		(bytes per index - 2, or 4 for more than 65536 vertices)
+ * 28  vertex format	(VertexFormat.ID_* - always ID_FLOAT in version 1)
+ * 32  dequantization	(quantized only - 12 floats: position scale xyz, position
+ *						offset xyz, texcoord scale uv, texcoord offset uv, 2 x pad)
+ *  .. vertex data		vertex count * stride words
+ *  .. index data		index count * index size bytes
+ *
+ * Version 3 adds, each part starting at a multiple of 4 bytes:
+ *  .. bounds			10 floats: min xyz, max xyz, center xyz, bounding radius
+ *  .. LOD count		# of simplified levels after the full mesh (see MeshSimplifier.buildLods)
+ *  .. LOD index counts	one int per level
+ *  .. LOD index data	per level, index count * index size bytes
+ */
+
+package graphics.shaders;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class MeshFile {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	public static final int VERSION = 3;
+
+	public static final int HEADER_SIZE_BYTES = 32;
+	private static final int DEQUANT_SIZE_BYTES = 12 * 4;
+	public static final int BOUNDS_SIZE = 10;
+	private static final int BYTE_ORDER_MARKER = 0x01020304;
+	private static final byte[] MAGIC = {'M', 'S', 'H', 'B'};
+
+	// header offsets
+	private static final int VERSION_OFFSET = 4;
+	private static final int ORDER_OFFSET = 8;
+	private static final int STRIDE_OFFSET = 12;
+	private static final int VERTEX_COUNT_OFFSET = 16;
+	private static final int INDEX_COUNT_OFFSET = 20;
+	private static final int INDEX_SIZE_OFFSET = 24;
+	private static final int FORMAT_OFFSET = 28;
+
+	private static final int FLOAT_SIZE_BYTES = 4;
+	private static final int SHORT_SIZE_BYTES = 2;
+	private static final int INT_SIZE_BYTES = 4;
+
+	// parsed header
+	private int _version;
+	private int _vertexStride;
+	private int _vertexCount;
+	private int _indexCount;
+	private int _indexSize;
+	private VertexFormat _format;
+	private int[] _lodIndexCounts = new int[0];	// simplified levels only
+	private int _boundsOffset;
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	private MeshFile() {
+
+	}
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * @return true if the buffer starts with the binary mesh magic
+	 */
+	public static boolean isMeshFile(ByteBuffer data) {
+		if (data.remaining() < MAGIC.length)
+			return false;
+		for (int i = 0; i < MAGIC.length; i++)
+			if (data.get(data.position() + i) != MAGIC[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Reads and validates the header at position 0 of data - counts, sizes and
+	 * every index against the vertex count, so a corrupt file is an IOException.
+	 * Sets data's byte order to native order.
+	 */
+	public static MeshFile readHeader(ByteBuffer data) throws IOException {
+		if (data.capacity() < HEADER_SIZE_BYTES || !isMeshFile(data))
+			throw new IOException("Not a binary mesh file");
+
+		data.order(ByteOrder.nativeOrder());
+		if (data.getInt(ORDER_OFFSET) != BYTE_ORDER_MARKER)
+			throw new IOException("Binary mesh was written for the other byte order - reconvert it");
+
+		MeshFile header = new MeshFile();
+		header._version = data.getInt(VERSION_OFFSET);
+		header._vertexStride = data.getInt(STRIDE_OFFSET);
+		header._vertexCount = data.getInt(VERTEX_COUNT_OFFSET);
+		header._indexCount = data.getInt(INDEX_COUNT_OFFSET);
+		header._indexSize = data.getInt(INDEX_SIZE_OFFSET);
+		int formatID = data.getInt(FORMAT_OFFSET);
+
+		if (header._version < 1 || header._version > VERSION)
+			throw new IOException("Unsupported binary mesh version " + header._version);
+		if (header._indexSize != SHORT_SIZE_BYTES && header._indexSize != INT_SIZE_BYTES)
+			throw new IOException("Unsupported index size " + header._indexSize);
+
+		boolean tangents = (formatID == VertexFormat.ID_FLOAT_TANGENTS || formatID == VertexFormat.ID_QUANTIZED_TANGENTS);
+		if (formatID == VertexFormat.ID_FLOAT || formatID == VertexFormat.ID_FLOAT_TANGENTS) {
+			header._format = tangents ? VertexFormat.FLOAT_TANGENTS : VertexFormat.FLOAT;
+		}
+		else if ((formatID == VertexFormat.ID_QUANTIZED || formatID == VertexFormat.ID_QUANTIZED_TANGENTS)
+				&& data.capacity() >= HEADER_SIZE_BYTES + DEQUANT_SIZE_BYTES) {
+			float[] d = new float[12];
+			for (int i = 0; i < d.length; i++)
+				d[i] = data.getFloat(HEADER_SIZE_BYTES + i * FLOAT_SIZE_BYTES);
+			header._format = VertexFormat.createQuantized(new float[] {d[0], d[1], d[2]},
+					new float[] {d[3], d[4], d[5]}, new float[] {d[6], d[7], d[8], d[9]}, tangents);
+		}
+		else {
+			throw new IOException("Unsupported vertex format " + formatID);
+		}
+		if (header._vertexStride * FLOAT_SIZE_BYTES != header._format.get_stride())
+			throw new IOException("Unsupported vertex stride " + header._vertexStride);
+
+		if (header._vertexCount < 0 || header._indexCount < 0 || header._indexCount % 3 != 0)
+			throw new IOException("Unsupported vertex/index count " + header._vertexCount + "/" + header._indexCount);
+		// in long - a corrupt count must not wrap around into a size that fits
+		if (header.get_vertexDataOffset() + (long)header._vertexCount * header._format.get_stride()
+				+ (long)header._indexCount * header._indexSize > data.capacity())
+			throw new IOException("Binary mesh is truncated");
+
+		if (header._version >= 3) {
+			header._boundsOffset = align(header.get_vertexDataOffset() + header.get_vertexBytes()
+					+ header._indexCount * header._indexSize);
+			int countOffset = header._boundsOffset + BOUNDS_SIZE * FLOAT_SIZE_BYTES;
+			if (data.capacity() < countOffset + INT_SIZE_BYTES)
+				throw new IOException("Binary mesh is truncated");
+
+			int lodCount = data.getInt(countOffset);
+			if (lodCount < 0 || lodCount > (data.capacity() - countOffset) / INT_SIZE_BYTES - 1)
+				throw new IOException("Unsupported LOD count " + lodCount);
+			header._lodIndexCounts = new int[lodCount];
+			for (int l = 0; l < lodCount; l++) {
+				int count = data.getInt(countOffset + (l + 1) * INT_SIZE_BYTES);
+				if (count < 0 || count % 3 != 0 || count > header._indexCount)
+					throw new IOException("Unsupported LOD index count " + count);
+				header._lodIndexCounts[l] = count;
+			}
+		}
+		if (data.capacity() < header.get_fileSize())
+			throw new IOException("Binary mesh is truncated");
+
+		// glDrawElements would read past the vertex buffer
+		for (int l = 0; l < header.get_numLods(); l++)
+			header.checkIndices(header.lodIndexSlice(data, l), header.get_lodIndexCount(l));
+
+		return header;
+	}
+
+	private void checkIndices(ByteBuffer ib, int count) throws IOException {
+		for (int i = 0; i < count; i++) {
+			int index = (_indexSize == INT_SIZE_BYTES) ? ib.getInt(i * INT_SIZE_BYTES)
+					: ib.getShort(i * SHORT_SIZE_BYTES) & 0xffff;
+			if (index < 0 || index >= _vertexCount)
+				throw new IOException("Index " + index + " out of range for " + _vertexCount + " vertices");
+		}
+	}
+
+	/**
+	 * Writes a mesh in the binary format
+	 * @param vertices interleaved float vertices (MeshParser layout)
+	 * @param tangents TangentGenerator output - Mesh rejects files without tangents
+	 * @param lods simplified levels after the full mesh (MeshSimplifier.buildLods), may be empty
+	 * @param format FLOAT_TANGENTS, or a quantized format with tangents from VertexQuantizer.computeFormat
+	 */
+	public static void write(OutputStream out, float[] vertices, float[] tangents, int[] indices, int[][] lods,
+			VertexFormat format, ByteOrder order) throws IOException {
+		if (!format.hasTangents() || tangents == null)
+			throw new IOException("Binary meshes are written with tangents");
+		int vertexCount = vertices.length / MeshParser.VERTEX_ARRAY_SIZE;
+		int indexSize = (vertexCount > 65536) ? INT_SIZE_BYTES : SHORT_SIZE_BYTES;
+		int dequantSize = format.isQuantized() ? DEQUANT_SIZE_BYTES : 0;
+
+		int size = align(HEADER_SIZE_BYTES + dequantSize
+				+ vertexCount * format.get_stride()
+				+ indices.length * indexSize)
+				+ BOUNDS_SIZE * FLOAT_SIZE_BYTES + (1 + lods.length) * INT_SIZE_BYTES;
+		for (int l = 0; l < lods.length; l++)
+			size += align(lods[l].length * indexSize);
+		ByteBuffer data = ByteBuffer.allocate(size).order(order);
+
+		// header
+		data.put(MAGIC);
+		data.putInt(VERSION);
+		data.putInt(BYTE_ORDER_MARKER);
+		data.putInt(format.get_stride() / FLOAT_SIZE_BYTES);
+		data.putInt(vertexCount);
+		data.putInt(indices.length);
+		data.putInt(indexSize);
+		data.putInt(format.get_id());
+
+		// vertices
+		if (format.isQuantized()) {
+			data.asFloatBuffer().put(format.get_positionScale()).put(format.get_positionOffset())
+					.put(format.get_texCoordScaleOffset()).put(0).put(0);
+			data.position(data.position() + DEQUANT_SIZE_BYTES);
+		}
+		VertexQuantizer.encode(vertices, tangents, vertexCount, format, data);
+		data.position(data.position() + vertexCount * format.get_stride());
+
+		// indices
+		putIndices(data, indices, indexSize);
+
+		// bounds and LOD chain
+		for (float f : computeBounds(vertices, MeshParser.VERTEX_ARRAY_SIZE, vertexCount))
+			data.putFloat(f);
+		data.putInt(lods.length);
+		for (int l = 0; l < lods.length; l++)
+			data.putInt(lods[l].length);
+		for (int l = 0; l < lods.length; l++)
+			putIndices(data, lods[l], indexSize);
+
+		out.write(data.array(), 0, data.position());
+	}
+
+	/**
+	 * Writes indices and pads to the next multiple of 4 bytes
+	 */
+	private static void putIndices(ByteBuffer data, int[] indices, int indexSize) {
+		if (indexSize == INT_SIZE_BYTES) {
+			data.asIntBuffer().put(indices);
+			data.position(data.position() + indices.length * INT_SIZE_BYTES);
+		}
+		else {
+			for (int i = 0; i < indices.length; i++)
+				data.putShort((short)indices[i]);
+		}
+		data.position(align(data.position()));
+	}
+
+	private static int align(int offset) {
+		return (offset + 3) & ~3;
+	}
+
+	/**
+	 * Bounding box, and a bounding sphere around the center of the box
+	 * @param vertices positions at 0 of each vertex
+	 * @param stride # of floats per vertex
+	 * @return min xyz, max xyz, center xyz, radius - all 0 without vertices
+	 */
+	public static float[] computeBounds(float[] vertices, int stride, int numVertices) {
+		float[] bounds = new float[BOUNDS_SIZE];
+		if (numVertices == 0)
+			return bounds;
+
+		for (int k = 0; k < 3; k++) {
+			bounds[k] = Float.MAX_VALUE;
+			bounds[3 + k] = -Float.MAX_VALUE;
+		}
+		for (int i = 0; i < numVertices; i++) {
+			for (int k = 0; k < 3; k++) {
+				bounds[k] = Math.min(bounds[k], vertices[i * stride + k]);
+				bounds[3 + k] = Math.max(bounds[3 + k], vertices[i * stride + k]);
+			}
+		}
+		for (int k = 0; k < 3; k++)
+			bounds[6 + k] = (bounds[k] + bounds[3 + k]) * 0.5f;
+
+		float radius2 = 0;
+		for (int i = 0; i < numVertices; i++) {
+			float dx = vertices[i * stride] - bounds[6];
+			float dy = vertices[i * stride + 1] - bounds[7];
+			float dz = vertices[i * stride + 2] - bounds[8];
+			radius2 = Math.max(radius2, dx * dx + dy * dy + dz * dz);
+		}
+		bounds[9] = (float)Math.sqrt(radius2);
+		return bounds;
+	}
+
+	/**
+	 * @return the vertices in the MeshParser layout - decoded if quantized, tangents dropped.
+	 * A copy - for the converter, Mesh uses the data in place.
+	 */
+	public float[] readVertices(ByteBuffer data) {
+		ByteBuffer vb = vertexSlice(data);
+		int size = MeshParser.VERTEX_ARRAY_SIZE;
+		int stride = _format.get_stride();
+		float[] vertices = new float[_vertexCount * size];
+
+		for (int i = 0; i < _vertexCount; i++) {
+			if (_format.isQuantized()) {
+				VertexQuantizer.decode(vb, i, _format, vertices, i * size);
+			}
+			else {
+				for (int k = 0; k < size; k++)
+					vertices[i * size + k] = vb.getFloat(i * stride + k * FLOAT_SIZE_BYTES);
+			}
+		}
+		return vertices;
+	}
+
+	/**
+	 * @return a copy of the indices
+	 */
+	public int[] readIndices(ByteBuffer data) {
+		ByteBuffer ib = indexSlice(data);
+		int[] indices = new int[_indexCount];
+		for (int i = 0; i < _indexCount; i++)
+			indices[i] = (_indexSize == INT_SIZE_BYTES) ? ib.getInt(i * INT_SIZE_BYTES)
+					: ib.getShort(i * SHORT_SIZE_BYTES) & 0xffff;
+		return indices;
+	}
+
+	/**
+	 * @return the vertex data of a mapped file - no copy
+	 */
+	public ByteBuffer vertexSlice(ByteBuffer data) {
+		return slice(data, get_vertexDataOffset(), get_vertexBytes());
+	}
+
+	/**
+	 * @return the index data of a mapped file - no copy
+	 */
+	public ByteBuffer indexSlice(ByteBuffer data) {
+		return slice(data, get_vertexDataOffset() + get_vertexBytes(), _indexCount * _indexSize);
+	}
+
+	/**
+	 * @param lod 0 = the full mesh (indexSlice), 1.. the simplified levels
+	 * @return the index data of a level of a mapped file - no copy
+	 */
+	public ByteBuffer lodIndexSlice(ByteBuffer data, int lod) {
+		if (lod == 0)
+			return indexSlice(data);
+		int offset = get_lodDataOffset();
+		for (int l = 1; l < lod; l++)
+			offset += align(get_lodIndexCount(l) * _indexSize);
+		return slice(data, offset, get_lodIndexCount(lod) * _indexSize);
+	}
+
+	/**
+	 * @return the stored bounds (see computeBounds), null before version 3
+	 */
+	public float[] readBounds(ByteBuffer data) {
+		if (_version < 3)
+			return null;
+		float[] bounds = new float[BOUNDS_SIZE];
+		for (int i = 0; i < BOUNDS_SIZE; i++)
+			bounds[i] = data.getFloat(_boundsOffset + i * FLOAT_SIZE_BYTES);
+		return bounds;
+	}
+
+	private static ByteBuffer slice(ByteBuffer data, int offset, int length) {
+		ByteBuffer dup = data.duplicate();
+		dup.position(offset);
+		dup.limit(offset + length);
+		return dup.slice().order(ByteOrder.nativeOrder());
+	}
+
+	/***************************
+	 * GET/SET
+	 *************************/
+	public int get_version() {
+		return _version;
+	}
+
+	public int get_vertexStride() {
+		return _vertexStride;
+	}
+
+	public VertexFormat get_format() {
+		return _format;
+	}
+
+	public int get_vertexCount() {
+		return _vertexCount;
+	}
+
+	public int get_indexCount() {
+		return _indexCount;
+	}
+
+	public int get_indexSize() {
+		return _indexSize;
+	}
+
+	public int get_vertexBytes() {
+		return _vertexCount * _vertexStride * FLOAT_SIZE_BYTES;
+	}
+
+	public int get_vertexDataOffset() {
+		return HEADER_SIZE_BYTES + (_format.isQuantized() ? DEQUANT_SIZE_BYTES : 0);
+	}
+
+	/**
+	 * @return # of levels of detail including the full mesh - 1 before version 3
+	 */
+	public int get_numLods() {
+		return _lodIndexCounts.length + 1;
+	}
+
+	public int get_lodIndexCount(int lod) {
+		return (lod == 0) ? _indexCount : _lodIndexCounts[lod - 1];
+	}
+
+	private int get_lodDataOffset() {
+		return _boundsOffset + BOUNDS_SIZE * FLOAT_SIZE_BYTES + (_lodIndexCounts.length + 1) * INT_SIZE_BYTES;
+	}
+
+	public long get_fileSize() {
+		if (_version < 3)
+			return get_vertexDataOffset() + get_vertexBytes() + _indexCount * _indexSize;
+
+		long size = get_lodDataOffset();
+		for (int l = 1; l < get_numLods(); l++)
+			size += align(get_lodIndexCount(l) * _indexSize);
+		return size;
+	}
+}
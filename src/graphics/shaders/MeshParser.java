@@ -0,0 +1,628 @@
+/**
+ * Streaming parser for .OFF and .OBJ meshes.
+ * Works directly on the bytes of the file: numbers are parsed in place
+ * and everything goes into growable primitive arrays, so there is no
+ * boxing and no per-line String/StringTokenizer garbage.
+ *
+ * Output is the same interleaved layout Mesh has always used:
+ * [x, y, z, nx, ny, nz, u, v] per vertex + a triangle index list.
+ *
+ * A parser can be reused for several files - its buffers are kept.
+ * It is NOT thread safe, use one per loading thread.
+ */
+
+package graphics.shaders;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+public class MeshParser {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	// the number of elements for each vertex
+	// [coordx, coordy, coordz, normalx, normaly, normalz, u, v]
+	public static final int VERTEX_ARRAY_SIZE = 8;
+
+	// powers of ten that are exactly representable as doubles
+	private static final double[] POW10 = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	// The file contents - _readBuf is kept between files
+	private byte[] _readBuf = new byte[8192];
+	private byte[] _buf;
+	private int _len;
+	private int _pos;
+
+	// OBJ attribute pools - (position, texcoord, normal) are indexed separately
+	private float[] _positions = new float[256];
+	private int _numPositions;
+	private float[] _texCoords = new float[256];
+	private int _numTexCoords;
+	private float[] _normals = new float[256];
+	private int _numNormals;
+
+	// Output - interleaved vertices + indices
+	private float[] _vertices = new float[1024];
+	private int _numVertices;
+	private int[] _indices = new int[1024];
+	private int _numIndices;
+
+	// OFF normals are generated from the faces
+	private NormalGenerator _normalGenerator = new NormalGenerator();
+
+	// face corners of the current polygon
+	private int[] _corners = new int[16];
+
+	// OBJ vertex welding - (position, texcoord, normal) index triple -> vertex
+	private boolean _weld = true;
+	private int[] _weldKeys = new int[256 * 3];
+	private int[] _weldValues = new int[256];
+	private int _weldSize;
+	private int _numCorners;	// # of face corners = # of vertices without welding
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	public MeshParser() {
+
+	}
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * Reads the whole stream and parses it.
+	 * The stream is NOT closed.
+	 * @param in the mesh file
+	 * @return true if the file was parsed
+	 */
+	public boolean parse(InputStream in) throws IOException {
+		// read everything in one go - reuses the buffer of the last file
+		int hint = in.available();
+		if (hint >= _readBuf.length)
+			_readBuf = new byte[hint + 1];
+
+		int len = 0;
+		int read;
+		while ((read = in.read(_readBuf, len, _readBuf.length - len)) != -1) {
+			len += read;
+			if (len == _readBuf.length) {
+				byte[] bigger = new byte[_readBuf.length * 2];
+				System.arraycopy(_readBuf, 0, bigger, 0, len);
+				_readBuf = bigger;
+			}
+		}
+
+		return parse(_readBuf, len);
+	}
+
+	/**
+	 * Parses a mesh that's already in memory.
+	 * @param data the file contents
+	 * @param length number of valid bytes in data
+	 * @return true if the file was parsed
+	 */
+	public boolean parse(byte[] data, int length) throws IOException {
+		_buf = data;
+		_len = length;
+		_pos = 0;
+
+		_numPositions = _numTexCoords = _numNormals = 0;
+		_numVertices = _numIndices = 0;
+		_numCorners = 0;
+		_weldSize = 0;
+		Arrays.fill(_weldValues, -1);
+
+		// Line 1 - OFF or OBJ
+		skipWhitespace();
+		if (matchWord("OFF"))
+			loadOFF();
+		else if (matchWord("OBJ"))
+			loadOBJ();
+		else
+			return false;
+
+		return true;
+	}
+
+	/**
+	 * Loads the .off file
+	 *
+	 * OFF FORMAT:
+	 * ------------
+	 * Line 1
+		OFF
+	   Line 2
+		vertex_count face_count edge_count
+	   One line for each vertex:
+		x y z
+		for vertex 0, 1, ..., vertex_count-1
+	   One line for each polygonal face:
+		n v1 v2 ... vn,
+		the number of vertices, and the vertex indices for each face.
+	 *
+	 * Polygons with more than 3 vertices are split into a triangle fan.
+	 */
+	private void loadOFF() throws IOException {
+		/* read # of vertices, faces, edges */
+		nextLine();
+		int numVertices = parseInt();
+		int numFaces = parseInt();
+		if (numVertices < 0 || numFaces < 0)
+			throw new IOException("OFF counts out of range: " + numVertices + " vertices, " + numFaces + " faces");
+
+		// read vertices - going to store vertex coordinates + normals
+		ensureVertexCapacity(numVertices);
+
+		for (int i = 0; i < numVertices; i++) {
+			nextLine();
+			int v = i * VERTEX_ARRAY_SIZE;
+			_vertices[v]     = parseFloat();
+			_vertices[v + 1] = parseFloat();
+			_vertices[v + 2] = parseFloat();
+
+			// normal + tex coord start at 0
+			_vertices[v + 3] = 0;
+			_vertices[v + 4] = 0;
+			_vertices[v + 5] = 0;
+			_vertices[v + 6] = 0;
+			_vertices[v + 7] = 0;
+		}
+		_numVertices = numVertices;
+
+		// read faces and setup the index buffer
+		ensureIndexCapacity(numFaces * 3);
+		for (int i = 0; i < numFaces; i++) {
+			nextLine();
+			int numV = parseInt();
+			if (numV < 3)
+				throw new IOException("OFF face " + i + " has " + numV + " vertices");
+
+			int firstV = offIndex(parseInt(), numVertices);
+			int prevV = offIndex(parseInt(), numVertices);
+			for (int j = 2; j < numV; j++) {
+				int curV = offIndex(parseInt(), numVertices);
+				addTriangle(firstV, prevV, curV);
+				prevV = curV;
+			}
+		}
+
+		// finally calculate the vertex normals
+		_normalGenerator.generate(_vertices, VERTEX_ARRAY_SIZE, numVertices, _indices, _numIndices);
+	}
+
+	/**
+	 * Loads an OBJ file
+	 * OBJ FORMAT:
+	 * ----------
+	   list of vertices:
+	     v x y z
+	   list of tex coords:
+	     vt u v
+	   list of normals:
+	     vn x y z
+	   list of faces
+	     f pos1/tc1/n1 pos2/tc2/n2 pos3/tc3/n3
+	 *
+	 * Face corners with the same (position, texcoord, normal) triple are
+	 * welded into one vertex, so the index buffer actually shares vertices.
+	 * Unknown lines (comments, groups, materials) are skipped.
+	 */
+	private void loadOBJ() throws IOException {
+		while (nextLine()) {
+			if (_pos >= _len)
+				break;
+
+			byte c0 = _buf[_pos];
+			byte c1 = (_pos + 1 < _len) ? _buf[_pos + 1] : 0;
+
+			if (c0 == 'v' && c1 == ' ') {			// vertex
+				_pos += 2;
+				_positions = grow(_positions, (_numPositions + 1) * 3);
+				_positions[_numPositions * 3]     = parseFloat(); // x
+				_positions[_numPositions * 3 + 1] = parseFloat(); // y
+				_positions[_numPositions * 3 + 2] = parseFloat(); // z
+				_numPositions++;
+			}
+			else if (c0 == 'v' && c1 == 't') {		// tex coord
+				_pos += 2;
+				_texCoords = grow(_texCoords, (_numTexCoords + 1) * 2);
+				_texCoords[_numTexCoords * 2]     = parseFloat(); // u
+				_texCoords[_numTexCoords * 2 + 1] = parseFloat(); // v
+				_numTexCoords++;
+			}
+			else if (c0 == 'v' && c1 == 'n') {		// normal
+				_pos += 2;
+				_normals = grow(_normals, (_numNormals + 1) * 3);
+				_normals[_numNormals * 3]     = parseFloat(); // x
+				_normals[_numNormals * 3 + 1] = parseFloat(); // y
+				_normals[_numNormals * 3 + 2] = parseFloat(); // z
+				_numNormals++;
+			}
+			else if (c0 == 'f' && c1 == ' ') {		// face
+				_pos += 2;
+				loadOBJFace();
+			}
+		}
+	}
+
+	/**
+	 * Reads one "f" line - each corner is v, v/vt, v//vn or v/vt/vn
+	 */
+	private void loadOBJFace() throws IOException {
+		int numCorners = 0;
+
+		skipSpaces();
+		while (_pos < _len && !isLineEnd(_buf[_pos])) {
+			int vert = resolveIndex(parseInt(), _numPositions);
+			int texc = -1;
+			int vertN = -1;
+
+			if (_pos < _len && _buf[_pos] == '/') {
+				_pos++;
+				if (_pos < _len && _buf[_pos] != '/')
+					texc = resolveIndex(parseInt(), _numTexCoords);
+				if (_pos < _len && _buf[_pos] == '/') {
+					_pos++;
+					vertN = resolveIndex(parseInt(), _numNormals);
+				}
+			}
+
+			if (numCorners == _corners.length)
+				_corners = grow(_corners, numCorners + 1);
+			_numCorners++;
+
+			// corner seen before? reuse its vertex
+			int slot = -1;
+			if (_weld) {
+				slot = findWeldSlot(vert, texc, vertN);
+				if (_weldValues[slot] >= 0) {
+					_corners[numCorners++] = _weldValues[slot];
+					skipSpaces();
+					continue;
+				}
+			}
+
+			// Add all the vertex info
+			ensureVertexCapacity(_numVertices + 1);
+			int v = _numVertices * VERTEX_ARRAY_SIZE;
+			_vertices[v]     = _positions[vert * 3];	 // x
+			_vertices[v + 1] = _positions[vert * 3 + 1]; // y
+			_vertices[v + 2] = _positions[vert * 3 + 2]; // z
+
+			// add the normal info - OBJ normals are flipped for our winding
+			if (vertN >= 0) {
+				_vertices[v + 3] = -_normals[vertN * 3];
+				_vertices[v + 4] = -_normals[vertN * 3 + 1];
+				_vertices[v + 5] = -_normals[vertN * 3 + 2];
+			}
+			else {
+				_vertices[v + 3] = _vertices[v + 4] = _vertices[v + 5] = 0;
+			}
+
+			// add the tex coord info
+			if (texc >= 0) {
+				_vertices[v + 6] = _texCoords[texc * 2];
+				_vertices[v + 7] = _texCoords[texc * 2 + 1];
+			}
+			else {
+				_vertices[v + 6] = _vertices[v + 7] = 0;
+			}
+
+			if (_weld)
+				addWeldSlot(slot, vert, texc, vertN, _numVertices);
+			_corners[numCorners++] = _numVertices++;
+
+			skipSpaces();
+		}
+
+		if (numCorners < 3)
+			throw new IOException("OBJ face with " + numCorners + " vertices");
+
+		// triangle fan
+		for (int j = 2; j < numCorners; j++)
+			addTriangle(_corners[0], _corners[j - 1], _corners[j]);
+	}
+
+	/**************************
+	 * VERTEX WELDING
+	 *************************/
+
+	/**
+	 * Finds the hash table slot of a (position, texcoord, normal) triple -
+	 * either the slot holding it or the empty slot where it belongs.
+	 * Open addressing with linear probing.
+	 */
+	private int findWeldSlot(int vert, int texc, int vertN) {
+		int mask = _weldValues.length - 1;
+		int slot = hash(vert, texc, vertN) & mask;
+		while (_weldValues[slot] >= 0) {
+			int k = slot * 3;
+			if (_weldKeys[k] == vert && _weldKeys[k + 1] == texc && _weldKeys[k + 2] == vertN)
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void addWeldSlot(int slot, int vert, int texc, int vertN, int vertex) {
+		_weldKeys[slot * 3]     = vert;
+		_weldKeys[slot * 3 + 1] = texc;
+		_weldKeys[slot * 3 + 2] = vertN;
+		_weldValues[slot] = vertex;
+
+		// keep the table at most half full
+		if (++_weldSize * 2 > _weldValues.length)
+			rehashWeld(_weldValues.length * 2);
+	}
+
+	private void rehashWeld(int capacity) {
+		int[] oldKeys = _weldKeys;
+		int[] oldValues = _weldValues;
+
+		_weldKeys = new int[capacity * 3];
+		_weldValues = new int[capacity];
+		Arrays.fill(_weldValues, -1);
+
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] < 0)
+				continue;
+			int slot = findWeldSlot(oldKeys[i * 3], oldKeys[i * 3 + 1], oldKeys[i * 3 + 2]);
+			_weldKeys[slot * 3]     = oldKeys[i * 3];
+			_weldKeys[slot * 3 + 1] = oldKeys[i * 3 + 1];
+			_weldKeys[slot * 3 + 2] = oldKeys[i * 3 + 2];
+			_weldValues[slot] = oldValues[i];
+		}
+	}
+
+	private static int hash(int a, int b, int c) {
+		int h = a * 0x9E3779B1 + b * 0x85EBCA77 + c * 0xC2B2AE3D;
+		return h ^ (h >>> 16);
+	}
+
+	private void addTriangle(int a, int b, int c) {
+		ensureIndexCapacity(_numIndices + 3);
+		_indices[_numIndices++] = a;
+		_indices[_numIndices++] = b;
+		_indices[_numIndices++] = c;
+	}
+
+	// OFF indices are 0-based
+	private static int offIndex(int index, int count) throws IOException {
+		if (index < 0 || index >= count)
+			throw new IOException("OFF index out of range: " + index);
+		return index;
+	}
+
+	// OBJ indices are 1-based, negative ones are relative to the end
+	private int resolveIndex(int index, int count) throws IOException {
+		int i = (index < 0) ? count + index : index - 1;
+		if (i < 0 || i >= count)
+			throw new IOException("OBJ index out of range: " + index);
+		return i;
+	}
+
+	/**************************
+	 * TOKENIZING
+	 *************************/
+
+	/**
+	 * Moves to the start of the next line (the first call after the header
+	 * keyword just skips the rest of the header line).
+	 * @return false at the end of the file
+	 */
+	private boolean nextLine() {
+		while (_pos < _len && _buf[_pos] != '\n')
+			_pos++;
+		if (_pos >= _len)
+			return false;
+		_pos++;
+		skipSpaces();
+		return true;
+	}
+
+	private void skipSpaces() {
+		while (_pos < _len && (_buf[_pos] == ' ' || _buf[_pos] == '\t'))
+			_pos++;
+	}
+
+	private void skipWhitespace() {
+		while (_pos < _len && _buf[_pos] <= ' ')
+			_pos++;
+	}
+
+	private static boolean isLineEnd(byte c) {
+		return c == '\n' || c == '\r' || c == '#';
+	}
+
+	private boolean matchWord(String word) {
+		int n = word.length();
+		if (_pos + n > _len)
+			return false;
+		for (int i = 0; i < n; i++)
+			if (_buf[_pos + i] != word.charAt(i))
+				return false;
+		if (_pos + n < _len && _buf[_pos + n] > ' ')
+			return false;
+		_pos += n;
+		return true;
+	}
+
+	/**
+	 * Parses an integer at the current position
+	 */
+	private int parseInt() throws IOException {
+		skipSpaces();
+		boolean negative = false;
+		if (_pos < _len && (_buf[_pos] == '-' || _buf[_pos] == '+'))
+			negative = _buf[_pos++] == '-';
+
+		int start = _pos;
+		int value = 0;
+		while (_pos < _len && _buf[_pos] >= '0' && _buf[_pos] <= '9')
+			value = value * 10 + (_buf[_pos++] - '0');
+
+		if (_pos == start)
+			throw new IOException("Expected a number at byte " + _pos);
+
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parses a decimal float at the current position: [-]ddd[.ddd][e[-]dd]
+	 */
+	private float parseFloat() throws IOException {
+		skipSpaces();
+		int start = _pos;
+		boolean negative = false;
+		if (_pos < _len && (_buf[_pos] == '-' || _buf[_pos] == '+'))
+			negative = _buf[_pos++] == '-';
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+
+		// integer part
+		while (_pos < _len && _buf[_pos] >= '0' && _buf[_pos] <= '9') {
+			if (digits < 18) {
+				mantissa = mantissa * 10 + (_buf[_pos] - '0');
+				if (mantissa != 0)
+					digits++;
+			}
+			else
+				exponent++;
+			_pos++;
+		}
+
+		// fraction
+		if (_pos < _len && _buf[_pos] == '.') {
+			_pos++;
+			while (_pos < _len && _buf[_pos] >= '0' && _buf[_pos] <= '9') {
+				if (digits < 18) {
+					mantissa = mantissa * 10 + (_buf[_pos] - '0');
+					if (mantissa != 0)
+						digits++;
+					exponent--;
+				}
+				_pos++;
+			}
+		}
+
+		if (_pos == start || (_pos == start + 1 && negative))
+			throw new IOException("Expected a number at byte " + start);
+
+		// exponent
+		if (_pos < _len && (_buf[_pos] == 'e' || _buf[_pos] == 'E')) {
+			_pos++;
+			boolean negExp = false;
+			if (_pos < _len && (_buf[_pos] == '-' || _buf[_pos] == '+'))
+				negExp = _buf[_pos++] == '-';
+			int e = 0;
+			while (_pos < _len && _buf[_pos] >= '0' && _buf[_pos] <= '9')
+				e = e * 10 + (_buf[_pos++] - '0');
+			exponent += negExp ? -e : e;
+		}
+
+		double value = mantissa;
+		if (exponent < 0)
+			value = (exponent >= -22) ? value / POW10[-exponent] : value * Math.pow(10, exponent);
+		else if (exponent > 0)
+			value = (exponent <= 22) ? value * POW10[exponent] : value * Math.pow(10, exponent);
+
+		return (float)(negative ? -value : value);
+	}
+
+	/**************************
+	 * GROWABLE ARRAYS
+	 *************************/
+
+	private void ensureVertexCapacity(int numVertices) {
+		_vertices = grow(_vertices, numVertices * VERTEX_ARRAY_SIZE);
+	}
+
+	private void ensureIndexCapacity(int numIndices) {
+		_indices = grow(_indices, numIndices);
+	}
+
+	private static float[] grow(float[] array, int size) {
+		if (size <= array.length)
+			return array;
+		float[] bigger = new float[Math.max(size, array.length * 2)];
+		System.arraycopy(array, 0, bigger, 0, array.length);
+		return bigger;
+	}
+
+	private static int[] grow(int[] array, int size) {
+		if (size <= array.length)
+			return array;
+		int[] bigger = new int[Math.max(size, array.length * 2)];
+		System.arraycopy(array, 0, bigger, 0, array.length);
+		return bigger;
+	}
+
+	/***************************
+	 * GET/SET
+	 *************************/
+
+	/**
+	 * @return a trimmed copy of the interleaved vertex data
+	 */
+	public float[] get_vertices() {
+		float[] v = new float[_numVertices * VERTEX_ARRAY_SIZE];
+		System.arraycopy(_vertices, 0, v, 0, v.length);
+		return v;
+	}
+
+	/**
+	 * @return a trimmed copy of the triangle indices
+	 */
+	public int[] get_indices() {
+		int[] i = new int[_numIndices];
+		System.arraycopy(_indices, 0, i, 0, i.length);
+		return i;
+	}
+
+	public int get_numVertices() {
+		return _numVertices;
+	}
+
+	public int get_numIndices() {
+		return _numIndices;
+	}
+
+	/**
+	 * @return # of vertices the mesh would have without welding
+	 * (OFF files share vertices already - same as get_numVertices())
+	 */
+	public int get_numUnweldedVertices() {
+		return _numCorners > 0 ? _numCorners : _numVertices;
+	}
+
+	public boolean isWeldVertices() {
+		return _weld;
+	}
+
+	/**
+	 * Turns OBJ vertex welding on/off (on by default)
+	 */
+	public void setWeldVertices(boolean weld) {
+		_weld = weld;
+	}
+
+	public int get_normalMode() {
+		return _normalGenerator.get_mode();
+	}
+
+	/**
+	 * How OFF vertex normals are weighted - NormalGenerator.UNIFORM (default),
+	 * AREA_WEIGHTED or ANGLE_WEIGHTED
+	 */
+	public void set_normalMode(int mode) {
+		_normalGenerator.set_mode(mode);
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * Compares the old StringTokenizer loader with MeshParser.
+ * Reports the number of allocations (and time) per vertex for each
+ * mesh resource, using the per-thread allocation counters in android.os.Debug.
+ *
+ * Usage (e.g. from a debug build):
+ *   MeshParserBenchmark.run(context, new int[] {R.raw.octahedron, R.raw.texturedcube});
+ * and look for the "MeshParserBenchmark" tag in logcat.
+ */
+
+package graphics.shaders;
+
+import java.io.InputStream;
+
+import android.content.Context;
+import android.os.Debug;
+import android.util.Log;
+
+public class MeshParserBenchmark {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	private static final String TAG = "MeshParserBenchmark";
+
+	// # of times each mesh is parsed - first round is a warm-up
+	private static final int ROUNDS = 5;
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * Runs both parsers over every mesh and logs the results
+	 * @param context used to open the raw resources
+	 * @param meshIDs the mesh files to parse
+	 */
+	public static void run(Context context, int[] meshIDs) {
+		MeshParser parser = new MeshParser();
+
+		Debug.startAllocCounting();
+		try {
+			for (int i = 0; i < meshIDs.length; i++) {
+				int id = meshIDs[i];
+				long[] legacy = measure(context, id, null);
+				long[] streaming = measure(context, id, parser);
+				if (legacy[2] == 0 || streaming[2] == 0)
+					continue;
+
+				// each loader per vertex it produced - the legacy one doesn't weld OBJ corners
+				Log.d(TAG, "mesh " + id
+						+ " legacy (" + legacy[2] + " vertices): " + perVertex(legacy[0], legacy[2]) + " allocs/vertex, "
+						+ perVertex(legacy[1], legacy[2]) + " ns/vertex"
+						+ " | streaming (" + streaming[2] + " vertices): " + perVertex(streaming[0], streaming[2])
+						+ " allocs/vertex, " + perVertex(streaming[1], streaming[2]) + " ns/vertex");
+			}
+		} catch (Exception e) {
+			Log.e(TAG, "Benchmark failed: " + e.toString());
+		} finally {
+			Debug.stopAllocCounting();
+		}
+	}
+
+	/**
+	 * Parses the mesh ROUNDS times
+	 * @param parser the streaming parser, or null for the legacy loader
+	 * @return {allocations, nanoseconds, # of vertices} of the last round
+	 */
+	private static long[] measure(Context context, int meshID, MeshParser parser) throws Exception {
+		long[] result = new long[3];
+
+		for (int r = 0; r < ROUNDS; r++) {
+			// opening the resource is the same for both - keep it out of the numbers
+			InputStream in = context.getResources().openRawResource(meshID);
+
+			Debug.resetThreadAllocCount();
+			long startNs = System.nanoTime();
+
+			LegacyMeshLoader legacy = null;
+			if (parser != null) {
+				parser.parse(in);
+			}
+			else {
+				legacy = new LegacyMeshLoader();
+				legacy.load(in);
+			}
+
+			result[1] = System.nanoTime() - startNs;
+			result[0] = Debug.getThreadAllocCount();
+			if (parser != null)
+				result[2] = parser.get_numVertices();
+			else
+				result[2] = (legacy.get_vertices() == null) ? 0 : legacy.get_vertices().length / MeshParser.VERTEX_ARRAY_SIZE;
+			in.close();
+		}
+
+		return result;
+	}
+
+	private static String perVertex(long value, long numVertices) {
+		return String.valueOf(Math.round(value * 100.0 / numVertices) / 100.0);
+	}
+}
@@ -0,0 +1,400 @@
+/**
+ * Quadric error metric mesh simplifier (Garland & Heckbert) used to build
+ * LOD chains.
+ *
+ * Edges are collapsed onto one of their two vertices - no new vertices are
+ * created, so every LOD is just another index buffer over the mesh's
+ * vertex buffer. Border vertices (edges with a single triangle) never
+ * move: that keeps open borders and texture/normal seams (vertices split
+ * by welding) in place.
+ *
+ * Each pass sorts all edges by cost and collapses the cheapest ones that
+ * don't touch each other, rejecting collapses that would flip a triangle.
+ *
+ * Plain Java - used by MeshConverter offline, and by Mesh for text meshes.
+ */
+
+package graphics.shaders;
+
+import java.util.Arrays;
+
+public class MeshSimplifier {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	// LOD chain - fraction of the triangles of each level after the full mesh
+	public static final float[] LOD_RATIOS = {0.5f, 0.25f, 0.125f};
+	// smaller meshes only have the full level
+	private static final int LOD_MIN_TRIANGLES = 256;
+	// a level has to drop at least this fraction of the last level's triangles
+	private static final float LOD_MIN_REDUCTION = 0.1f;
+
+	// quadric: symmetric 4x4 matrix - a2 ab ac ad b2 bc bd c2 cd d2
+	private static final int Q_SIZE = 10;
+
+	// cos of the largest turn a triangle may make in one collapse (~60 degrees)
+	private static final float MAX_NORMAL_TURN_COS = 0.5f;
+
+	// give up once a pass removes less than this fraction of the triangles
+	private static final float MIN_PASS_PROGRESS = 0.001f;
+
+	// input
+	private float[] _vertices;
+	private int _stride;
+	private int _numVertices;
+
+	// working state
+	private double[] _quadrics;
+	private boolean[] _locked;
+	private int[] _indices;
+	private int _numIndices;
+
+	// largest cost accepted so far
+	private float _error;
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	public MeshSimplifier() {
+
+	}
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * Builds a chain of simplified index lists, each one simplified further
+	 * from the last.
+	 * @param vertices interleaved vertices - position at 0
+	 * @param stride # of floats per vertex
+	 * @param numVertices # of vertices
+	 * @param indices triangle list (not modified)
+	 * @param numIndices # of valid indices
+	 * @param ratios target fraction of the triangles for each level, decreasing (e.g. 0.5, 0.25, 0.125)
+	 * @return one index list per ratio - a level may have more triangles than
+	 * asked for if the mesh couldn't be simplified further
+	 */
+	public int[][] simplifyChain(float[] vertices, int stride, int numVertices, int[] indices, int numIndices, float[] ratios) {
+		_vertices = vertices;
+		_stride = stride;
+		_numVertices = numVertices;
+		_indices = Arrays.copyOf(indices, numIndices);
+		_numIndices = numIndices;
+		_error = 0;
+
+		computeQuadrics();
+		findBorders();
+
+		int[][] levels = new int[ratios.length][];
+		for (int l = 0; l < ratios.length; l++) {
+			int target = (int)(numIndices / 3 * ratios[l]) * 3;
+			while (_numIndices > target) {
+				int before = _numIndices;
+				collapsePass(target);
+				if (before - _numIndices < Math.max(3, before * MIN_PASS_PROGRESS))
+					break;
+			}
+			levels[l] = Arrays.copyOf(_indices, _numIndices);
+		}
+
+		_vertices = null;
+		_indices = null;
+		_quadrics = null;
+		_locked = null;
+		return levels;
+	}
+
+	/**
+	 * Builds the LOD chain of a mesh: simplifyChain with LOD_RATIOS, minus the
+	 * levels that don't save enough, each optimized for the vertex cache.
+	 * @return the simplified levels after the full mesh - none for small meshes
+	 */
+	public int[][] buildLods(float[] vertices, int stride, int numVertices, int[] indices, int numIndices) {
+		_error = 0;
+		if (numIndices / 3 < LOD_MIN_TRIANGLES)
+			return new int[0][];
+
+		int[][] chain = simplifyChain(vertices, stride, numVertices, indices, numIndices, LOD_RATIOS);
+		int levels = 0;
+		int last = numIndices;
+		for (; levels < chain.length; levels++) {
+			if (chain[levels].length > last * (1 - LOD_MIN_REDUCTION))
+				break;
+			VertexCacheOptimizer.optimize(chain[levels], chain[levels].length, numVertices);
+			last = chain[levels].length;
+		}
+		return Arrays.copyOf(chain, levels);
+	}
+
+	/**
+	 * Simplifies to a single target
+	 * @param ratio target fraction of the triangles
+	 */
+	public int[] simplify(float[] vertices, int stride, int numVertices, int[] indices, int numIndices, float ratio) {
+		return simplifyChain(vertices, stride, numVertices, indices, numIndices, new float[] {ratio})[0];
+	}
+
+	/**
+	 * Sums the (area weighted) plane quadrics of every vertex's triangles
+	 */
+	private void computeQuadrics() {
+		_quadrics = new double[_numVertices * Q_SIZE];
+		for (int t = 0; t < _numIndices; t += 3) {
+			int a = _indices[t] * _stride;
+			int b = _indices[t + 1] * _stride;
+			int c = _indices[t + 2] * _stride;
+
+			double ux = _vertices[b] - _vertices[a];
+			double uy = _vertices[b + 1] - _vertices[a + 1];
+			double uz = _vertices[b + 2] - _vertices[a + 2];
+			double wx = _vertices[c] - _vertices[a];
+			double wy = _vertices[c + 1] - _vertices[a + 1];
+			double wz = _vertices[c + 2] - _vertices[a + 2];
+
+			double nx = uy * wz - uz * wy;
+			double ny = uz * wx - ux * wz;
+			double nz = ux * wy - uy * wx;
+			double len = Math.sqrt(nx * nx + ny * ny + nz * nz);
+			if (len == 0)
+				continue;
+
+			double area = len * 0.5;
+			nx /= len;
+			ny /= len;
+			nz /= len;
+			double d = -(nx * _vertices[a] + ny * _vertices[a + 1] + nz * _vertices[a + 2]);
+
+			for (int k = 0; k < 3; k++) {
+				int q = _indices[t + k] * Q_SIZE;
+				_quadrics[q]     += area * nx * nx;
+				_quadrics[q + 1] += area * nx * ny;
+				_quadrics[q + 2] += area * nx * nz;
+				_quadrics[q + 3] += area * nx * d;
+				_quadrics[q + 4] += area * ny * ny;
+				_quadrics[q + 5] += area * ny * nz;
+				_quadrics[q + 6] += area * ny * d;
+				_quadrics[q + 7] += area * nz * nz;
+				_quadrics[q + 8] += area * nz * d;
+				_quadrics[q + 9] += area * d * d;
+			}
+		}
+	}
+
+	/**
+	 * Locks the vertices of edges that only one triangle uses
+	 */
+	private void findBorders() {
+		_locked = new boolean[_numVertices];
+
+		int[] offsets = new int[_numVertices + 1];
+		int[] adjacency = buildAdjacency(offsets);
+
+		for (int t = 0; t < _numIndices; t += 3) {
+			for (int k = 0; k < 3; k++) {
+				int a = _indices[t + k];
+				int b = _indices[t + (k + 1) % 3];
+
+				// # of triangles around a that also use b
+				int shared = 0;
+				for (int j = offsets[a]; j < offsets[a + 1]; j++)
+					if (uses(adjacency[j], b))
+						shared++;
+				if (shared < 2)
+					_locked[a] = _locked[b] = true;
+			}
+		}
+	}
+
+	/**
+	 * One round of collapses, cheapest first
+	 * @param target # of indices to stop at
+	 */
+	private void collapsePass(int target) {
+		int[] offsets = new int[_numVertices + 1];
+		int[] adjacency = buildAdjacency(offsets);
+
+		// every triangle edge - duplicates of shared edges are harmless,
+		// the second one is rejected because its vertices were touched
+		int numEdges = _numIndices;
+		int[] from = new int[numEdges];
+		int[] to = new int[numEdges];
+		long[] order = new long[numEdges];
+		int numCandidates = 0;
+
+		for (int t = 0; t < _numIndices; t += 3) {
+			for (int k = 0; k < 3; k++) {
+				int a = _indices[t + k];
+				int b = _indices[t + (k + 1) % 3];
+
+				float costAB = _locked[a] ? Float.MAX_VALUE : cost(a, b);
+				float costBA = _locked[b] ? Float.MAX_VALUE : cost(b, a);
+				if (costAB == Float.MAX_VALUE && costBA == Float.MAX_VALUE)
+					continue;
+
+				boolean ab = costAB <= costBA;
+				from[numCandidates] = ab ? a : b;
+				to[numCandidates] = ab ? b : a;
+
+				// non negative floats sort like their bits
+				float cost = Math.max(0, ab ? costAB : costBA);
+				order[numCandidates] = ((long)Float.floatToIntBits(cost) << 32) | numCandidates;
+				numCandidates++;
+			}
+		}
+		Arrays.sort(order, 0, numCandidates);
+
+		int[] remap = new int[_numVertices];
+		for (int v = 0; v < _numVertices; v++)
+			remap[v] = v;
+		boolean[] touched = new boolean[_numVertices];
+
+		// each collapse removes ~2 triangles
+		int toRemove = (_numIndices - target) / 3;
+		int removed = 0;
+
+		for (int i = 0; i < numCandidates && removed < toRemove; i++) {
+			int e = (int)order[i];
+			int u = from[e];
+			int v = to[e];
+			if (touched[u] || touched[v])
+				continue;
+			if (flips(u, v, adjacency, offsets))
+				continue;
+
+			// collapse u onto v
+			remap[u] = v;
+			for (int k = 0; k < Q_SIZE; k++)
+				_quadrics[v * Q_SIZE + k] += _quadrics[u * Q_SIZE + k];
+			_error = Math.max(_error, Float.intBitsToFloat((int)(order[i] >>> 32)));
+
+			// everything around u is stale for the rest of the pass
+			for (int j = offsets[u]; j < offsets[u + 1]; j++) {
+				int t = adjacency[j];
+				touched[_indices[t * 3]] = touched[_indices[t * 3 + 1]] = touched[_indices[t * 3 + 2]] = true;
+				if (uses(t, v))
+					removed++;
+			}
+		}
+
+		// apply, dropping the triangles that collapsed
+		int out = 0;
+		for (int t = 0; t < _numIndices; t += 3) {
+			int a = remap[_indices[t]];
+			int b = remap[_indices[t + 1]];
+			int c = remap[_indices[t + 2]];
+			if (a == b || b == c || c == a)
+				continue;
+			_indices[out++] = a;
+			_indices[out++] = b;
+			_indices[out++] = c;
+		}
+		_numIndices = out;
+	}
+
+	/**
+	 * @return true if moving u onto v turns a triangle around u too far (or flat)
+	 */
+	private boolean flips(int u, int v, int[] adjacency, int[] offsets) {
+		for (int j = offsets[u]; j < offsets[u + 1]; j++) {
+			int t = adjacency[j];
+			if (uses(t, v))
+				continue; // collapses away
+
+			// the other two corners, in winding order
+			int k = (_indices[t * 3] == u) ? 0 : (_indices[t * 3 + 1] == u) ? 1 : 2;
+			int b = _indices[t * 3 + (k + 1) % 3] * _stride;
+			int c = _indices[t * 3 + (k + 2) % 3] * _stride;
+			int pu = u * _stride;
+			int pv = v * _stride;
+
+			float ox = normalX(pu, b, c), oy = normalY(pu, b, c), oz = normalZ(pu, b, c);
+			float nx = normalX(pv, b, c), ny = normalY(pv, b, c), nz = normalZ(pv, b, c);
+
+			// limit the turn per collapse, so turns can't add up to a flip over several passes
+			float dot = ox * nx + oy * ny + oz * nz;
+			float lengths = (float)Math.sqrt((ox * ox + oy * oy + oz * oz) * (nx * nx + ny * ny + nz * nz));
+			if (dot <= MAX_NORMAL_TURN_COS * lengths || lengths == 0)
+				return true;
+		}
+		return false;
+	}
+
+	// components of (b - a) x (c - a)
+	private float normalX(int a, int b, int c) {
+		return (_vertices[b + 1] - _vertices[a + 1]) * (_vertices[c + 2] - _vertices[a + 2])
+				- (_vertices[b + 2] - _vertices[a + 2]) * (_vertices[c + 1] - _vertices[a + 1]);
+	}
+
+	private float normalY(int a, int b, int c) {
+		return (_vertices[b + 2] - _vertices[a + 2]) * (_vertices[c] - _vertices[a])
+				- (_vertices[b] - _vertices[a]) * (_vertices[c + 2] - _vertices[a + 2]);
+	}
+
+	private float normalZ(int a, int b, int c) {
+		return (_vertices[b] - _vertices[a]) * (_vertices[c + 1] - _vertices[a + 1])
+				- (_vertices[b + 1] - _vertices[a + 1]) * (_vertices[c] - _vertices[a]);
+	}
+
+	/**
+	 * Error of moving u onto v: (Qu + Qv) evaluated at v's position
+	 */
+	private float cost(int u, int v) {
+		int qu = u * Q_SIZE;
+		int qv = v * Q_SIZE;
+		int p = v * _stride;
+		double x = _vertices[p];
+		double y = _vertices[p + 1];
+		double z = _vertices[p + 2];
+
+		double[] q = _quadrics;
+		double err = (q[qu] + q[qv]) * x * x
+				+ 2 * (q[qu + 1] + q[qv + 1]) * x * y
+				+ 2 * (q[qu + 2] + q[qv + 2]) * x * z
+				+ 2 * (q[qu + 3] + q[qv + 3]) * x
+				+ (q[qu + 4] + q[qv + 4]) * y * y
+				+ 2 * (q[qu + 5] + q[qv + 5]) * y * z
+				+ 2 * (q[qu + 6] + q[qv + 6]) * y
+				+ (q[qu + 7] + q[qv + 7]) * z * z
+				+ 2 * (q[qu + 8] + q[qv + 8]) * z
+				+ (q[qu + 9] + q[qv + 9]);
+		return (float)Math.abs(err);
+	}
+
+	/**
+	 * Vertex -> triangles lists for the current indices
+	 * @param offsets filled with the start of each vertex's list (numVertices + 1)
+	 * @return the triangle numbers
+	 */
+	private int[] buildAdjacency(int[] offsets) {
+		Arrays.fill(offsets, 0);
+		for (int i = 0; i < _numIndices; i++)
+			offsets[_indices[i] + 1]++;
+		for (int v = 0; v < _numVertices; v++)
+			offsets[v + 1] += offsets[v];
+
+		int[] adjacency = new int[_numIndices];
+		int[] fill = new int[_numVertices];
+		for (int i = 0; i < _numIndices; i++) {
+			int v = _indices[i];
+			adjacency[offsets[v] + fill[v]++] = i / 3;
+		}
+		return adjacency;
+	}
+
+	private boolean uses(int triangle, int v) {
+		return _indices[triangle * 3] == v || _indices[triangle * 3 + 1] == v || _indices[triangle * 3 + 2] == v;
+	}
+
+	/***************************
+	 * GET/SET
+	 *************************/
+
+	/**
+	 * @return the largest quadric error accepted by the last simplification
+	 * (squared distance * area)
+	 */
+	public float get_error() {
+		return _error;
+	}
+}
@@ -0,0 +1,200 @@
+/**
+ * The worker pool the data-parallel mesh passes (NormalGenerator,
+ * TangentGenerator) split their work over, and the two phase scheme they
+ * share: every worker accumulates a range of triangles into its own
+ * per-vertex buffer, then the buffers are merged a range of vertices per
+ * worker - no two threads ever write the same memory.
+ *
+ * Separate from the AssetLoader pool: meshes are loaded on that one and
+ * wait for these workers - sharing it could deadlock.
+ */
+
+package graphics.shaders;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+class MeshWorkers {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	public static final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+
+	// meshes with fewer triangles aren't worth the threads
+	public static final int PARALLEL_MIN_TRIANGLES = 65536;
+
+	// created on first use, daemon threads - never shut down
+	private static ExecutorService sPool;
+
+	/**
+	 * The two phases of a pass over a triangle mesh
+	 */
+	public interface RangePass {
+		/**
+		 * Adds what triangles [first, last) contribute to their vertices to acc
+		 */
+		void accumulate(int first, int last, float[] acc);
+
+		/**
+		 * Sums accumulators[0, numAccumulators) for vertices [first, last) and writes the result
+		 */
+		void resolve(int first, int last, float[][] accumulators, int numAccumulators);
+	}
+
+	/**
+	 * One cleared per-vertex buffer per worker - kept between meshes
+	 */
+	public static class Accumulators {
+		private final int _floatsPerVertex;
+		private float[][] _buffers = new float[0][];
+
+		public Accumulators(int floatsPerVertex) {
+			this._floatsPerVertex = floatsPerVertex;
+		}
+
+		/**
+		 * @return the cleared buffer of worker t
+		 */
+		float[] cleared(int t, int numVertices) {
+			int size = numVertices * _floatsPerVertex;
+			if (_buffers.length <= t) {
+				float[][] bigger = new float[t + 1][];
+				System.arraycopy(_buffers, 0, bigger, 0, _buffers.length);
+				_buffers = bigger;
+			}
+			float[] acc = _buffers[t];
+			if (acc == null || acc.length < size) {
+				acc = new float[size];
+				_buffers[t] = acc;
+			}
+			else {
+				Arrays.fill(acc, 0, size, 0);
+			}
+			return acc;
+		}
+	}
+
+	private MeshWorkers() {
+
+	}
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * @return # of threads to split a pass over numTriangles triangles on
+	 */
+	public static int threadsFor(int numTriangles) {
+		return (numTriangles >= PARALLEL_MIN_TRIANGLES) ? NUM_THREADS : 1;
+	}
+
+	/**
+	 * Runs both phases of a pass - on the calling thread for small meshes,
+	 * split over the workers for big ones
+	 * @param what for the error message
+	 */
+	public static void run(RangePass pass, Accumulators accumulators, int numTriangles, int numVertices,
+			String what) {
+		int numThreads = threadsFor(numTriangles);
+
+		if (numThreads == 1) {
+			pass.accumulate(0, numTriangles, accumulators.cleared(0, numVertices));
+			pass.resolve(0, numVertices, accumulators._buffers, 1);
+			return;
+		}
+
+		// 1. every worker accumulates a range of triangles into its own buffer
+		ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numThreads);
+		for (int t = 0; t < numThreads; t++)
+			tasks.add(new AccumulateTask(pass, numTriangles * t / numThreads, numTriangles * (t + 1) / numThreads,
+					accumulators.cleared(t, numVertices)));
+		invokeAll(tasks, what);
+
+		// 2. merge the buffers, a range of vertices per worker
+		tasks.clear();
+		for (int t = 0; t < numThreads; t++)
+			tasks.add(new ResolveTask(pass, numVertices * t / numThreads, numVertices * (t + 1) / numThreads,
+					accumulators._buffers, numThreads));
+		invokeAll(tasks, what);
+	}
+
+	/**
+	 * Runs the tasks on the pool and waits for all of them
+	 * @param what for the error message
+	 */
+	public static void invokeAll(List<Callable<Void>> tasks, String what) {
+		try {
+			for (Future<Void> f : pool().invokeAll(tasks))
+				f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(what + " interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(what + " failed", e.getCause());
+		}
+	}
+
+	private static synchronized ExecutorService pool() {
+		if (sPool == null) {
+			sPool = Executors.newFixedThreadPool(NUM_THREADS, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "MeshWorker");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return sPool;
+	}
+
+	/**************************
+	 * TASKS
+	 *************************/
+	private static class AccumulateTask implements Callable<Void> {
+		private RangePass _pass;
+		private int _first;
+		private int _last;
+		private float[] _acc;
+
+		AccumulateTask(RangePass pass, int first, int last, float[] acc) {
+			this._pass = pass;
+			this._first = first;
+			this._last = last;
+			this._acc = acc;
+		}
+
+		public Void call() {
+			_pass.accumulate(_first, _last, _acc);
+			return null;
+		}
+	}
+
+	private static class ResolveTask implements Callable<Void> {
+		private RangePass _pass;
+		private int _first;
+		private int _last;
+		private float[][] _accumulators;
+		private int _numAccumulators;
+
+		ResolveTask(RangePass pass, int first, int last, float[][] accumulators, int numAccumulators) {
+			this._pass = pass;
+			this._first = first;
+			this._last = last;
+			this._accumulators = accumulators;
+			this._numAccumulators = numAccumulators;
+		}
+
+		public Void call() {
+			_pass.resolve(_first, _last, _accumulators, _numAccumulators);
+			return null;
+		}
+	}
+}
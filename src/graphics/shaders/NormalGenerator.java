@@ -0,0 +1,196 @@
+/**
+ * Generates smooth vertex normals from the faces of a triangle mesh.
+ *
+ * Modes:
+ *  - UNIFORM: every face counts the same - the average of the unit face
+ *    normals (what OFF meshes have always used)
+ *  - AREA_WEIGHTED: big faces count more
+ *  - ANGLE_WEIGHTED: each face counts with its corner angle at the vertex -
+ *    doesn't depend on how the surface is triangulated
+ *
+ * All the math is on scalars, nothing is allocated per face. Big meshes are
+ * split into triangle ranges on MeshWorkers (MeshWorkers.run).
+ */
+
+package graphics.shaders;
+
+public class NormalGenerator {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	// weighting modes
+	public static final int UNIFORM = 0;
+	public static final int AREA_WEIGHTED = 1;
+	public static final int ANGLE_WEIGHTED = 2;
+
+	// per vertex accumulator: nx, ny, nz, # of faces
+	private static final int ACC_SIZE = 4;
+
+	private int _mode;
+
+	// per thread accumulators - kept between meshes
+	private MeshWorkers.Accumulators _accumulators = new MeshWorkers.Accumulators(ACC_SIZE);
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	public NormalGenerator() {
+		this(UNIFORM);
+	}
+
+	public NormalGenerator(int mode) {
+		set_mode(mode);
+	}
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * Overwrites the normals of the vertices with ones generated from the faces.
+	 * Vertices no face uses get a zero normal.
+	 * @param vertices interleaved vertices - position at 0, normal at 3
+	 * @param stride # of floats per vertex
+	 * @param numVertices # of vertices
+	 * @param indices triangle list
+	 * @param numIndices # of valid indices
+	 */
+	public void generate(final float[] vertices, final int stride, int numVertices, final int[] indices,
+			int numIndices) {
+		MeshWorkers.run(new MeshWorkers.RangePass() {
+			public void accumulate(int first, int last, float[] acc) {
+				NormalGenerator.this.accumulate(vertices, stride, indices, first, last, acc);
+			}
+
+			public void resolve(int first, int last, float[][] accumulators, int numAccumulators) {
+				NormalGenerator.this.resolve(vertices, stride, first, last, accumulators, numAccumulators);
+			}
+		}, _accumulators, numIndices / 3, numVertices, "Normal generation");
+	}
+
+	/**
+	 * Adds the weighted face normals of triangles [first, last) to acc
+	 */
+	private void accumulate(float[] vertices, int stride, int[] indices, int first, int last, float[] acc) {
+		for (int t = first; t < last; t++) {
+			int i0 = indices[t * 3];
+			int i1 = indices[t * 3 + 1];
+			int i2 = indices[t * 3 + 2];
+			int a = i0 * stride;
+			int b = i1 * stride;
+			int c = i2 * stride;
+
+			// v1-v2 and v3-v2
+			float ux = vertices[a] - vertices[b];
+			float uy = vertices[a + 1] - vertices[b + 1];
+			float uz = vertices[a + 2] - vertices[b + 2];
+			float wx = vertices[c] - vertices[b];
+			float wy = vertices[c + 1] - vertices[b + 1];
+			float wz = vertices[c + 2] - vertices[b + 2];
+
+			// cross product - its length is twice the area
+			float nx = uy * wz - uz * wy;
+			float ny = uz * wx - ux * wz;
+			float nz = ux * wy - uy * wx;
+
+			if (_mode == AREA_WEIGHTED) {
+				add(acc, i0, nx, ny, nz, 1);
+				add(acc, i1, nx, ny, nz, 1);
+				add(acc, i2, nx, ny, nz, 1);
+				continue;
+			}
+
+			// normalize
+			float len = (float)Math.sqrt(nx * nx + ny * ny + nz * nz);
+			if (len > 0) {
+				nx /= len;
+				ny /= len;
+				nz /= len;
+			}
+
+			if (_mode == UNIFORM) {
+				add(acc, i0, nx, ny, nz, 1);
+				add(acc, i1, nx, ny, nz, 1);
+				add(acc, i2, nx, ny, nz, 1);
+			}
+			else {
+				// corner angles - the edges from each corner
+				float ex = vertices[c] - vertices[a];
+				float ey = vertices[c + 1] - vertices[a + 1];
+				float ez = vertices[c + 2] - vertices[a + 2];
+				float angle0 = angle(-ux, -uy, -uz, ex, ey, ez);
+				float angle1 = angle(ux, uy, uz, wx, wy, wz);
+				float angle2 = (float)Math.PI - angle0 - angle1;
+
+				add(acc, i0, nx * angle0, ny * angle0, nz * angle0, 1);
+				add(acc, i1, nx * angle1, ny * angle1, nz * angle1, 1);
+				add(acc, i2, nx * angle2, ny * angle2, nz * angle2, 1);
+			}
+		}
+	}
+
+	/**
+	 * Sums the accumulators of vertices [first, last) and writes the normals
+	 */
+	private void resolve(float[] vertices, int stride, int first, int last, float[][] accumulators,
+			int numAccumulators) {
+		for (int v = first; v < last; v++) {
+			float nx = 0, ny = 0, nz = 0, count = 0;
+			for (int t = 0; t < numAccumulators; t++) {
+				float[] acc = accumulators[t];
+				nx += acc[v * ACC_SIZE];
+				ny += acc[v * ACC_SIZE + 1];
+				nz += acc[v * ACC_SIZE + 2];
+				count += acc[v * ACC_SIZE + 3];
+			}
+
+			// the average for UNIFORM, unit length for the weighted modes
+			float scale = 0;
+			if (count > 0) {
+				if (_mode == UNIFORM) {
+					scale = 1.0f / count;
+				}
+				else {
+					float len = (float)Math.sqrt(nx * nx + ny * ny + nz * nz);
+					scale = (len > 0) ? 1.0f / len : 0;
+				}
+			}
+
+			vertices[v * stride + 3] = nx * scale;
+			vertices[v * stride + 4] = ny * scale;
+			vertices[v * stride + 5] = nz * scale;
+		}
+	}
+
+	private static void add(float[] acc, int v, float nx, float ny, float nz, float count) {
+		acc[v * ACC_SIZE]     += nx;
+		acc[v * ACC_SIZE + 1] += ny;
+		acc[v * ACC_SIZE + 2] += nz;
+		acc[v * ACC_SIZE + 3] += count;
+	}
+
+	// angle between two (not normalized) vectors, in radians
+	private static float angle(float ax, float ay, float az, float bx, float by, float bz) {
+		float len = (float)Math.sqrt((ax * ax + ay * ay + az * az) * (bx * bx + by * by + bz * bz));
+		if (len == 0)
+			return 0;
+		float cos = (ax * bx + ay * by + az * bz) / len;
+		return (float)Math.acos(Math.max(-1.0f, Math.min(1.0f, cos)));
+	}
+
+	/***************************
+	 * GET/SET
+	 *************************/
+	public int get_mode() {
+		return _mode;
+	}
+
+	/**
+	 * @param mode UNIFORM, AREA_WEIGHTED or ANGLE_WEIGHTED
+	 */
+	public void set_mode(int mode) {
+		if (mode != UNIFORM && mode != AREA_WEIGHTED && mode != ANGLE_WEIGHTED)
+			throw new IllegalArgumentException("Unknown normal mode " + mode);
+		this._mode = mode;
+	}
+}
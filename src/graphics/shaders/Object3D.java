@@ -5,8 +5,13 @@
 
 package graphics.shaders;
 
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 import android.content.Context;
 import android.opengl.GLES20;
+import android.util.Log;
 
 public class Object3D {
 	/*************************
@@ -18,12 +23,16 @@ public class Object3D {
 	// Mesh
 	Mesh mesh; 						// The mesh of triangles
 	int meshID;						// Mesh file (.OFF or .OBJ) from resources
+	Future<Mesh> pendingMesh;		// Mesh still being loaded by an AssetLoader
 
 	// texture
 	private boolean hasTexture;
 	private int[] texFiles;
 	private int[] _texIDs;
 
+	// lighting properties
+	private Material _material = new Material();
+
 	/***************************
 	 * CONSTRUCTOR(S)
 	 **************************/
@@ -36,29 +45,74 @@ public class Object3D {
 		this.meshID = meshID;
 		this.hasTexture = hasTexture;
 
-		// the mesh
-		mesh = new Mesh(meshID, context);
+		// the mesh - a placeholder if it can't be read
+		try {
+			mesh = new Mesh(meshID, context);
+		} catch (IOException e) {
+			Log.e("Object3D", "Mesh " + meshID + " failed to load, drawing a placeholder: " + e);
+			mesh = Mesh.createPlaceholder();
+		}
 
 		// texture
 		_texIDs = new int[texFiles.length];
 	} 
 
+	// The mesh is loaded in the background by the loader
+	public Object3D(int[] texFile, int meshID, boolean hasTexture, AssetLoader loader) {
+		this.texFiles = texFile;
+		this.meshID = meshID;
+		this.hasTexture = hasTexture;
+
+		// the mesh
+		pendingMesh = loader.loadMesh(meshID);
+
+		// texture
+		_texIDs = new int[texFiles.length];
+	}
+
+	public Object3D(int meshID, boolean hasTexture, AssetLoader loader) {
+		this(new int[0], meshID, hasTexture, loader);
+	}
+
 	/**************************
 	 * OTHER METHODS
 	 *************************/
-	
-	// ...
+
+	/**
+	 * Adds a draw of this object to the render queue
+	 * @param shader the shader to draw with
+	 * @param depth distance of the object from the eye
+	 */
+	public void submit(RenderQueue queue, Shader shader, float depth) {
+		long key = RenderQueue.makeKey(RenderQueue.PASS_OPAQUE, shader.get_program(), get_textureSet(), depth);
+		queue.add(key, this, shader);
+	}
 
 
 	/***************************
 	 * GET/SET
 	 *************************/
+	/**
+	 * @return the mesh - waits for it if it's still loading. Never null:
+	 *         a mesh that failed to load (see AssetLoader.awaitAll) is a placeholder.
+	 */
 	public Mesh getMesh() {
+		if (mesh == null && pendingMesh != null) {
+			try {
+				mesh = AssetLoader.getUninterruptibly(pendingMesh);
+			} catch (ExecutionException e) {
+				// reported by the loader
+			}
+			pendingMesh = null;
+			if (mesh == null)
+				mesh = Mesh.createPlaceholder();
+		}
 		return mesh;
 	}
 
 	public void setMesh(Mesh mesh) {
 		this.mesh = mesh;
+		this.pendingMesh = null;
 	}
 
 	public int getMeshID() {
@@ -73,6 +127,14 @@ public class Object3D {
 		return hasTexture;
 	}
 
+	/**
+	 * @return id of the textures the object binds, 0 for none.
+	 *         Every object creates its own textures, so the first one names the set
+	 */
+	public int get_textureSet() {
+		return (hasTexture && _texIDs.length > 0) ? _texIDs[0] : 0;
+	}
+
 	public void setHasTexture(boolean hasTexture) {
 		this.hasTexture = hasTexture;
 	}
@@ -93,4 +155,12 @@ public class Object3D {
 		_texIDs = _texid;
 	}
 
+	public Material get_material() {
+		return _material;
+	}
+
+	public void set_material(Material material) {
+		_material = material;
+	}
+
 }
@@ -0,0 +1,307 @@
+/**
+ * Disk cache of linked program binaries, so programs don't have to be
+ * compiled from source on every launch and context loss.
+ *
+ * A binary is stored under a hash of the vertex and fragment source and the
+ * driver (vendor, renderer, version) - a driver update or a changed shader
+ * misses instead of loading something stale. Binaries the driver rejects are
+ * deleted, and the program is compiled from source and stored again.
+ *
+ * The GL side is behind BinaryGL, so the hit/miss logic runs without a GL
+ * context in tests.
+ */
+
+package graphics.shaders;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.Build;
+import android.util.Log;
+
+public class ProgramCache {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+
+	/**
+	 * Getting and loading program binaries
+	 */
+	public interface BinaryGL {
+		/**
+		 * @return true if the context can save and load program binaries
+		 */
+		boolean isSupported();
+
+		/**
+		 * @return the driver - binaries are only valid for the one that made them
+		 */
+		String get_driver();
+
+		/**
+		 * @param format receives the binary's format
+		 * @return the binary of a linked program, null if there is none
+		 */
+		byte[] getBinary(int program, int[] format);
+
+		/**
+		 * @return a linked program made from the binary, 0 if the driver rejects it
+		 */
+		int loadBinary(int format, byte[] binary);
+	}
+
+	// glGetProgramBinary/glProgramBinary - core in ES 3.0, in Java from API 18
+	public static final BinaryGL GLES30_BINARIES = new BinaryGL() {
+		public boolean isSupported() {
+			if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2)
+				return false;
+			String version = GLES20.glGetString(GLES20.GL_VERSION);
+			if (version == null || !version.startsWith("OpenGL ES 3"))
+				return false;
+			int[] formats = new int[1];
+			GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+			return formats[0] > 0;
+		}
+
+		public String get_driver() {
+			return GLES20.glGetString(GLES20.GL_VENDOR) + "/" + GLES20.glGetString(GLES20.GL_RENDERER)
+					+ "/" + GLES20.glGetString(GLES20.GL_VERSION);
+		}
+
+		public byte[] getBinary(int program, int[] format) {
+			int[] length = new int[1];
+			GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, length, 0);
+			if (length[0] <= 0)
+				return null;
+			ByteBuffer buffer = ByteBuffer.allocateDirect(length[0]);
+			GLES30.glGetProgramBinary(program, length[0], length, 0, format, 0, buffer);
+			if (GLES20.glGetError() != GLES20.GL_NO_ERROR)
+				return null;
+			byte[] binary = new byte[length[0]];
+			buffer.get(binary);
+			return binary;
+		}
+
+		public int loadBinary(int format, byte[] binary) {
+			int program = GLES20.glCreateProgram();
+			if (program == 0)
+				return 0;
+			ByteBuffer buffer = ByteBuffer.allocateDirect(binary.length);
+			buffer.put(binary).position(0);
+			GLES30.glProgramBinary(program, format, buffer, binary.length);
+			int[] linkStatus = new int[1];
+			GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+			if (GLES20.glGetError() != GLES20.GL_NO_ERROR || linkStatus[0] != GLES20.GL_TRUE) {
+				GLES20.glDeleteProgram(program);
+				return 0;
+			}
+			return program;
+		}
+	};
+
+	// file header
+	private static final int MAGIC = 0x50424331;	// "PBC1"
+	private static final int HEADER_BYTES = 12;		// magic, format, length
+
+	private static String TAG = "ProgramCache";
+
+	private final BinaryGL _gl;
+	private final File _dir;
+
+	// per context
+	private boolean _supported;
+	private String _driver = "";
+
+	// counters
+	private int _hits;
+	private int _misses;
+	private int _rejected;
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	public ProgramCache(File dir) {
+		this(dir, GLES30_BINARIES);
+	}
+
+	public ProgramCache(File dir, BinaryGL gl) {
+		this._dir = dir;
+		this._gl = gl;
+	}
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * Checks what the new context supports - call before load()/store()
+	 */
+	public void onContextCreated() {
+		_supported = _gl.isSupported();
+		_driver = _supported ? _gl.get_driver() : "";
+		if (_supported && !_dir.isDirectory() && !_dir.mkdirs())
+			_supported = false;
+	}
+
+	/**
+	 * @return a linked program from the cached binary, 0 on a miss - compile it then and store() it
+	 */
+	public int load(String vertexSource, String fragmentSource) {
+		if (!_supported) {
+			_misses++;
+			return 0;
+		}
+
+		File file = file(vertexSource, fragmentSource);
+		if (!file.isFile()) {
+			_misses++;
+			return 0;
+		}
+
+		int format;
+		byte[] binary;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(file));
+			if (in.readInt() != MAGIC)
+				throw new IOException("Not a program binary");
+			format = in.readInt();
+			int length = in.readInt();
+			if (length < 0 || length > file.length() - HEADER_BYTES)
+				throw new IOException("Bad binary length " + length);
+			binary = new byte[length];
+			in.readFully(binary);
+		} catch (IOException e) {
+			Log.d(TAG, "Could not read " + file.getName() + ": " + e.getLocalizedMessage());
+			close(in);
+			file.delete();
+			_misses++;
+			return 0;
+		}
+		close(in);
+
+		int program = _gl.loadBinary(format, binary);
+		if (program == 0) {
+			// the driver changed its mind - compile again
+			Log.d(TAG, "Binary " + file.getName() + " rejected");
+			file.delete();
+			_rejected++;
+			_misses++;
+			return 0;
+		}
+		_hits++;
+		return program;
+	}
+
+	/**
+	 * Saves the binary of a program just linked from the sources
+	 */
+	public void store(String vertexSource, String fragmentSource, int program) {
+		if (!_supported)
+			return;
+
+		int[] format = new int[1];
+		byte[] binary = _gl.getBinary(program, format);
+		if (binary == null)
+			return;
+
+		// written next to it and renamed, so a crash never leaves half a file
+		File file = file(vertexSource, fragmentSource);
+		File temp = new File(_dir, file.getName() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new FileOutputStream(temp));
+			out.writeInt(MAGIC);
+			out.writeInt(format[0]);
+			out.writeInt(binary.length);
+			out.write(binary);
+			out.close();
+			out = null;
+			if (!temp.renameTo(file))
+				throw new IOException("Could not rename " + temp.getName());
+		} catch (IOException e) {
+			Log.d(TAG, "Could not write " + file.getName() + ": " + e.getLocalizedMessage());
+			close(out);
+			temp.delete();
+		}
+	}
+
+	// the cache file of a pair of sources on this driver
+	private File file(String vertexSource, String fragmentSource) {
+		return new File(_dir, key(vertexSource, fragmentSource, _driver) + ".bin");
+	}
+
+	/**
+	 * @return hex SHA-1 of the sources and the driver
+	 */
+	static String key(String vertexSource, String fragmentSource, String driver) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(vertexSource.getBytes("UTF-8"));
+			digest.update((byte)0);
+			digest.update(fragmentSource.getBytes("UTF-8"));
+			digest.update((byte)0);
+			digest.update(driver.getBytes("UTF-8"));
+			byte[] hash = digest.digest();
+
+			StringBuilder hex = new StringBuilder(hash.length * 2);
+			for (int i = 0; i < hash.length; i++) {
+				hex.append(Character.forDigit((hash[i] >> 4) & 0xf, 16));
+				hex.append(Character.forDigit(hash[i] & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void close(Closeable c) {
+		if (c == null)
+			return;
+		try {
+			c.close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+	}
+
+	/***************************
+	 * GET/SET
+	 *************************/
+	public boolean isSupported() {
+		return _supported;
+	}
+
+	/**
+	 * @return # of programs loaded from binaries
+	 */
+	public int get_hits() {
+		return _hits;
+	}
+
+	/**
+	 * @return # of programs that had to be compiled
+	 */
+	public int get_misses() {
+		return _misses;
+	}
+
+	/**
+	 * @return # of binaries the driver rejected (counted as misses too)
+	 */
+	public int get_rejected() {
+		return _rejected;
+	}
+}
@@ -0,0 +1,344 @@
+/**
+ * A small render graph. Passes declare the targets they read and the one
+ * they write; compile() then
+ *  - orders the passes so every target is written before it is read
+ *  - drops passes whose output nothing (in the end the screen) uses
+ *  - gives transient targets GL render targets from the pool, sharing one
+ *    between targets of the same size and format whose lifetimes don't
+ *    overlap
+ * and execute() binds each pass's output framebuffer and viewport, and runs it.
+ * A pass whose target is incomplete is skipped, and so is every pass that
+ * reads it - they would sample garbage.
+ *
+ * Build it again when the surface changes. execute() allocates nothing.
+ */
+
+package graphics.shaders;
+
+import java.util.ArrayList;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+public class RenderGraph {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+
+	/**
+	 * Draws one pass - the output is bound when it is called
+	 */
+	public interface Pass {
+		void render(RenderGraph graph);
+	}
+
+	// the default framebuffer - the end of the graph
+	public static final int BACKBUFFER = 0;
+
+	public static final int[] NO_INPUTS = new int[0];
+
+	private static final String TAG = "RenderGraph";
+
+	private RenderTargetPool _pool;
+	private GLState.GL _gles;
+
+	// resources (targets); [BACKBUFFER] is the screen
+	private ArrayList<String> _resourceNames = new ArrayList<String>();
+	private int[] _width = new int[4];
+	private int[] _height = new int[4];
+	private int[] _format = new int[4];
+	private RenderTarget[] _targets = new RenderTarget[4];	// after compile()
+
+	// declared passes
+	private ArrayList<String> _passNames = new ArrayList<String>();
+	private ArrayList<Pass> _passes = new ArrayList<Pass>();
+	private ArrayList<int[]> _inputs = new ArrayList<int[]>();
+	private ArrayList<Integer> _outputs = new ArrayList<Integer>();
+
+	// compiled: live passes in execution order
+	private int[] _order = new int[0];
+
+	// GL targets the graph holds - given back by clear()
+	private ArrayList<RenderTarget> _physical = new ArrayList<RenderTarget>();
+
+	// the pass being executed
+	private int _currentOutput;
+
+	// targets not drawn this frame (incomplete) - passes reading them are skipped too
+	private boolean[] _skipped = new boolean[0];
+	private boolean _reportedIncomplete;	// logged once per compile()
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	public RenderGraph(RenderTargetPool pool) {
+		this._pool = pool;
+		this._gles = pool.get_gl().get_gles();
+		clear();
+	}
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * Drops every pass and target; the GL targets go back to the pool
+	 */
+	public void clear() {
+		for (int i = 0; i < _physical.size(); i++)
+			_pool.release(_physical.get(i));
+		_physical.clear();
+
+		_resourceNames.clear();
+		_passNames.clear();
+		_passes.clear();
+		_inputs.clear();
+		_outputs.clear();
+		_order = new int[0];
+
+		_resourceNames.add("backbuffer");
+		_width[BACKBUFFER] = 0;
+		_height[BACKBUFFER] = 0;
+		_targets[BACKBUFFER] = null;
+	}
+
+	/**
+	 * Like clear(), after the context was lost - the GL targets are already gone
+	 */
+	public void onContextCreated() {
+		_physical.clear();
+		clear();
+	}
+
+	/**
+	 * @param width size of the screen - the viewport of passes writing BACKBUFFER
+	 */
+	public void setBackbufferSize(int width, int height) {
+		_width[BACKBUFFER] = width;
+		_height[BACKBUFFER] = height;
+	}
+
+	/**
+	 * Declares a transient target - it only exists while passes use it
+	 * @param format RenderTarget.RGB565 or RenderTarget.RGBA8888
+	 * @return its id, for addPass()
+	 */
+	public int createTarget(String name, int width, int height, int format) {
+		int id = _resourceNames.size();
+		_resourceNames.add(name);
+		if (id == _width.length) {
+			_width = grow(_width);
+			_height = grow(_height);
+			_format = grow(_format);
+			RenderTarget[] targets = new RenderTarget[id * 2];
+			System.arraycopy(_targets, 0, targets, 0, id);
+			_targets = targets;
+		}
+		_width[id] = width;
+		_height[id] = height;
+		_format[id] = format;
+		_targets[id] = null;
+		return id;
+	}
+
+	/**
+	 * Declares a pass
+	 * @param inputs targets it samples
+	 * @param output target it draws into - one per pass, BACKBUFFER for the screen
+	 */
+	public void addPass(String name, int[] inputs, int output, Pass pass) {
+		_passNames.add(name);
+		_passes.add(pass);
+		_inputs.add(inputs);
+		_outputs.add(output);
+	}
+
+	/**
+	 * Orders and culls the passes and assigns GL targets
+	 */
+	public void compile() {
+		int numPasses = _passes.size();
+		int numResources = _resourceNames.size();
+
+		// which pass writes each target
+		int[] producer = new int[numResources];
+		for (int r = 0; r < numResources; r++)
+			producer[r] = -1;
+		for (int p = 0; p < numPasses; p++) {
+			int output = _outputs.get(p);
+			if (output != BACKBUFFER && producer[output] >= 0)
+				throw new IllegalStateException("Target " + _resourceNames.get(output) + " has two writers");
+			producer[output] = p;
+		}
+
+		// 1. cull: walk back from the passes that draw to the screen
+		boolean[] live = new boolean[numPasses];
+		boolean[] needed = new boolean[numResources];
+		needed[BACKBUFFER] = true;
+		for (boolean changed = true; changed; ) {
+			changed = false;
+			for (int p = 0; p < numPasses; p++) {
+				if (live[p] || !needed[_outputs.get(p)])
+					continue;
+				live[p] = true;
+				changed = true;
+				int[] inputs = _inputs.get(p);
+				for (int i = 0; i < inputs.length; i++) {
+					if (producer[inputs[i]] < 0)
+						throw new IllegalStateException("Pass " + _passNames.get(p) + " reads "
+								+ _resourceNames.get(inputs[i]) + ", which nothing writes");
+					needed[inputs[i]] = true;
+				}
+			}
+		}
+
+		// 2. order: a pass runs once the producers of its inputs have (declaration order otherwise)
+		int[] order = new int[numPasses];
+		int numLive = 0;
+		boolean[] done = new boolean[numPasses];
+		for (boolean progress = true; progress; ) {
+			progress = false;
+			for (int p = 0; p < numPasses; p++) {
+				if (!live[p] || done[p] || !ready(p, producer, done))
+					continue;
+				order[numLive++] = p;
+				done[p] = true;
+				progress = true;
+			}
+		}
+		for (int p = 0; p < numPasses; p++)
+			if (live[p] && !done[p])
+				throw new IllegalStateException("Pass " + _passNames.get(p) + " is part of a cycle");
+		_order = new int[numLive];
+		System.arraycopy(order, 0, _order, 0, numLive);
+
+		// 3. lifetimes of the transient targets, in positions of _order
+		int[] first = new int[numResources];
+		int[] last = new int[numResources];
+		for (int r = 0; r < numResources; r++) {
+			first[r] = -1;
+			last[r] = -1;
+		}
+		for (int i = 0; i < numLive; i++) {
+			int p = _order[i];
+			int output = _outputs.get(p);
+			if (first[output] < 0)
+				first[output] = i;
+			last[output] = Math.max(last[output], i);
+			int[] inputs = _inputs.get(p);
+			for (int k = 0; k < inputs.length; k++)
+				last[inputs[k]] = Math.max(last[inputs[k]], i);
+		}
+
+		// 4. aliasing: a target reuses a GL target whose last user came before its first
+		for (int i = 0; i < _physical.size(); i++)
+			_pool.release(_physical.get(i));
+		_physical.clear();
+		ArrayList<Integer> physicalFreeAfter = new ArrayList<Integer>();
+		for (int i = 0; i < numLive; i++) {
+			int r = _outputs.get(_order[i]);
+			if (r == BACKBUFFER || first[r] != i)
+				continue;
+
+			RenderTarget target = null;
+			for (int k = 0; k < _physical.size(); k++) {
+				RenderTarget candidate = _physical.get(k);
+				if (physicalFreeAfter.get(k) < first[r] && candidate.matches(_width[r], _height[r], _format[r])) {
+					target = candidate;
+					physicalFreeAfter.set(k, last[r]);
+					break;
+				}
+			}
+			if (target == null) {
+				target = _pool.acquire(_width[r], _height[r], _format[r]);
+				_physical.add(target);
+				physicalFreeAfter.add(last[r]);
+			}
+			_targets[r] = target;
+		}
+
+		_skipped = new boolean[numResources];
+		_reportedIncomplete = false;
+
+		if (Renderer.DEBUG)
+			Log.d(TAG, numLive + " of " + numPasses + " passes, "
+					+ _physical.size() + " render targets for " + (numResources - 1) + " declared");
+	}
+
+	// have the producers of p's inputs run?
+	private boolean ready(int p, int[] producer, boolean[] done) {
+		int[] inputs = _inputs.get(p);
+		for (int i = 0; i < inputs.length; i++)
+			if (!done[producer[inputs[i]]])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Runs the live passes in order
+	 */
+	public void execute() {
+		for (int i = 0; i < _order.length; i++) {
+			int p = _order[i];
+			int output = _outputs.get(p);
+
+			// inputs that weren't drawn - skip this pass and what reads its output
+			int[] inputs = _inputs.get(p);
+			boolean skip = false;
+			for (int k = 0; k < inputs.length; k++)
+				skip |= _skipped[inputs[k]];
+
+			if (!skip && output != BACKBUFFER && !_targets[output].isComplete()) {
+				skip = true;
+				if (!_reportedIncomplete) {
+					_reportedIncomplete = true;
+					Log.e(TAG, "Render target " + _resourceNames.get(output) + " is incomplete - skipping "
+							+ _passNames.get(p) + " and the passes reading it");
+				}
+			}
+			_skipped[output] = skip;
+			if (skip)
+				continue;
+
+			if (output == BACKBUFFER)
+				_gles.bindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+			else
+				_gles.bindFramebuffer(GLES20.GL_FRAMEBUFFER, _targets[output].get_framebuffer());
+			_gles.viewport(0, 0, _width[output], _height[output]);
+
+			_currentOutput = output;
+			_passes.get(p).render(this);
+		}
+	}
+
+	private static int[] grow(int[] a) {
+		int[] bigger = new int[a.length * 2];
+		System.arraycopy(a, 0, bigger, 0, a.length);
+		return bigger;
+	}
+
+	/***************************
+	 * GET/SET
+	 *************************/
+
+	/**
+	 * @return the texture holding a target - for the passes reading it
+	 */
+	public int get_texture(int target) {
+		return _targets[target].get_texture();
+	}
+
+	/**
+	 * @return width of the current pass's output
+	 */
+	public int get_outputWidth() {
+		return _width[_currentOutput];
+	}
+
+	/**
+	 * @return height of the current pass's output
+	 */
+	public int get_outputHeight() {
+		return _height[_currentOutput];
+	}
+}
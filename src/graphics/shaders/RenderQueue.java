@@ -0,0 +1,196 @@
+/**
+ * Collects the draws of a frame and sorts them by a 64-bit key so that
+ * draws sharing a program and textures end up next to each other - the
+ * renderer only switches state where the key changes.
+ *
+ * Key layout, most significant bits first:
+ *   pass (4) | program (12) | texture set (16) | depth (32)
+ * Opaque draws go front to back (early depth rejection), transparent ones
+ * back to front (blending).
+ *
+ * Sorted with an LSD radix sort, 8 bits per pass - stable, no comparisons
+ * and nothing allocated once the arrays have grown to the scene's size.
+ * Passes where every key has the same byte are skipped.
+ */
+
+package graphics.shaders;
+
+public class RenderQueue {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	// passes - drawn in this order
+	public static final int PASS_OPAQUE = 0;
+	public static final int PASS_TRANSPARENT = 1;
+
+	// key layout
+	private static final int PASS_SHIFT = 60;
+	private static final int PROGRAM_SHIFT = 48;
+	private static final int TEXTURE_SHIFT = 32;
+	private static final long PROGRAM_MASK = 0xFFFL;
+	private static final long TEXTURE_MASK = 0xFFFFL;
+	private static final long DEPTH_MASK = 0xFFFFFFFFL;
+
+	private static final int RADIX_BITS = 8;
+	private static final int RADIX = 1 << RADIX_BITS;
+
+	// the draws, in submission order
+	private Object3D[] _objects = new Object3D[16];
+	private Shader[] _shaders = new Shader[16];
+	private int _size;
+
+	// keys + submission indices - sorted, and the radix sort's other half
+	private long[] _keys = new long[16];
+	private int[] _indices = new int[16];
+	private long[] _tmpKeys = new long[16];
+	private int[] _tmpIndices = new int[16];
+	private int[] _counts = new int[RADIX];
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	public RenderQueue() {
+
+	}
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * @param pass PASS_OPAQUE or PASS_TRANSPARENT
+	 * @param program GL program name - the low 12 bits are used
+	 * @param textureSet id of the textures the draw binds, 0 for none - the low 16 bits are used
+	 * @param depth distance from the eye
+	 */
+	public static long makeKey(int pass, int program, int textureSet, float depth) {
+		// the bits of a non-negative float sort like the float
+		long d = Float.floatToIntBits(Math.max(depth, 0.0f)) & DEPTH_MASK;
+		if (pass == PASS_TRANSPARENT)
+			d = ~d & DEPTH_MASK;
+
+		return ((long)pass << PASS_SHIFT)
+				| ((program & PROGRAM_MASK) << PROGRAM_SHIFT)
+				| ((textureSet & TEXTURE_MASK) << TEXTURE_SHIFT)
+				| d;
+	}
+
+	/**
+	 * @return true if the two keys need different programs (or passes)
+	 */
+	public static boolean programChanges(long key, long previousKey) {
+		return (key >>> PROGRAM_SHIFT) != (previousKey >>> PROGRAM_SHIFT);
+	}
+
+	/**
+	 * @return true if the two keys need different textures (or programs)
+	 */
+	public static boolean texturesChange(long key, long previousKey) {
+		return (key >>> TEXTURE_SHIFT) != (previousKey >>> TEXTURE_SHIFT);
+	}
+
+	public void clear() {
+		_size = 0;
+	}
+
+	/**
+	 * Adds a draw of the object with the shader
+	 */
+	public void add(long key, Object3D object, Shader shader) {
+		if (_size == _keys.length)
+			grow();
+		_objects[_size] = object;
+		_shaders[_size] = shader;
+		_keys[_size] = key;
+		_indices[_size] = _size;
+		_size++;
+	}
+
+	/**
+	 * Sorts the draws by key - equal keys keep their submission order
+	 */
+	public void sort() {
+		long[] keys = _keys, tmpKeys = _tmpKeys;
+		int[] indices = _indices, tmpIndices = _tmpIndices;
+		int[] counts = _counts;
+
+		for (int shift = 0; shift < 64; shift += RADIX_BITS) {
+			for (int i = 0; i < RADIX; i++)
+				counts[i] = 0;
+			for (int i = 0; i < _size; i++)
+				counts[(int)(keys[i] >>> shift) & (RADIX - 1)]++;
+
+			// every key has the same byte here - nothing to do
+			if (_size == 0 || counts[(int)(keys[0] >>> shift) & (RADIX - 1)] == _size)
+				continue;
+
+			// counts -> start positions
+			int sum = 0;
+			for (int i = 0; i < RADIX; i++) {
+				int count = counts[i];
+				counts[i] = sum;
+				sum += count;
+			}
+
+			for (int i = 0; i < _size; i++) {
+				int digit = (int)(keys[i] >>> shift) & (RADIX - 1);
+				int to = counts[digit]++;
+				tmpKeys[to] = keys[i];
+				tmpIndices[to] = indices[i];
+			}
+
+			// swap
+			long[] k = keys; keys = tmpKeys; tmpKeys = k;
+			int[] n = indices; indices = tmpIndices; tmpIndices = n;
+		}
+
+		_keys = keys;
+		_tmpKeys = tmpKeys;
+		_indices = indices;
+		_tmpIndices = tmpIndices;
+	}
+
+	private void grow() {
+		int capacity = _keys.length * 2;
+
+		Object3D[] objects = new Object3D[capacity];
+		System.arraycopy(_objects, 0, objects, 0, _size);
+		_objects = objects;
+
+		Shader[] shaders = new Shader[capacity];
+		System.arraycopy(_shaders, 0, shaders, 0, _size);
+		_shaders = shaders;
+
+		long[] keys = new long[capacity];
+		System.arraycopy(_keys, 0, keys, 0, _size);
+		_keys = keys;
+		_tmpKeys = new long[capacity];
+
+		int[] indices = new int[capacity];
+		System.arraycopy(_indices, 0, indices, 0, _size);
+		_indices = indices;
+		_tmpIndices = new int[capacity];
+	}
+
+	/***************************
+	 * GET/SET
+	 *************************/
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * @param i position in sorted order
+	 */
+	public long get_key(int i) {
+		return _keys[i];
+	}
+
+	public Object3D get_object(int i) {
+		return _objects[_indices[i]];
+	}
+
+	public Shader get_shader(int i) {
+		return _shaders[_indices[i]];
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ * An offscreen render target: a framebuffer with a color texture and a
+ * 16-bit depth renderbuffer. Storage is allocated without data and the
+ * framebuffer is attached and validated once, when it is created.
+ *
+ * Made and recycled by RenderTargetPool.
+ */
+
+package graphics.shaders;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+public class RenderTarget {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	// color formats
+	public static final int RGB565 = 0;
+	public static final int RGBA8888 = 1;
+
+	private int _width;
+	private int _height;
+	private int _format;
+
+	// GL handles
+	private int _framebuffer;
+	private int _texture;
+	private int _depthRenderbuffer;
+	private boolean _complete;
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	RenderTarget(int width, int height, int format) {
+		this._width = width;
+		this._height = height;
+		this._format = format;
+	}
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * Creates the GL objects. Leaves the texture bound to the active unit.
+	 */
+	void create(GLState gl) {
+		GLState.GL gles = gl.get_gles();
+		int[] handle = new int[1];
+
+		// color texture - no data, nothing to upload
+		gles.genTextures(1, handle, 0);
+		_texture = handle[0];
+		gl.bindTexture(_texture);
+		gles.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+		gles.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+		gles.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+		gles.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+		if (_format == RGBA8888)
+			gles.texImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, _width, _height, 0,
+					GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
+		else
+			gles.texImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGB, _width, _height, 0,
+					GLES20.GL_RGB, GLES20.GL_UNSIGNED_SHORT_5_6_5, null);
+
+		// depth
+		gles.genRenderbuffers(1, handle, 0);
+		_depthRenderbuffer = handle[0];
+		gles.bindRenderbuffer(GLES20.GL_RENDERBUFFER, _depthRenderbuffer);
+		gles.renderbufferStorage(GLES20.GL_RENDERBUFFER, GLES20.GL_DEPTH_COMPONENT16, _width, _height);
+
+		// attach both and check once
+		gles.genFramebuffers(1, handle, 0);
+		_framebuffer = handle[0];
+		gles.bindFramebuffer(GLES20.GL_FRAMEBUFFER, _framebuffer);
+		gles.framebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D, _texture, 0);
+		gles.framebufferRenderbuffer(GLES20.GL_FRAMEBUFFER, GLES20.GL_DEPTH_ATTACHMENT, GLES20.GL_RENDERBUFFER, _depthRenderbuffer);
+		int status = gles.checkFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+		_complete = (status == GLES20.GL_FRAMEBUFFER_COMPLETE);
+		if (!_complete)
+			Log.e("RenderTarget", "Framebuffer " + _width + "x" + _height + " incomplete: " + status);
+		gles.bindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+	}
+
+	/**
+	 * Deletes the GL objects - the context must be current
+	 */
+	void delete(GLState gl) {
+		GLState.GL gles = gl.get_gles();
+		int[] handle = new int[1];
+		handle[0] = _framebuffer;
+		gles.deleteFramebuffers(1, handle, 0);
+		handle[0] = _depthRenderbuffer;
+		gles.deleteRenderbuffers(1, handle, 0);
+		handle[0] = _texture;
+		gles.deleteTextures(1, handle, 0);
+		gl.forgetTexture(_texture);
+		_complete = false;
+	}
+
+	boolean matches(int width, int height, int format) {
+		return _width == width && _height == height && _format == format;
+	}
+
+	/***************************
+	 * GET/SET
+	 *************************/
+	public int get_width() {
+		return _width;
+	}
+
+	public int get_height() {
+		return _height;
+	}
+
+	public int get_format() {
+		return _format;
+	}
+
+	public int get_framebuffer() {
+		return _framebuffer;
+	}
+
+	public int get_texture() {
+		return _texture;
+	}
+
+	/**
+	 * @return true if the framebuffer passed glCheckFramebufferStatus
+	 */
+	public boolean isComplete() {
+		return _complete;
+	}
+}
@@ -0,0 +1,97 @@
+/**
+ * Hands out render targets by (width, height, format) and takes them back
+ * for reuse, so passes that need a target of the same kind share the GL
+ * objects instead of creating their own.
+ *
+ * Targets die with the EGL context: onContextCreated() forgets them.
+ * All methods must be called on the GL thread.
+ */
+
+package graphics.shaders;
+
+import java.util.ArrayList;
+
+public class RenderTargetPool {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	private GLState _gl;
+
+	// targets nobody has acquired
+	private ArrayList<RenderTarget> _free = new ArrayList<RenderTarget>();
+	// targets handed out
+	private ArrayList<RenderTarget> _used = new ArrayList<RenderTarget>();
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	public RenderTargetPool(GLState gl) {
+		this._gl = gl;
+	}
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * @param format RenderTarget.RGB565 or RenderTarget.RGBA8888
+	 * @return a free target of that size and format - created if there is none
+	 */
+	public RenderTarget acquire(int width, int height, int format) {
+		for (int i = 0; i < _free.size(); i++) {
+			RenderTarget target = _free.get(i);
+			if (target.matches(width, height, format)) {
+				_free.remove(i);
+				_used.add(target);
+				return target;
+			}
+		}
+
+		RenderTarget target = new RenderTarget(width, height, format);
+		target.create(_gl);
+		_used.add(target);
+		return target;
+	}
+
+	/**
+	 * Gives a target back - its contents may be overwritten by the next user
+	 */
+	public void release(RenderTarget target) {
+		if (_used.remove(target))
+			_free.add(target);
+	}
+
+	/**
+	 * Deletes the free targets - e.g. the old sizes after a surface change
+	 */
+	public void trim() {
+		for (int i = 0; i < _free.size(); i++)
+			_free.get(i).delete(_gl);
+		_free.clear();
+	}
+
+	/**
+	 * Deletes every target, also the acquired ones - the context must be current
+	 */
+	public void releaseAll() {
+		trim();
+		for (int i = 0; i < _used.size(); i++)
+			_used.get(i).delete(_gl);
+		_used.clear();
+	}
+
+	/**
+	 * A new EGL context - the old targets went with the old one
+	 */
+	public void onContextCreated() {
+		_free.clear();
+		_used.clear();
+	}
+
+	/***************************
+	 * GET/SET
+	 *************************/
+	public GLState get_gl() {
+		return _gl;
+	}
+}
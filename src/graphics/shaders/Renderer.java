@@ -4,12 +4,12 @@
 
 package graphics.shaders;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
 
 import javax.microedition.khronos.egl.EGLConfig;
@@ -21,9 +21,7 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
-import android.opengl.GLUtils;
 import android.opengl.Matrix;
-import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
@@ -32,14 +30,15 @@ class Renderer implements GLSurfaceView.Renderer {
 	/******************************
 	 * PROPERTIES
 	 ******************************/
+	// UI thread state - changed by the menu/touch handlers, never read by
+	// the GL thread. Every change is published as a FramePacket.
 	// rotation 
-	public float mAngleX;
-	public float mAngleY;
+	private float mAngleX;
+	private float mAngleY;
 
 	private static final int FLOAT_SIZE_BYTES = 4;
 	private static final int TRIANGLE_VERTICES_DATA_STRIDE_BYTES = 8 * FLOAT_SIZE_BYTES;
 	private static final int TRIANGLE_VERTICES_DATA_POS_OFFSET = 0;
-	private static final int TRIANGLE_VERTICES_DATA_NOR_OFFSET = 3;
 	private static final int TRIANGLE_VERTICES_DATA_TEX_OFFSET = 6;
 
 	// shader constants
@@ -47,13 +46,16 @@ class Renderer implements GLSurfaceView.Renderer {
 	private final int PHONG_SHADER = 1;
 	private final int NORMALMAP_SHADER = 2;
 
-	// array of shaders
-	Shader _shaders[] = new Shader[3];
-	private int _currentShader;
+	// the features of each shader - texturing is added per object
+	private static final int[] SHADER_FEATURES = {
+		0, ShaderVariants.PER_PIXEL, ShaderVariants.PER_PIXEL | ShaderVariants.NORMALMAP
+	};
 
-	/** Shader code **/
-	private int[] vShaders;
-	private int[] fShaders;
+	// the variants of the shader - compiled as they are first drawn with,
+	// the rest in spare frame time
+	ShaderVariants _shaders;
+	private static final long SHADER_BUDGET_NANOS = 4000000L;	// compile time per frame
+	private int _currentShader;		// UI thread
 
 	// object constants
 	private final int OCTAHEDRON = 0;
@@ -63,6 +65,9 @@ class Renderer implements GLSurfaceView.Renderer {
 	// The objects
 	Object3D[] _objects = new Object3D[3];
 
+	// loads the object meshes in the background
+	private AssetLoader _loader;
+
 	// the full-screen quad buffers						
 	final float x = 10.0f;
 	final float y = 15.0f;
@@ -77,13 +82,44 @@ class Renderer implements GLSurfaceView.Renderer {
 
 	private FloatBuffer _qvb;
 	// index
-	final int _quadi[] = { 0, 1, 2,
-			               2, 3, 0  
+	final short _quadi[] = { 0, 1, 2,
+			                 2, 3, 0  
 						};
-	private IntBuffer _qib;
+	private ShortBuffer _qib;
+
+	// vertex/index buffer objects of the meshes and the quad
+	private BufferManager _buffers;
+
+	// the draws of a frame, sorted by state
+	private RenderQueue _queue = new RenderQueue();
+
+	// CULLING - the objects that may be drawn, a BVH over their boxes and
+	// the visible ones of the frame. Objects have no transforms of their own,
+	// so the boxes stay in object space and the BVH is only rebuilt when the
+	// scene changes. The arrays are made once, for all the objects, so a
+	// rebuild in the frame loop allocates nothing.
+	private Object3D[] _scene = new Object3D[0];
+	private float[] _sceneBounds = new float[0];	// min xyz, max xyz per object
+	private int _numScene;
+	private int _sceneObject = -1;		// selection the scene was built for
+	private SceneBvh _bvh = new SceneBvh();
+	private Frustum _frustum = new Frustum();
+	private int[] _visible = new int[0];
+
+	// filters redundant state changes - every GL call goes through _gles
+	private GLState _gl;
+	private GLState.GL _gles;
+	private int _frames;
+	private static final int STATE_STATS_FRAMES = 300;	// log the savings every so many frames
+
+	// debug build? false compiles the logging and error checks out of the frame loop
+	static final boolean DEBUG = false;
+
+	// scratch storage for the frame
+	private float[] mTempMatrix = new float[16];
 	
 	// current object
-	private int _currentObject;
+	private int _currentObject;		// UI thread
 
 	// Modelview/Projection matrices
 	private float[] mMVPMatrix = new float[16];
@@ -93,88 +129,121 @@ class Renderer implements GLSurfaceView.Renderer {
 	private float[] mRotYMatrix = new float[16];	// rotation x
 	private float[] mMMatrix = new float[16];		// rotation
 	private float[] mVMatrix = new float[16]; 		// modelview
+	private float[] mMVMatrix = new float[16];		// view * model
 	private float[] normalMatrix = new float[16]; 	// modelview normal
 
-	// textures enabled?
+	// textures enabled? (UI thread)
 	private boolean enableTexture = true;
 	private int[] _texIDs;
 
-	// light parameters
-	private float[] lightPos;
-	private float[] lightColor;
+	// light parameters - the position is interpolated for the frame
+	private LightBlock _light = new LightBlock();
 	private float[] lightAmbient;
 	private float[] lightDiffuse;
-	// angle rotation for light
-	float angle = 0.0f;
-	boolean lightRotate = true; 
-
+	boolean lightRotate = true; 	// UI thread
 
-	// material properties
-	private float[] matAmbient;
-	private float[] matDiffuse;
-	private float[] matSpecular;
-	private float matShininess;
+	// SIMULATION - the light orbits the y-axis, starting here
+	private static final float[] LIGHT_START = {30.0f, 0.0f, 10.0f, 1};
+	// orbit speed, radians per tick - creeps up and wraps around
+	private float _lightSpin = 0.0f;
+	// orbit angle at the last two ticks, radians
+	private double _lightOrbit;
+	private double _previousLightOrbit;
 
-	// eye pos
-	private float[] eyePos = {-5.0f, 0.0f, 0.0f};
 
-	// scaling
+	// scaling (UI thread)
 	float scaleX = 1.0f;
 	float scaleY = 1.0f;
 	float scaleZ = 1.0f;
 
-	// RENDER TO TEXTURE VARIABLES
-	int[] fb, depthRb, renderTex;
-	int texW = 480;
-	int texH = 800;
-	IntBuffer texBuffer;
+	// UI -> GL hand-off; _frame is what the GL thread draws this frame
+	private FramePacket.Slot _packets;
+	private FramePacket _frame;
+
+	// RENDER TO TEXTURE VARIABLES - the scene is drawn into a surface-sized target,
+	// then onto a full-screen quad; the passes are built in onSurfaceChanged
+	private RenderTargetPool _targets;
+	private RenderGraph _graph;
+	private int _sceneColor;
+	private RenderGraph.Pass _scenePass = new RenderGraph.Pass() {
+		public void render(RenderGraph graph) {
+			renderScene(graph);
+		}
+	};
+	private RenderGraph.Pass _presentPass = new RenderGraph.Pass() {
+		public void render(RenderGraph graph) {
+			presentScene(graph);
+		}
+	};
 	
 	// viewport variables
 	float ratio = 1.0f;
 	int w, h;
+
+	// OES_element_index_uint - can meshes use 32-bit indices?
+	boolean intIndicesSupported;
+
+	// LOD selection - meshes are drawn in full detail when their bounding
+	// sphere covers at least this many pixels (diameter)
+	private static final float LOD_FULL_DETAIL_PIXELS = 400.0f;
+	private float[] _lodCenter = {0, 0, 0, 1};
+	private float[] _lodEyeCenter = new float[4];
 	
 	// GAME LOOP variables
-	final int TICKS_PER_SECOND = 25; // Update "game" info at 60fps - will ensure light doesn't rotate too fast
-    final int SKIP_TICKS = 1000 / TICKS_PER_SECOND;
+	final int TICKS_PER_SECOND = 25; // Update "game" info at 25 ticks/s - will ensure light doesn't rotate too fast
     final int MAX_FRAMESKIP = 10;
 
-    float next_game_tick;// = System.currentTimeMillis();//GetTickCount();
-    int loops;
+    // fixed ticks for the simulation, independent of the frame rate
+    private SimulationClock _clock = new SimulationClock(TICKS_PER_SECOND, MAX_FRAMESKIP);
 
 
+	// program binaries of earlier runs
+	private ProgramCache _programs;
+
 	private Context mContext;
 	private static String TAG = "Renderer";
 
 	/***************************
 	 * CONSTRUCTOR(S)
 	 **************************/
+	public Renderer(Context context) {
+		this(context, GLState.GLES20_CALLS);
+	}
+
+	/**
+	 * @param gles the GL to draw with - a stub runs the frame loop without a context
+	 */
 	@SuppressLint("NewApi")
-    public Renderer(Context context) {
+	public Renderer(Context context, GLState.GL gles) {
 
 		mContext = context;
-
-		// setup all the shaders
-		vShaders = new int[3];
-		fShaders = new int[3];
-
-		// basic - just gouraud shading
-		vShaders[GOURAUD_SHADER] = R.raw.gouraud_vs;
-		fShaders[GOURAUD_SHADER] = R.raw.gouraud_ps;
-
-		// phong shading
-		vShaders[PHONG_SHADER] = R.raw.phong_vs;
-		fShaders[PHONG_SHADER] = R.raw.phong_ps;
-
-		// normal mapping
-		vShaders[NORMALMAP_SHADER] = R.raw.normalmap_vs;
-		fShaders[NORMALMAP_SHADER] = R.raw.normalmap_ps;
+		_gles = gles;
+		_gl = new GLState(gles);
+		_buffers = new BufferManager(_gl);
+		_targets = new RenderTargetPool(_gl);
+		_graph = new RenderGraph(_targets);
+		_programs = new ProgramCache(new File(context.getCacheDir(), "programs"));
+
+		// setup the shader - gouraud, phong and normal mapping are variants of it
+		_shaders = new ShaderVariants(R.raw.lit_vs, R.raw.lit_ps, context, _programs);
+		_shaders.set_budgetNanos(SHADER_BUDGET_NANOS);
+
+		// warm up every menu choice, textured or not
+		int[] warmUp = new int[SHADER_FEATURES.length * 2];
+		for (int i = 0; i < SHADER_FEATURES.length; i++) {
+			warmUp[i * 2] = SHADER_FEATURES[i] | ShaderVariants.TEXTURED;
+			warmUp[i * 2 + 1] = SHADER_FEATURES[i];
+		}
+		_shaders.set_warmUp(warmUp);
 
 		// Create some objects - pass in the textures, the meshes
+		// meshes are parsed in parallel and joined in onSurfaceCreated
+		_loader = new AssetLoader(context);
 		try {
 			int[] normalMapTextures = {R.raw.diffuse_old, R.raw.diffusenormalmap_deepbig};
-			_objects[0] = new Object3D(R.raw.octahedron, false, context);
-			_objects[1] = new Object3D(R.raw.tetrahedron, false, context);
-			_objects[2] = new Object3D(normalMapTextures, R.raw.texturedcube, true, context);
+			_objects[0] = new Object3D(R.raw.octahedron, false, _loader);
+			_objects[1] = new Object3D(R.raw.tetrahedron, false, _loader);
+			_objects[2] = new Object3D(normalMapTextures, R.raw.texturedcube, true, _loader);
 		} catch (Exception e) {
 			//showAlert("" + e.getMessage());
 		}
@@ -182,6 +251,8 @@ class Renderer implements GLSurfaceView.Renderer {
 		// set current object and shader
 		_currentObject = this.OCTAHEDRON;
 		_currentShader = this.PHONG_SHADER;//GOURAUD_SHADER;
+
+		_packets = new FramePacket.Slot(snapshot());
 	}
 
 	/*****************************
@@ -192,52 +263,133 @@ class Renderer implements GLSurfaceView.Renderer {
 	 */
 	@SuppressLint("NewApi")
     public void onDrawFrame(GL10 glUnused) {
-		// GAME LOOP 
-		loops = 0;
-        while( SystemClock.elapsedRealtime() > next_game_tick && loops < MAX_FRAMESKIP) {
-        	// Rotate the light?
-        	if (lightRotate) {
-    			angle += 0.000005f;
-    			if (angle >= 6.2)
-    				angle = 0.0f;
-
-    			// rotate light about y-axis
-    			float newPosX = (float)(Math.cos(angle) * lightPos[0] - Math.sin(angle) * lightPos[2]);
-    			float newPosZ = (float)(Math.sin(angle) * lightPos[0] + Math.cos(angle) * lightPos[2]);
-    			lightPos[0] = newPosX; lightPos[2] = newPosZ;
-    		}
-
-            next_game_tick += SKIP_TICKS;
-            loops++;
-        }
-		
-        // Ignore the passed-in GL10 interface, and use the GLES20
-		// class's static methods instead.
+		_frames++;
+
+		// the latest state from the UI - the same for the whole frame
+		_frame = _packets.latest();
+		_shaders.beginFrame();
+
+		// GAME LOOP - whole ticks of simulation, then draw in between the last two
+		int ticks = _clock.advance();
+		for (int t = 0; t < ticks; t++)
+			simulate();
+		interpolate(_clock.get_alpha());
+		
+        // Ignore the passed-in GL10 interface, and use _gles
+		// (the GLES20 class's static methods) instead.
+		
+		/********* RENDER TO TEXTURE, THEN THE TEXTURE ON A QUAD ****************/
+		_graph.execute();
+
+		// shaders not drawn with yet, while there is time
+		_shaders.compilePending();
+
+		// how many state changes were redundant?
+		if (DEBUG && _frames % STATE_STATS_FRAMES == 0) {
+			Log.d(TAG, "GL state calls: " + _gl.get_issuedCalls() + " issued, "
+					+ _gl.get_filteredCalls() + " filtered, " + _gl.get_inactiveCalls() + " to inactive uniforms");
+			Log.d(TAG, "Objects: " + _bvh.get_numVisible() + " visible, "
+					+ _bvh.get_numCulled() + " culled");
+			Log.d(TAG, "Shaders: " + _shaders.get_numCompiled() + " variants, "
+					+ _programs.get_hits() + " from binaries, " + _programs.get_misses() + " compiled");
+			_gl.resetCounters();
+		}
+
+		/** END DRAWING OBJECT ***/
+	}
+
+	/**
+	 * Renders the scene - the scene target is bound
+	 */
+	private void renderScene(RenderGraph graph) {
+		// much bigger viewport?
+		Matrix.frustumM(mProjMatrix, 0, -ratio, ratio, -1, 1, 0.5f, 10);
+
+		_gles.clearColor(.0f, .0f, .0f, 1.0f);
+		_gles.clear( GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
 		
-		/********* RENDER TO TEXTURE HERE ****************/
-		renderToTexture();
 		
-		/********* NOW JUST TRY TO RENDER THE TEXTURE ************/
+		// scaling
+		Matrix.setIdentityM(mScaleMatrix, 0);
+		Matrix.scaleM(mScaleMatrix, 0, _frame.get_scaleX(), _frame.get_scaleY(), _frame.get_scaleZ());
 
-		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-		
+		// Rotation along x
+		Matrix.setRotateM(mRotXMatrix, 0, _frame.get_angleY(), -1.0f, 0.0f, 0.0f);
+		Matrix.setRotateM(mRotYMatrix, 0, _frame.get_angleX(), 0.0f, 1.0f, 0.0f);
+
+		// Set the ModelViewProjectionMatrix - the objects share the model transform
+		Matrix.multiplyMM(mTempMatrix, 0, mRotYMatrix, 0, mRotXMatrix, 0);
+		Matrix.multiplyMM(mMMatrix, 0, mScaleMatrix, 0, mTempMatrix, 0);
+		Matrix.multiplyMM(mMVMatrix, 0, mVMatrix, 0, mMMatrix, 0);
+		Matrix.multiplyMM(mMVPMatrix, 0, mProjMatrix, 0, mMVMatrix, 0);
+
+		// Create the normal modelview matrix
+		// Invert + transpose of mvpmatrix
+		Matrix.invertM(normalMatrix, 0, mMVPMatrix, 0);
+		Matrix.transposeM(normalMatrix, 0, normalMatrix, 0);
+
+		/*** CULLING **/
+		if (_frame.get_object() != _sceneObject)
+			buildScene(_frame.get_object());
+
+		// planes from the MVP matrix are in object space, like the boxes
+		_frustum.set(mMVPMatrix);
+		int numVisible = _bvh.cull(_frustum, _visible);
+
+		/*** DRAWING OBJECTS **/
+		// every visible object submits its draws
+		_queue.clear();
+		for (int i = 0; i < numVisible; i++) {
+			Object3D ob = _scene[_visible[i]];
+			ob.submit(_queue, _shaders.get(shaderFeatures(ob)), eyeDistance(ob.getMesh()));
+		}
+
+		// sorted by program, textures and depth - state only changes where the key does
+		_queue.sort();
+		Shader shader = null;
+		long previousKey = 0;
+		for (int i = 0; i < _queue.size(); i++) {
+			long key = _queue.get_key(i);
+			Object3D ob = _queue.get_object(i);
+
+			if (i == 0 || RenderQueue.programChanges(key, previousKey)) {
+				if (shader != null)
+					disableTangents(shader);
+				shader = _queue.get_shader(i);
+				useShader(shader);
+			}
+			if (i == 0 || RenderQueue.texturesChange(key, previousKey))
+				bindTextures(shader, ob);
+
+			drawObject(shader, ob);
+			previousKey = key;
+		}
+		if (shader != null)
+			disableTangents(shader);
+
+		/** END DRAWING OBJECTS ***/
+	}
+
+	/**
+	 * Draws the scene texture on a full-screen quad - the backbuffer is bound
+	 */
+	private void presentScene(RenderGraph graph) {
 		// Same thing, only different texture is bound now
 		
-		GLES20.glClearColor(.0f, .0f, .0f, 1.0f);
-		GLES20.glClear( GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
+		_gles.clearColor(.0f, .0f, .0f, 1.0f);
+		_gles.clear( GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
 		
 		// RENDER A FULL-SCREEN QUAD
 		
-		// use gouraud shader to render it?
-		Shader shader = _shaders[this.GOURAUD_SHADER];
+		// textured, unlit
+		Shader shader = _shaders.get(ShaderVariants.TEXTURED);
 		int _program = shader.get_program();
 		
 		// Start using the shader
-		GLES20.glUseProgram(_program);
-		checkGlError("glUseProgram");
+		_gl.useProgram(_program);
+		if (DEBUG)
+			checkGlError("glUseProgram");
 
-		// set the viewport
-		GLES20.glViewport(0, 0, w, h);
 		//Matrix.orthoM(mProjMatrix, 0, -ratio, ratio, -1, 1, 0.5f, 10);
 		
 		// modelview matrix
@@ -253,269 +405,230 @@ class Renderer implements GLSurfaceView.Renderer {
 		Matrix.setRotateM(mRotYMatrix, 0, 0, 0.0f, 1.0f, 0.0f);
 
 		// Set the ModelViewProjectionMatrix
-		float tempMatrix[] = new float[16]; 
-		Matrix.multiplyMM(tempMatrix, 0, mRotYMatrix, 0, mRotXMatrix, 0);
-		Matrix.multiplyMM(mMMatrix, 0, mScaleMatrix, 0, tempMatrix, 0);
+		Matrix.multiplyMM(mTempMatrix, 0, mRotYMatrix, 0, mRotXMatrix, 0);
+		Matrix.multiplyMM(mMMatrix, 0, mScaleMatrix, 0, mTempMatrix, 0);
 		Matrix.multiplyMM(mMVPMatrix, 0, mVMatrix, 0, mMMatrix, 0);
 		Matrix.multiplyMM(mMVPMatrix, 0, mProjMatrix, 0, mMVPMatrix, 0);
 		
 		
 		// send to the shader
-		GLES20.glUniformMatrix4fv(GLES20.glGetUniformLocation(_program, "uMVPMatrix"), 1, false, mMVPMatrix, 0);
-
-		// Create the normal modelview matrix
-		// Invert + transpose of mvpmatrix
-		Matrix.invertM(normalMatrix, 0, mMVPMatrix, 0);
-		Matrix.transposeM(normalMatrix, 0, normalMatrix, 0);
-
-		// send to the shader
-		GLES20.glUniformMatrix4fv(GLES20.glGetUniformLocation(_program, "normalMatrix"), 1, false, normalMatrix, 0);
-
-		// lighting variables
-		// send to shaders
-		GLES20.glUniform4fv(GLES20.glGetUniformLocation(_program, "lightPos"), 1, lightPos, 0);
-		GLES20.glUniform4fv(GLES20.glGetUniformLocation(_program, "lightColor"), 1, lightColor, 0);
-
-		// material 
-		GLES20.glUniform4fv(GLES20.glGetUniformLocation(_program, "matAmbient"), 1, matAmbient, 0);
-		GLES20.glUniform4fv(GLES20.glGetUniformLocation(_program, "matDiffuse"), 1, matDiffuse, 0);
-		GLES20.glUniform4fv(GLES20.glGetUniformLocation(_program, "matSpecular"), 1, matSpecular, 0);
-		GLES20.glUniform1f(GLES20.glGetUniformLocation(_program, "matShininess"), matShininess);
+		_gl.uniformMatrix4fv(shader.get_uniform(Shader.U_MVP_MATRIX), mMVPMatrix, 0);
 
-		// eye position
-		GLES20.glUniform3fv(GLES20.glGetUniformLocation(_program, "eyePos"), 1, eyePos, 0);
+		// unlit - no normal matrix, light or material
 
 		// Vertex buffer
 
+		_gles.bindBuffer(GLES20.GL_ARRAY_BUFFER, _buffers.arrayBuffer(_qvb));
+
 		// the vertex coordinates
-		_qvb.position(TRIANGLE_VERTICES_DATA_POS_OFFSET);
-		GLES20.glVertexAttribPointer(GLES20.glGetAttribLocation(_program, "aPosition"), 3, GLES20.GL_FLOAT, false,
-				TRIANGLE_VERTICES_DATA_STRIDE_BYTES, _qvb);
-		GLES20.glEnableVertexAttribArray(GLES20.glGetAttribLocation(_program, "aPosition"));
+		_gles.vertexAttribPointer(shader.get_attribute(VertexFormat.POSITION), 3, GLES20.GL_FLOAT, false,
+				TRIANGLE_VERTICES_DATA_STRIDE_BYTES, TRIANGLE_VERTICES_DATA_POS_OFFSET * FLOAT_SIZE_BYTES);
+		_gl.enableVertexAttribArray(shader.get_attribute(VertexFormat.POSITION));
 
-		// the normal info
-		_qvb.position(TRIANGLE_VERTICES_DATA_NOR_OFFSET);
-		GLES20.glVertexAttribPointer(GLES20.glGetAttribLocation(_program, "aNormal"), 3, GLES20.GL_FLOAT, false,
-				TRIANGLE_VERTICES_DATA_STRIDE_BYTES, _qvb);
-		GLES20.glEnableVertexAttribArray(GLES20.glGetAttribLocation(_program, "aNormal"));
+		// no normals - the variant isn't lit
 
 		// bind the framebuffer texture
-		GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, renderTex[0]);
-		GLES20.glUniform1i(GLES20.glGetUniformLocation(_program, "texture1"), 0);
-
-		// enable texturing? [fix - sending float is waste]
-		GLES20.glUniform1f(GLES20.glGetUniformLocation(_program, "hasTexture"), 1.0f);
+		_gl.activeTexture(0);
+		_gl.bindTexture(graph.get_texture(_sceneColor));
+		_gl.uniform1i(shader.get_uniform(Shader.U_TEXTURE1), 0);
 
 		// texture coordinates
-		_qvb.position(TRIANGLE_VERTICES_DATA_TEX_OFFSET);
-		GLES20.glVertexAttribPointer(GLES20.glGetAttribLocation(_program, "textureCoord"), 2, GLES20.GL_FLOAT, false,
-				TRIANGLE_VERTICES_DATA_STRIDE_BYTES, _qvb);
-		GLES20.glEnableVertexAttribArray(GLES20.glGetAttribLocation(_program, "textureCoord"));//GLES20.glEnableVertexAttribArray(shader.maTextureHandle);
+		_gles.vertexAttribPointer(shader.get_attribute(VertexFormat.TEXCOORD), 2, GLES20.GL_FLOAT, false,
+				TRIANGLE_VERTICES_DATA_STRIDE_BYTES, TRIANGLE_VERTICES_DATA_TEX_OFFSET * FLOAT_SIZE_BYTES);
+		_gl.enableVertexAttribArray(shader.get_attribute(VertexFormat.TEXCOORD));
 
-		// Draw with indices
-		GLES20.glDrawElements(GLES20.GL_TRIANGLES, _quadi.length, GLES20.GL_UNSIGNED_INT, _qib);
-		checkGlError("glDrawElements");
+		// float vertices - no dequantization
+		setDequantization(shader, VertexFormat.FLOAT);
 
-		/** END DRAWING OBJECT ***/
-		// clear render to texture buffer?
-		//texBuffer.clear();
-		//this.setupRenderToTexture();
+		// Draw with indices
+		_gles.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, _buffers.elementBuffer(_qib));
+		_gles.drawElements(GLES20.GL_TRIANGLES, _quadi.length, GLES20.GL_UNSIGNED_SHORT, 0);
+		if (DEBUG)
+			checkGlError("glDrawElements");
 	}
 
 	/**
-	 * Renders to a texture
+	 * @return the shader variant to draw the object with
 	 */
-	private boolean renderToTexture() {
-		// much bigger viewport?
-		Matrix.frustumM(mProjMatrix, 0, -ratio, ratio, -1, 1, 0.5f, 10);
-		GLES20.glViewport(0, 0, this.texW, this.texH);
-		
-		GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, fb[0]);
-		
-		// specify texture as color attachment
-		GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D, renderTex[0], 0);
-		
-		// attach render buffer as depth buffer
-		GLES20.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER, GLES20.GL_DEPTH_ATTACHMENT, GLES20.GL_RENDERBUFFER, depthRb[0]);
-		
-		// check status
-		int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
-		if (status != GLES20.GL_FRAMEBUFFER_COMPLETE)
-			return false;
-
-		GLES20.glClearColor(.0f, .0f, .0f, 1.0f);
-		GLES20.glClear( GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
-		
-		
-		// the current shader
-		Shader shader = _shaders[this._currentShader]; // PROBLEM!
-		int _program = shader.get_program();
-		
-		// Start using the shader
-		GLES20.glUseProgram(_program);
-		checkGlError("glUseProgram");
-
-		// scaling
-		Matrix.setIdentityM(mScaleMatrix, 0);
-		Matrix.scaleM(mScaleMatrix, 0, scaleX, scaleY, scaleZ);
-
-		// Rotation along x
-		Matrix.setRotateM(mRotXMatrix, 0, this.mAngleY, -1.0f, 0.0f, 0.0f);
-		Matrix.setRotateM(mRotYMatrix, 0, this.mAngleX, 0.0f, 1.0f, 0.0f);
-
-		// Set the ModelViewProjectionMatrix
-		float tempMatrix[] = new float[16]; 
-		Matrix.multiplyMM(tempMatrix, 0, mRotYMatrix, 0, mRotXMatrix, 0);
-		Matrix.multiplyMM(mMMatrix, 0, mScaleMatrix, 0, tempMatrix, 0);
-		Matrix.multiplyMM(mMVPMatrix, 0, mVMatrix, 0, mMMatrix, 0);
-		Matrix.multiplyMM(mMVPMatrix, 0, mProjMatrix, 0, mMVPMatrix, 0);
+	private int shaderFeatures(Object3D ob) {
+		int features = SHADER_FEATURES[_frame.get_shader()];
+		if (ob.hasTexture() && _frame.isTexturing())
+			features |= ShaderVariants.TEXTURED;
+		return features;
+	}
 
-		// send to the shader
-		GLES20.glUniformMatrix4fv(GLES20.glGetUniformLocation(_program, "uMVPMatrix"), 1, false, mMVPMatrix, 0);
+	/**
+	 * Puts the objects to draw in the scene and builds the BVH over their boxes.
+	 * The demo scene is just the selected object.
+	 */
+	private void buildScene(int selected) {
+		_scene[0] = _objects[selected];
+		_numScene = 1;
+		_sceneObject = selected;
+
+		for (int i = 0; i < _numScene; i++) {
+			Mesh mesh = _scene[i].getMesh();
+			System.arraycopy(mesh.get_boundsMin(), 0, _sceneBounds, i * 6, 3);
+			System.arraycopy(mesh.get_boundsMax(), 0, _sceneBounds, i * 6 + 3, 3);
+		}
+		_bvh.build(_sceneBounds, _numScene);
+	}
 
-		// Create the normal modelview matrix
-		// Invert + transpose of mvpmatrix
-		Matrix.invertM(normalMatrix, 0, mMVPMatrix, 0);
-		Matrix.transposeM(normalMatrix, 0, normalMatrix, 0);
+	/**
+	 * Starts using a shader and sets the uniforms shared by all its draws
+	 */
+	private void useShader(Shader shader) {
+		_gl.useProgram(shader.get_program());
+		if (DEBUG)
+			checkGlError("glUseProgram");
 
 		// send to the shader
-		GLES20.glUniformMatrix4fv(GLES20.glGetUniformLocation(_program, "normalMatrix"), 1, false, normalMatrix, 0);
+		_gl.uniformMatrix4fv(shader.get_uniform(Shader.U_MVP_MATRIX), mMVPMatrix, 0);
+		_gl.uniformMatrix4fv(shader.get_uniform(Shader.U_NORMAL_MATRIX), normalMatrix, 0);
+
+		// lighting variables - if they changed since the program last got them
+		if (shader.get_lightVersion() != _light.get_version()) {
+			_gl.uniform4fv(shader.get_uniform(Shader.U_LIGHT_POS), _light.get_position(), 0);
+			_gl.uniform4fv(shader.get_uniform(Shader.U_LIGHT_COLOR), _light.get_color(), 0);
+			_gl.uniform3fv(shader.get_uniform(Shader.U_EYE_POS), _light.get_eyePosition(), 0);
+			shader.set_lightVersion(_light.get_version());
+		}
+	}
 
-		// lighting variables
-		// send to shaders
-		GLES20.glUniform4fv(GLES20.glGetUniformLocation(_program, "lightPos"), 1, lightPos, 0);
-		GLES20.glUniform4fv(GLES20.glGetUniformLocation(_program, "lightColor"), 1, lightColor, 0);
+	/**
+	 * Sends the material - if the program doesn't have it already
+	 */
+	private void useMaterial(Shader shader, Material material) {
+		if (shader.get_materialVersion() == material.get_version())
+			return;
+		_gl.uniform4fv(shader.get_uniform(Shader.U_MAT_AMBIENT), material.get_ambient(), 0);
+		_gl.uniform4fv(shader.get_uniform(Shader.U_MAT_DIFFUSE), material.get_diffuse(), 0);
+		_gl.uniform4fv(shader.get_uniform(Shader.U_MAT_SPECULAR), material.get_specular(), 0);
+		_gl.uniform1f(shader.get_uniform(Shader.U_MAT_SHININESS), material.get_shininess());
+		shader.set_materialVersion(material.get_version());
+	}
 
-		// material 
-		GLES20.glUniform4fv(GLES20.glGetUniformLocation(_program, "matAmbient"), 1, matAmbient, 0);
-		GLES20.glUniform4fv(GLES20.glGetUniformLocation(_program, "matDiffuse"), 1, matDiffuse, 0);
-		GLES20.glUniform4fv(GLES20.glGetUniformLocation(_program, "matSpecular"), 1, matSpecular, 0);
-		GLES20.glUniform1f(GLES20.glGetUniformLocation(_program, "matShininess"), matShininess);
+	/**
+	 * Binds the object's textures to units 0, 1, ...
+	 */
+	private void bindTextures(Shader shader, Object3D ob) {
+		if (!ob.hasTexture())
+			return;
 
-		// eye position
-		GLES20.glUniform3fv(GLES20.glGetUniformLocation(_program, "eyePos"), 1, eyePos, 0);
+		int[] texIDs = ob.get_texID();
+		for (int i = 0; i < texIDs.length; i++) {
+			_gl.activeTexture(i);
+			_gl.bindTexture(texIDs[i]);
+			_gl.uniform1i(shader.get_uniform(Shader.U_TEXTURE1 + i), i);
+		}
+	}
 
-		/*** DRAWING OBJECT **/
-		// Get buffers from mesh
-		Object3D ob = this._objects[this._currentObject];
+	/**
+	 * Draws the chunks of the object's mesh at the level of detail its size calls for
+	 */
+	private void drawObject(Shader shader, Object3D ob) {
 		Mesh mesh = ob.getMesh();
-		FloatBuffer _vb = mesh.get_vb();
-		ShortBuffer _ib = mesh.get_ib();
-
-		short[] _indices = mesh.get_indices();
-
-		// Vertex buffer
-
-		// the vertex coordinates
-		_vb.position(TRIANGLE_VERTICES_DATA_POS_OFFSET);
-		GLES20.glVertexAttribPointer(GLES20.glGetAttribLocation(_program, "aPosition"), 3, GLES20.GL_FLOAT, false,
-				TRIANGLE_VERTICES_DATA_STRIDE_BYTES, _vb);
-		GLES20.glEnableVertexAttribArray(GLES20.glGetAttribLocation(_program, "aPosition"));
-
-		// the normal info
-		_vb.position(TRIANGLE_VERTICES_DATA_NOR_OFFSET);
-		GLES20.glVertexAttribPointer(GLES20.glGetAttribLocation(_program, "aNormal"), 3, GLES20.GL_FLOAT, false,
-				TRIANGLE_VERTICES_DATA_STRIDE_BYTES, _vb);
-		GLES20.glEnableVertexAttribArray(GLES20.glGetAttribLocation(_program, "aNormal"));
-
-		// Texture info
-
-		// bind textures
-		if (ob.hasTexture()) {// && enableTexture) {
-			// number of textures
-			int[] texIDs = ob.get_texID(); 
+		useMaterial(shader, ob.get_material());
+
+		// big meshes may come in several chunks
+		int lod = selectLod(mesh, _graph.get_outputHeight());
+		MeshChunk[] chunks = mesh.getChunks(intIndicesSupported, lod);
+		for (int c = 0; c < chunks.length; c++) {
+			MeshChunk chunk = chunks[c];
+
+			// Vertex buffer - the layout depends on the mesh's vertex format
+			VertexFormat format = chunk.get_format();
+			_gles.bindBuffer(GLES20.GL_ARRAY_BUFFER, _buffers.arrayBuffer(chunk.get_vb()));
+			for (int a = 0; a < VertexFormat.NUM_ATTRIBUTES; a++)
+				setVertexAttribute(shader.get_attribute(a), format, a);
+			setDequantization(shader, format);
 			
-			for(int i = 0; i < _texIDs.length; i++) {
-				GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + i);
-				Log.d("TEXTURE BIND: ", i + " " + texIDs[i]);
-				GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texIDs[i]);
-				GLES20.glUniform1i(GLES20.glGetUniformLocation(_program, "texture" + (i+1)), i);
-			}
+			// Draw with indices
+			_gles.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, _buffers.elementBuffer(chunk.get_ib()));
+			_gles.drawElements(GLES20.GL_TRIANGLES, chunk.get_numIndices(), chunk.get_indexType(), 0);
+			if (DEBUG)
+				checkGlError("glDrawElements");
 		}
+	}
 
-		// enable texturing? [fix - sending float is waste]
-		GLES20.glUniform1f(GLES20.glGetUniformLocation(_program, "hasTexture"), (ob.hasTexture() && enableTexture) ? 2.0f : 0.0f);//2.0f : 0.0f);
-		
-		// texture coordinates
-		_vb.position(TRIANGLE_VERTICES_DATA_TEX_OFFSET);
-		GLES20.glVertexAttribPointer(GLES20.glGetAttribLocation(_program, "textureCoord"), 2, GLES20.GL_FLOAT, false,
-				TRIANGLE_VERTICES_DATA_STRIDE_BYTES, _vb);
-		GLES20.glEnableVertexAttribArray(GLES20.glGetAttribLocation(_program, "textureCoord"));
-		
-		// Draw with indices
-		GLES20.glDrawElements(GLES20.GL_TRIANGLES, _indices.length, GLES20.GL_UNSIGNED_SHORT, _ib);
-		checkGlError("glDrawElements");
-
-		
-		
-		
-		/** END DRAWING OBJECT ***/
-		return true;
+	// only the normal map shader reads tangents - don't leave the array enabled for the others
+	private void disableTangents(Shader shader) {
+		int tangentHandle = shader.get_attribute(VertexFormat.TANGENT);
+		if (tangentHandle >= 0)
+			_gl.disableVertexAttribArray(tangentHandle);
 	}
 	/*
 	 * Called when viewport is changed
 	 * @see android.opengl.GLSurfaceView$Renderer#onSurfaceChanged(javax.microedition.khronos.opengles.GL10, int, int)
 	 */
 	public void onSurfaceChanged(GL10 glUnused, int width, int height) {
-		GLES20.glViewport(0, 0, width, height);
+		_gles.viewport(0, 0, width, height);
 		w = width;
 		h = height;
 		ratio = (float) width / height;
 		Matrix.frustumM(mProjMatrix, 0, -ratio, ratio, -1, 1, 0.5f, 10);
 		//Matrix.orthoM(mProjMatrix, 0, -ratio, ratio, -1, 1, 0.5f, 10);
+
+		// the passes: scene -> surface-sized target -> quad on the screen
+		_graph.clear();
+		_graph.setBackbufferSize(width, height);
+		_sceneColor = _graph.createTarget("scene", width, height, RenderTarget.RGB565);
+		_graph.addPass("scene", RenderGraph.NO_INPUTS, _sceneColor, _scenePass);
+		_graph.addPass("present", new int[] { _sceneColor }, RenderGraph.BACKBUFFER, _presentPass);
+		_graph.compile();
+		// targets of an old size are left over
+		_targets.trim();
 	}
 
 	/**
 	 * Initialization function
 	 */
 	public void onSurfaceCreated(GL10 glUnused, EGLConfig config) {
-		// initialize shaders
-		try {
-			_shaders[GOURAUD_SHADER] = new Shader(vShaders[GOURAUD_SHADER], fShaders[GOURAUD_SHADER], mContext, false, 0); // gouraud
-			_shaders[PHONG_SHADER] = new Shader(vShaders[PHONG_SHADER], fShaders[PHONG_SHADER], mContext, false, 0); // phong
-			_shaders[NORMALMAP_SHADER] = new Shader(vShaders[NORMALMAP_SHADER], fShaders[NORMALMAP_SHADER], mContext, false, 0); // normal map
-		} catch (Exception e) {
-			Log.d("Shader Setup", e.getLocalizedMessage());
-		}
-
-		GLES20.glEnable(GLES20.GL_DEPTH_TEST);
-		GLES20.glClearDepthf(1.0f);
-		GLES20.glDepthFunc( GLES20.GL_LEQUAL );  // Passes if the incoming depth value is less than or equal to the stored depth value.
-		GLES20.glDepthMask( true ); // enable writing into the depth buffer
-
-		// cull backface
-		GLES20.glEnable( GLES20.GL_CULL_FACE );
-		GLES20.glCullFace(GLES20.GL_BACK); 
+		// a new context - buffer objects of an old one are gone
+		_buffers.onContextCreated();
+		_gl.reset();
 
-		// light variables
-		float[] lightP = {30.0f, 0.0f, 10.0f, 1};
-		this.lightPos = lightP;
+		// shaders are compiled when first drawn with - from cached binaries where possible
+		_programs.onContextCreated();
+		_shaders.onContextCreated();
 
-		float[] lightC = {0.5f, 0.5f, 0.5f, 1};
-		this.lightColor = lightC;
+		// 32-bit indices? if not, big meshes get split into chunks
+		String extensions = _gles.getString(GLES20.GL_EXTENSIONS);
+		intIndicesSupported = extensions != null && extensions.contains("GL_OES_element_index_uint");
 
-		// material properties - TODO: ideally should be in Object3D itself 
-		float[] mA = {1.0f, 0.5f, 0.5f, 1.0f};
-		matAmbient = mA;
+		_gles.enable(GLES20.GL_DEPTH_TEST);
+		_gles.clearDepthf(1.0f);
+		_gles.depthFunc( GLES20.GL_LEQUAL );  // Passes if the incoming depth value is less than or equal to the stored depth value.
+		_gles.depthMask( true ); // enable writing into the depth buffer
 
-		float[] mD = {0.5f, 0.5f, 0.5f, 1.0f};
-		matDiffuse = mD;
+		// cull backface
+		_gles.enable( GLES20.GL_CULL_FACE );
+		_gles.cullFace(GLES20.GL_BACK); 
 
-		float[] mS =  {1.0f, 1.0f, 1.0f, 1.0f};
-		matSpecular = mS;
+		// light variables - material properties are in the objects
+		_light.set_color(0.5f, 0.5f, 0.5f, 1);
+		_light.set_eyePosition(-5.0f, 0.0f, 0.0f);
 
-		matShininess = 5.0f;
+		// wait for the meshes before anything is uploaded
+		_loader.awaitAll();
 
 		// setup textures for all objects
 		for(int i = 0; i < _objects.length; i++)
 			setupTextures(_objects[i]);
 
+		// room for every object in the scene - rebuilt in the frame loop without allocating
+		_scene = new Object3D[_objects.length];
+		_sceneBounds = new float[_objects.length * 6];
+		_visible = new int[_objects.length];
+		_bvh.reserve(_objects.length);
+		_sceneObject = -1;
+
 		// set the view matrix
 		Matrix.setLookAtM(mVMatrix, 0, 0, 0, -5.0f, 0.0f, 0f, 0f, 0f, 1.0f, 0.0f);
 		
-		// Setup Render to texture
-		setupRenderToTexture();
+		// render targets are made in onSurfaceChanged - it always follows
+		_graph.onContextCreated();
+		_targets.onContextCreated();
 		
 		// Setup quad 
 		// Generate your vertex, normal and index buffers
@@ -527,12 +640,18 @@ class Renderer implements GLSurfaceView.Renderer {
 
 		// index buffer
 		_qib = ByteBuffer.allocateDirect(_quadi.length
-				* 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+				* 2).order(ByteOrder.nativeOrder()).asShortBuffer();
 		_qib.put(_quadi);
 		_qib.position(0);
+
+		// upload the static geometry once - nothing is copied per frame
+		for (int i = 0; i < _objects.length; i++)
+			_buffers.upload(_objects[i].getMesh(), intIndicesSupported);
+		_buffers.arrayBuffer(_qvb);
+		_buffers.elementBuffer(_qib);
 		
-		// Set the game loop tick
-		 next_game_tick = SystemClock.elapsedRealtime();
+		// Set the game loop tick - time spent without a surface isn't simulated
+		_clock.reset();
 	}
 
 	/**************************
@@ -540,64 +659,133 @@ class Renderer implements GLSurfaceView.Renderer {
 	 *************************/
 
 	/**
-	 * Sets up the framebuffer and renderbuffer to render to texture
+	 * One fixed tick of the simulation
 	 */
-	private void setupRenderToTexture() {
-		fb = new int[1];
-		depthRb = new int[1];
-		renderTex = new int[1];
-		
-		// generate
-		GLES20.glGenFramebuffers(1, fb, 0);
-		GLES20.glGenRenderbuffers(1, depthRb, 0);
-		GLES20.glGenTextures(1, renderTex, 0);
-		
-		// generate texture
-		GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, renderTex[0]);
-
-		// parameters
-		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
-				GLES20.GL_CLAMP_TO_EDGE);
-		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
-				GLES20.GL_CLAMP_TO_EDGE);
-		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
-				GLES20.GL_LINEAR);
-		GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
-				GLES20.GL_LINEAR);
-
-		// create it 
-		// create an empty intbuffer first?
-		int[] buf = new int[texW * texH];
-		texBuffer = ByteBuffer.allocateDirect(buf.length
-				* FLOAT_SIZE_BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();;
-		GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGB, texW, texH, 0, GLES20.GL_RGB, GLES20.GL_UNSIGNED_SHORT_5_6_5, texBuffer);
-		
-		// create render buffer and bind 16-bit depth buffer
-		GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, depthRb[0]);
-		GLES20.glRenderbufferStorage(GLES20.GL_RENDERBUFFER, GLES20.GL_DEPTH_COMPONENT16, texW, texH);
-		
-		/*** PART BELOW SHOULD BE DONE IN onDrawFrame ***/
-		
-		// bind framebuffer
-		/*GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, fb[0]);
-		
-		// specify texture as color attachment
-		GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0, GLES20.GL_TEXTURE_2D, renderTex[0], 0);
-		
-		// attach render buffer as depth buffer
-		GLES20.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER, GLES20.GL_DEPTH_ATTACHMENT, GLES20.GL_RENDERBUFFER, depthRb[0]);
-		
-		// check status
-		int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);*/
-		
+	private void simulate() {
+		_previousLightOrbit = _lightOrbit;
+
+		// Rotate the light?
+		if (_frame.isLightRotating()) {
+			_lightSpin += 0.000005f;
+			if (_lightSpin >= 6.2)
+				_lightSpin = 0.0f;
+			_lightOrbit += _lightSpin;
+
+			// keep the angles small so they stay precise
+			if (_lightOrbit >= 2 * Math.PI) {
+				_lightOrbit -= 2 * Math.PI;
+				_previousLightOrbit -= 2 * Math.PI;
+			}
+		}
 	}
-	
+
+	/**
+	 * Sets the frame's light position between the last two ticks
+	 * @param alpha 0 = previous tick, 1 = last tick
+	 */
+	private void interpolate(float alpha) {
+		double orbit = _previousLightOrbit + (_lightOrbit - _previousLightOrbit) * alpha;
+
+		// rotate light about y-axis - always from the start, so no error builds up
+		float cos = (float)Math.cos(orbit);
+		float sin = (float)Math.sin(orbit);
+		_light.set_position(cos * LIGHT_START[0] - sin * LIGHT_START[2], LIGHT_START[1],
+				sin * LIGHT_START[0] + cos * LIGHT_START[2], LIGHT_START[3]);
+	}
+
+	/**
+	 * @return distance of the mesh's center in front of the eye.
+	 *         Call after mMVMatrix is set.
+	 */
+	private float eyeDistance(Mesh mesh) {
+		float[] center = mesh.get_center();
+		_lodCenter[0] = center[0];
+		_lodCenter[1] = center[1];
+		_lodCenter[2] = center[2];
+		Matrix.multiplyMV(_lodEyeCenter, 0, mMVMatrix, 0, _lodCenter, 0);
+
+		// the camera looks down -z
+		return -_lodEyeCenter[2];
+	}
+
+	/**
+	 * Picks a level of detail from the projected size of the mesh's
+	 * bounding sphere. The triangles a mesh needs grow with its area on
+	 * screen, so a level with ratio r of the triangles is used below
+	 * sqrt(r) * LOD_FULL_DETAIL_PIXELS - r from the level's actual index
+	 * count, as the simplifier may stop short of the nominal ratio.
+	 * Call after mMVMatrix and mProjMatrix are set.
+	 * @param viewportHeight in pixels
+	 * @return 0 for the full mesh
+	 */
+	private int selectLod(Mesh mesh, int viewportHeight) {
+		float distance = eyeDistance(mesh);
+		float radius = mesh.get_boundingRadius()
+				* Math.max(_frame.get_scaleX(), Math.max(_frame.get_scaleY(), _frame.get_scaleZ()));
+		if (distance <= radius)
+			return 0;
+
+		// projected diameter - mProjMatrix[5] is cot(fovy / 2)
+		float pixels = radius / distance * mProjMatrix[5] * viewportHeight;
+
+		int lod = 0;
+		float fullIndices = mesh.get_numIndices(0);
+		for (int l = 1; l < mesh.get_numLods(); l++) {
+			float ratio = mesh.get_numIndices(l) / fullIndices;
+			if (pixels >= LOD_FULL_DETAIL_PIXELS * (float)Math.sqrt(ratio))
+				break;
+			lod = l;
+		}
+		return lod;
+	}
+
+	/**
+	 * Points a vertex attribute at one attribute of the bound interleaved vertex buffer object.
+	 * Skipped if the shader doesn't use it; set to (1, 0, 0, 1) if the format doesn't have it.
+	 * @param handle the attribute's location in the current program
+	 */
+	private void setVertexAttribute(int handle, VertexFormat format, int attribute) {
+		if (handle < 0)
+			return;
+		if (!format.hasAttribute(attribute)) {
+			_gl.disableVertexAttribArray(handle);
+			_gles.vertexAttrib4f(handle, 1, 0, 0, 1);
+			return;
+		}
+
+		_gles.vertexAttribPointer(handle, format.get_size(attribute), format.get_type(attribute),
+				format.isNormalized(attribute), format.get_stride(), format.get_offset(attribute));
+		_gl.enableVertexAttribArray(handle);
+	}
+
+	/**
+	 * Sets the uniforms the vertex shaders use to undo quantization
+	 */
+	private void setDequantization(Shader shader, VertexFormat format) {
+		_gl.uniform3fv(shader.get_uniform(Shader.U_POS_SCALE), format.get_positionScale(), 0);
+		_gl.uniform3fv(shader.get_uniform(Shader.U_POS_OFFSET), format.get_positionOffset(), 0);
+		_gl.uniform4fv(shader.get_uniform(Shader.U_UV_SCALE_OFFSET), format.get_texCoordScaleOffset(), 0);
+		_gl.uniform1f(shader.get_uniform(Shader.U_OCT_NORMALS), format.isQuantized() ? 1.0f : 0.0f);
+	}
+
+	/**
+	 * Deletes the buffer objects and render targets. Call on the GL thread
+	 * while the context is still current - they are made again in
+	 * onSurfaceCreated/onSurfaceChanged.
+	 */
+	public void releaseResources() {
+		_buffers.releaseAll();
+		_graph.clear();
+		_targets.releaseAll();
+	}
+
 	/**
 	 * Changes the shader based on menu selection
 	 * @param represents the other shader 
 	 */
 	public void setShader(int shader) {
 		_currentShader = shader;
+		_packets.publish(snapshot());
 	}
 
 	/**
@@ -606,6 +794,7 @@ class Renderer implements GLSurfaceView.Renderer {
 	 */
 	public void setObject(int object) {
 		_currentObject = object;
+		_packets.publish(snapshot());
 	}
 
 	/**
@@ -613,6 +802,7 @@ class Renderer implements GLSurfaceView.Renderer {
 	 */
 	public void flipTexturing() {
 		enableTexture = !enableTexture;
+		_packets.publish(snapshot());
 		Object3D ob = _objects[this._currentObject];
 
 		if (enableTexture && !ob.hasTexture()) {
@@ -631,6 +821,7 @@ class Renderer implements GLSurfaceView.Renderer {
 	 */
 	public void toggleLight() {
 		this.lightRotate = !lightRotate;
+		_packets.publish(snapshot());
 		CharSequence text;
 		if (lightRotate)
 			text = "Light rotation resumed";
@@ -656,23 +847,23 @@ class Renderer implements GLSurfaceView.Renderer {
 			int[] texFiles = ob.getTexFile();
 
 			Log.d("TEXFILES LENGTH: ", texFiles.length + "");
-			GLES20.glGenTextures(texIDs.length, textures, 0);
+			_gles.genTextures(texIDs.length, textures, 0);
 
 			for(int i = 0; i < texIDs.length; i++) {
 				texIDs[i] = textures[i];
 
-				GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texIDs[i]);
+				_gl.bindTexture(texIDs[i]);
 
 				// parameters
-				GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+				_gles.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
 						GLES20.GL_NEAREST);
-				GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D,
+				_gles.texParameteri(GLES20.GL_TEXTURE_2D,
 						GLES20.GL_TEXTURE_MAG_FILTER,
 						GLES20.GL_LINEAR);
 
-				GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+				_gles.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
 						GLES20.GL_REPEAT);
-				GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+				_gles.texParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
 						GLES20.GL_REPEAT);
 
 				InputStream is = mContext.getResources()
@@ -689,7 +880,7 @@ class Renderer implements GLSurfaceView.Renderer {
 				}
 
 				// create it 
-				GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
+				_gles.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap);
 				bitmap.recycle();
 
 				Log.d("ATTACHING TEXTURES: ", "Attached " + i);
@@ -704,14 +895,34 @@ class Renderer implements GLSurfaceView.Renderer {
 		if (scaleX * scale > 1.4f)
 			return;
 		scaleX *= scale;scaleY *= scale;scaleZ *= scale;
+		_packets.publish(snapshot());
 
 		Log.d("SCALE: ", scaleX + "");
 	}
 
+	/**
+	 * Rotates the camera (touch drag)
+	 * @param dx degrees about y
+	 * @param dy degrees about x
+	 */
+	public void rotate(float dx, float dy) {
+		mAngleX += dx;
+		mAngleY += dy;
+		_packets.publish(snapshot());
+	}
+
+	/**
+	 * @return the UI state as a packet for the GL thread. UI thread only.
+	 */
+	private FramePacket snapshot() {
+		return new FramePacket(mAngleX, mAngleY, scaleX, scaleY, scaleZ,
+				_currentObject, _currentShader, enableTexture, lightRotate);
+	}
+
 	// debugging opengl
 	private void checkGlError(String op) {
 		int error;
-		while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
+		while ((error = _gles.getError()) != GLES20.GL_NO_ERROR) {
 			Log.e(TAG, op + ": glError " + error);
 			throw new RuntimeException(op + ": glError " + error);
 		}
@@ -0,0 +1,263 @@
+/**
+ * Bounding volume hierarchy over the boxes of the scene's objects, for
+ * frustum culling: a subtree outside the frustum is rejected with one test,
+ * one inside it is accepted without testing anything below.
+ *
+ * Built top-down: every node's items are split at the median of their
+ * centers along the longest axis of the node's box, down to MAX_LEAF_ITEMS
+ * per leaf. Nodes live in flat arrays that are kept between builds; culling
+ * uses a preallocated stack and allocates nothing.
+ */
+
+package graphics.shaders;
+
+public class SceneBvh {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	private static final int MAX_LEAF_ITEMS = 4;
+	private static final int BOUNDS_SIZE = 6;	// min x, y, z, max x, y, z
+
+	// items
+	private float[] _itemBounds = new float[0];
+	private int[] _order = new int[0];			// item indices - every leaf owns a range
+	private int _numItems;
+
+	// nodes
+	private float[] _nodeBounds = new float[0];
+	private int[] _nodeFirst = new int[0];		// leaf: first in _order, inner: left child (right is the next)
+	private int[] _nodeCount = new int[0];		// leaf: # of items, inner: 0
+	private int _numNodes;
+
+	private int[] _stack = new int[0];
+
+	// last cull
+	private int _numVisible;
+	private int _numTested;
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	public SceneBvh() {
+
+	}
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * Builds the hierarchy - the arrays are kept between builds and only grow,
+	 * so rebuilding for as many items as before allocates nothing
+	 * @param itemBounds BOUNDS_SIZE floats per item - kept, not copied
+	 * @param numItems # of items
+	 */
+	public void build(float[] itemBounds, int numItems) {
+		reserve(numItems);
+		_itemBounds = itemBounds;
+		_numItems = numItems;
+		for (int i = 0; i < numItems; i++)
+			_order[i] = i;
+		_numNodes = 0;
+
+		newNode(0, numItems);
+		if (numItems > 0)
+			split(0);
+	}
+
+	/**
+	 * Makes room for builds of up to maxItems items
+	 */
+	public void reserve(int maxItems) {
+		if (_order.length >= maxItems && _nodeFirst.length > 0)
+			return;
+
+		_order = new int[maxItems];
+		// a binary tree with n leaves has 2n - 1 nodes
+		int maxNodes = Math.max(1, 2 * maxItems);
+		_nodeBounds = new float[maxNodes * BOUNDS_SIZE];
+		_nodeFirst = new int[maxNodes];
+		_nodeCount = new int[maxNodes];
+		_stack = new int[maxNodes];
+	}
+
+	/**
+	 * Finds the items that may be in the frustum
+	 * @param visible receives the indices of the visible items - at least numItems long
+	 * @return # of visible items
+	 */
+	public int cull(Frustum frustum, int[] visible) {
+		int numVisible = 0;
+		_numTested = 0;
+		if (_numItems == 0) {
+			_numVisible = 0;
+			return 0;
+		}
+
+		int top = 0;
+		_stack[top++] = 0;
+		while (top > 0) {
+			int node = _stack[--top];
+			_numTested++;
+			int result = frustum.classify(_nodeBounds, node * BOUNDS_SIZE);
+			if (result == Frustum.OUTSIDE)
+				continue;
+
+			if (result == Frustum.INSIDE) {
+				// everything below is visible
+				numVisible = collect(node, visible, numVisible);
+			}
+			else if (_nodeCount[node] > 0) {
+				// leaf - test the items themselves
+				int first = _nodeFirst[node];
+				for (int i = first; i < first + _nodeCount[node]; i++) {
+					int item = _order[i];
+					_numTested++;
+					if (frustum.classify(_itemBounds, item * BOUNDS_SIZE) != Frustum.OUTSIDE)
+						visible[numVisible++] = item;
+				}
+			}
+			else {
+				_stack[top++] = _nodeFirst[node];
+				_stack[top++] = _nodeFirst[node] + 1;
+			}
+		}
+
+		_numVisible = numVisible;
+		return numVisible;
+	}
+
+	// adds every item under node
+	private int collect(int node, int[] visible, int numVisible) {
+		if (_nodeCount[node] > 0) {
+			int first = _nodeFirst[node];
+			for (int i = first; i < first + _nodeCount[node]; i++)
+				visible[numVisible++] = _order[i];
+			return numVisible;
+		}
+		numVisible = collect(_nodeFirst[node], visible, numVisible);
+		return collect(_nodeFirst[node] + 1, visible, numVisible);
+	}
+
+	/**
+	 * Makes a leaf of the items _order[first, first + count) and computes its box
+	 * @return the node's index
+	 */
+	private int newNode(int first, int count) {
+		int node = _numNodes++;
+		_nodeFirst[node] = first;
+		_nodeCount[node] = count;
+
+		int b = node * BOUNDS_SIZE;
+		for (int k = 0; k < 3; k++) {
+			_nodeBounds[b + k] = Float.MAX_VALUE;
+			_nodeBounds[b + 3 + k] = -Float.MAX_VALUE;
+		}
+		for (int i = first; i < first + count; i++) {
+			int item = _order[i] * BOUNDS_SIZE;
+			for (int k = 0; k < 3; k++) {
+				_nodeBounds[b + k] = Math.min(_nodeBounds[b + k], _itemBounds[item + k]);
+				_nodeBounds[b + 3 + k] = Math.max(_nodeBounds[b + 3 + k], _itemBounds[item + 3 + k]);
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * Splits a leaf in two if it has too many items, and its children after it
+	 */
+	private void split(int node) {
+		int first = _nodeFirst[node];
+		int count = _nodeCount[node];
+		if (count <= MAX_LEAF_ITEMS)
+			return;
+
+		// longest axis of the box
+		int b = node * BOUNDS_SIZE;
+		int axis = 0;
+		float longest = -1;
+		for (int k = 0; k < 3; k++) {
+			float extent = _nodeBounds[b + 3 + k] - _nodeBounds[b + k];
+			if (extent > longest) {
+				longest = extent;
+				axis = k;
+			}
+		}
+
+		// median of the centers - the two halves are [first, mid) and [mid, first + count)
+		int mid = first + count / 2;
+		select(first, first + count - 1, mid, axis);
+
+		// children are allocated next to each other
+		int left = newNode(first, mid - first);
+		newNode(mid, first + count - mid);
+		_nodeFirst[node] = left;
+		_nodeCount[node] = 0;
+
+		split(left);
+		split(left + 1);
+	}
+
+	/**
+	 * Quickselect: reorders _order[lo, hi] so that position k holds the item
+	 * it would in sorted order (by center along axis), smaller ones before it
+	 */
+	private void select(int lo, int hi, int k, int axis) {
+		while (lo < hi) {
+			float pivot = center(_order[(lo + hi) >>> 1], axis);
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (center(_order[i], axis) < pivot)
+					i++;
+				while (center(_order[j], axis) > pivot)
+					j--;
+				if (i <= j) {
+					int t = _order[i];
+					_order[i] = _order[j];
+					_order[j] = t;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j)
+				hi = j;
+			else if (k >= i)
+				lo = i;
+			else
+				return;
+		}
+	}
+
+	// twice the center - only compared
+	private float center(int item, int axis) {
+		return _itemBounds[item * BOUNDS_SIZE + axis] + _itemBounds[item * BOUNDS_SIZE + 3 + axis];
+	}
+
+	/***************************
+	 * GET/SET
+	 *************************/
+	public int get_numItems() {
+		return _numItems;
+	}
+
+	/**
+	 * @return # of items the last cull found visible
+	 */
+	public int get_numVisible() {
+		return _numVisible;
+	}
+
+	/**
+	 * @return # of items the last cull rejected
+	 */
+	public int get_numCulled() {
+		return _numItems - _numVisible;
+	}
+
+	/**
+	 * @return # of boxes the last cull tested
+	 */
+	public int get_numTested() {
+		return _numTested;
+	}
+}
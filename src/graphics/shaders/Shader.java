@@ -1,5 +1,10 @@
 /**
  * Represents a shader object
+ *
+ * After linking, the program's active uniforms and attributes are read back
+ * (GL_ACTIVE_UNIFORMS/GL_ACTIVE_ATTRIBUTES) into a name -> location table,
+ * and the ones the renderer uses are resolved into int slots. Nothing is
+ * looked up by name while drawing.
  */
 
 package graphics.shaders;
@@ -7,6 +12,8 @@ package graphics.shaders;
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.HashMap;
 
 import android.content.Context;
 import android.opengl.GLES20;
@@ -16,6 +23,36 @@ public class Shader {
 	/************************
 	 * PROPERTIES
 	 **********************/
+	// uniform slots
+	public static final int U_MVP_MATRIX = 0;
+	public static final int U_NORMAL_MATRIX = 1;
+	public static final int U_EYE_POS = 2;
+	public static final int U_LIGHT_POS = 3;
+	public static final int U_LIGHT_COLOR = 4;
+	public static final int U_MAT_AMBIENT = 5;
+	public static final int U_MAT_DIFFUSE = 6;
+	public static final int U_MAT_SPECULAR = 7;
+	public static final int U_MAT_SHININESS = 8;
+	public static final int U_TEXTURE1 = 9;	// texture1 .. texture2 are consecutive
+	public static final int U_TEXTURE2 = 10;
+	public static final int U_POS_SCALE = 11;
+	public static final int U_POS_OFFSET = 12;
+	public static final int U_UV_SCALE_OFFSET = 13;
+	public static final int U_OCT_NORMALS = 14;
+	public static final int NUM_UNIFORMS = 15;
+
+	// names in the shaders - indexed by slot
+	private static final String[] UNIFORM_NAMES = {
+		"uMVPMatrix", "normalMatrix", "eyePos", "lightPos", "lightColor",
+		"matAmbient", "matDiffuse", "matSpecular", "matShininess",
+		"texture1", "texture2", "posScale", "posOffset", "uvScaleOffset", "octNormals"
+	};
+
+	// attribute slots are the VertexFormat attributes - names indexed by them
+	private static final String[] ATTRIBUTE_NAMES = {
+		"aPosition", "aNormal", "textureCoord", "aTangent"
+	};
+
 
 	// program/vertex/fragment handles
 	private int _program, _vertexShader, _pixelShader;
@@ -23,10 +60,25 @@ public class Shader {
 	// The shaders
 	private String _vertexS, _fragmentS;
 
+	// linked binaries of earlier runs - may be null
+	private ProgramCache _cache;
+
 	// does it have textures?
 	private boolean hasTextures;
 	private int numTextures;
 
+	// reflected locations - every active uniform/attribute by name
+	private HashMap<String, Integer> _uniformLocations = new HashMap<String, Integer>();
+	private HashMap<String, Integer> _attributeLocations = new HashMap<String, Integer>();
+
+	// locations by slot, -1 if the program doesn't use it
+	private int[] _uniforms = new int[NUM_UNIFORMS];
+	private int[] _attributes = new int[VertexFormat.NUM_ATTRIBUTES];
+
+	// versions of the Material and LightBlock the program last got - 0 for none
+	private int _materialVersion;
+	private int _lightVersion;
+
 	/************************
 	 * CONSTRUCTOR(S)
 	 *************************/
@@ -39,8 +91,21 @@ public class Shader {
 		setup(vertexS, fragmentS, hasTextures, numTextures);
 	}
 
+	// Same, the program comes from the cache if it has it
+	public Shader(String vertexS, String fragmentS, boolean hasTextures, int numTextures, ProgramCache cache) {
+		this._cache = cache;
+		setup(vertexS, fragmentS, hasTextures, numTextures);
+	}
+
 	// Takes in ids for files to be read
 	public Shader(int vID, int fID, Context context, boolean hasTextures, int numTextures) {
+		this(vID, fID, context, hasTextures, numTextures, null);
+	}
+
+	// Same, the program comes from the cache if it has it
+	public Shader(int vID, int fID, Context context, boolean hasTextures, int numTextures, ProgramCache cache) {
+		this._cache = cache;
+
 		StringBuffer vs = new StringBuffer();
 		StringBuffer fs = new StringBuffer();
 
@@ -96,8 +161,12 @@ public class Shader {
 		this._vertexS = vs;
 		this._fragmentS = fs;
 
+		// nothing resolved until the program links
+		Arrays.fill(_uniforms, -1);
+		Arrays.fill(_attributes, -1);
+
 		// create the program
-		int create = createProgram();
+		createProgram();
 
 		// texture variables
 		this.hasTextures = hasTextures;
@@ -111,6 +180,17 @@ public class Shader {
 	 * @return returns 1 if creation successful, 0 if not
 	 */
 	private int createProgram() {
+		// linked on an earlier run?
+		if (_cache != null) {
+			_program = _cache.load(_vertexS, _fragmentS);
+			if (_program != 0) {
+				_vertexShader = 0;
+				_pixelShader = 0;
+				reflect();
+				return 1;
+			}
+		}
+
 		// Vertex shader
 		_vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, _vertexS);
 		if (_vertexShader == 0) {
@@ -140,6 +220,11 @@ public class Shader {
 				_program = 0;
 				return 0;
 			}
+			reflect();
+
+			// next time from the binary
+			if (_cache != null)
+				_cache.store(_vertexS, _fragmentS, _program);
 		}
 		else
 			Log.d("CreateProgram", "Could not create program");
@@ -147,6 +232,53 @@ public class Shader {
 		return 1;
 	}
 
+	/**
+	 * Reads the active uniforms and attributes of the linked program and
+	 * resolves the slots. Done once per link.
+	 */
+	private void reflect() {
+		int[] count = new int[1];
+		int[] maxLength = new int[1];
+		int[] length = new int[1];
+		int[] size = new int[1];
+		int[] type = new int[1];
+
+		// uniforms
+		_uniformLocations.clear();
+		GLES20.glGetProgramiv(_program, GLES20.GL_ACTIVE_UNIFORM_MAX_LENGTH, maxLength, 0);
+		byte[] name = new byte[Math.max(maxLength[0], 1)];
+		GLES20.glGetProgramiv(_program, GLES20.GL_ACTIVE_UNIFORMS, count, 0);
+		for (int i = 0; i < count[0]; i++) {
+			GLES20.glGetActiveUniform(_program, i, name.length, length, 0, size, 0, type, 0, name, 0);
+			String uniform = activeName(name, length[0]);
+			_uniformLocations.put(uniform, GLES20.glGetUniformLocation(_program, uniform));
+		}
+
+		// attributes
+		_attributeLocations.clear();
+		GLES20.glGetProgramiv(_program, GLES20.GL_ACTIVE_ATTRIBUTE_MAX_LENGTH, maxLength, 0);
+		name = new byte[Math.max(maxLength[0], 1)];
+		GLES20.glGetProgramiv(_program, GLES20.GL_ACTIVE_ATTRIBUTES, count, 0);
+		for (int i = 0; i < count[0]; i++) {
+			GLES20.glGetActiveAttrib(_program, i, name.length, length, 0, size, 0, type, 0, name, 0);
+			String attribute = activeName(name, length[0]);
+			_attributeLocations.put(attribute, GLES20.glGetAttribLocation(_program, attribute));
+		}
+
+		// slots
+		for (int i = 0; i < NUM_UNIFORMS; i++)
+			_uniforms[i] = get_uniformLocation(UNIFORM_NAMES[i]);
+		for (int i = 0; i < ATTRIBUTE_NAMES.length; i++)
+			_attributes[i] = get_attributeLocation(ATTRIBUTE_NAMES[i]);
+	}
+
+	// arrays are reported as "name[0]" - keep just the name
+	private static String activeName(byte[] name, int length) {
+		String s = new String(name, 0, length);
+		int bracket = s.indexOf('[');
+		return (bracket >= 0) ? s.substring(0, bracket) : s;
+	}
+
 	/**
 	 * Loads a shader (either vertex or pixel) given the source
 	 * @param shaderType VERTEX or PIXEL
@@ -185,10 +317,63 @@ public class Shader {
 	/***************************
 	 * GET/SET
 	 *************************/
+
+	/**
+	 * @param slot U_MVP_MATRIX ...
+	 * @return the uniform's location, -1 if the program doesn't use it
+	 */
+	public int get_uniform(int slot) {
+		return _uniforms[slot];
+	}
+
+	/**
+	 * @param attribute VertexFormat.POSITION ...
+	 * @return the attribute's location, -1 if the program doesn't use it
+	 */
+	public int get_attribute(int attribute) {
+		return _attributes[attribute];
+	}
+
+	/**
+	 * Table lookup for uniforms without a slot - call at setup, not per frame
+	 * @return the location, -1 if the program doesn't use it
+	 */
+	public int get_uniformLocation(String name) {
+		Integer location = _uniformLocations.get(name);
+		return (location != null) ? location.intValue() : -1;
+	}
+
+	public int get_attributeLocation(String name) {
+		Integer location = _attributeLocations.get(name);
+		return (location != null) ? location.intValue() : -1;
+	}
+
 	public int get_program() {
 		return _program;
 	}
 
+	/**
+	 * @return version of the material last uploaded to the program
+	 */
+	public int get_materialVersion() {
+		return _materialVersion;
+	}
+
+	public void set_materialVersion(int version) {
+		_materialVersion = version;
+	}
+
+	/**
+	 * @return version of the light block last uploaded to the program
+	 */
+	public int get_lightVersion() {
+		return _lightVersion;
+	}
+
+	public void set_lightVersion(int version) {
+		_lightVersion = version;
+	}
+
 	public void set_program(int _program) {
 		this._program = _program;
 	}
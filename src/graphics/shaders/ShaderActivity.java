@@ -62,6 +62,27 @@ public class ShaderActivity extends Activity {
 		setContentView(mGLSurfaceView);
 	}
 
+	@Override
+	protected void onPause() {
+		// free the GL resources while the context still exists, then let it go
+		if (renderer != null) {
+			mGLSurfaceView.queueEvent(new Runnable() {
+				public void run() {
+					renderer.releaseResources();
+				}
+			});
+			mGLSurfaceView.onPause();
+		}
+		super.onPause();
+	}
+
+	@Override
+	protected void onResume() {
+		super.onResume();
+		if (renderer != null)
+			mGLSurfaceView.onResume();
+	}
+
 	/**
 	 * Detects if OpenGL ES 2.0 exists
 	 * @return true if it does
@@ -168,8 +189,7 @@ public class ShaderActivity extends Activity {
 			else if (mode == DRAG){
 				float dx = x - mPreviousX;
 				float dy = y - mPreviousY;
-				renderer.mAngleX += dx * TOUCH_SCALE_FACTOR;
-				renderer.mAngleY += dy * TOUCH_SCALE_FACTOR;
+				renderer.rotate(dx * TOUCH_SCALE_FACTOR, dy * TOUCH_SCALE_FACTOR);
 				mGLSurfaceView.requestRender();
 			}
 			break;
@@ -0,0 +1,139 @@
+/**
+ * Expands the shader sources before they are compiled:
+ *  - #include "file.txt" pastes a shared file (res/raw/file.txt) in place of
+ *    the line. Each file is pasted once per shader, at its first #include -
+ *    includes of includes work, cycles end there.
+ *  - the variant's features are #defined at the top, so the GLSL
+ *    preprocessor compiles only the code the variant needs (#ifdef ...)
+ *
+ * The files are read once and kept. Where they come from is behind
+ * IncludeLoader, so sources can also be expanded without a Context.
+ */
+
+package graphics.shaders;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import android.content.Context;
+
+public class ShaderPreprocessor {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+
+	/**
+	 * Reads the file an #include names
+	 */
+	public interface IncludeLoader {
+		String load(String name) throws IOException;
+	}
+
+	private static final String INCLUDE = "#include";
+
+	private final IncludeLoader _loader;
+
+	// files read so far - by name
+	private HashMap<String, String> _files = new HashMap<String, String>();
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+
+	// includes are raw resources - "lighting.txt" is R.raw.lighting
+	public ShaderPreprocessor(final Context context) {
+		this(new IncludeLoader() {
+			public String load(String name) throws IOException {
+				int dot = name.lastIndexOf('.');
+				String entry = (dot >= 0) ? name.substring(0, dot) : name;
+				int id = context.getResources().getIdentifier(entry, "raw", context.getPackageName());
+				if (id == 0)
+					throw new IOException("No raw resource " + entry);
+				return readRaw(context, id);
+			}
+		});
+	}
+
+	public ShaderPreprocessor(IncludeLoader loader) {
+		this._loader = loader;
+	}
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * @param source a vertex or fragment shader
+	 * @param defines the features to #define - may be empty
+	 * @return the source the GL compiles
+	 */
+	public String process(String source, String[] defines) throws IOException {
+		StringBuilder out = new StringBuilder(source.length() * 2);
+		for (int i = 0; i < defines.length; i++)
+			out.append("#define ").append(defines[i]).append(" 1\n");
+		expand(source, out, new HashSet<String>());
+		return out.toString();
+	}
+
+	// copies the source to out, pasting the includes not pasted yet
+	private void expand(String source, StringBuilder out, HashSet<String> included) throws IOException {
+		int start = 0;
+		int length = source.length();
+		while (start < length) {
+			int end = source.indexOf('\n', start);
+			if (end < 0)
+				end = length;
+			String line = source.substring(start, end);
+			if (line.endsWith("\r"))
+				line = line.substring(0, line.length() - 1);
+			start = end + 1;
+
+			String trimmed = line.trim();
+			if (!trimmed.startsWith(INCLUDE)) {
+				out.append(line).append('\n');
+				continue;
+			}
+
+			int open = trimmed.indexOf('"');
+			int close = trimmed.lastIndexOf('"');
+			if (open < 0 || close <= open)
+				throw new IOException("Bad include: " + trimmed);
+			String name = trimmed.substring(open + 1, close);
+			if (included.add(name))
+				expand(file(name), out, included);
+		}
+	}
+
+	// the contents of an include
+	private String file(String name) throws IOException {
+		String file = _files.get(name);
+		if (file == null) {
+			file = _loader.load(name);
+			_files.put(name, file);
+		}
+		return file;
+	}
+
+	/**
+	 * Reads a raw text resource
+	 */
+	public static String readRaw(Context context, int id) throws IOException {
+		InputStream inputStream = context.getResources().openRawResource(id);
+		BufferedReader in = new BufferedReader(new InputStreamReader(inputStream));
+		try {
+			StringBuilder text = new StringBuilder();
+			String read = in.readLine();
+			while (read != null) {
+				text.append(read).append('\n');
+				read = in.readLine();
+			}
+			return text.toString();
+		} finally {
+			in.close();
+		}
+	}
+}
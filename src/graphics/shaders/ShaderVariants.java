@@ -0,0 +1,279 @@
+/**
+ * The variants (permutations) of one vertex/fragment shader pair. A
+ * variant is a set of features, #defined before the sources are compiled,
+ * so what used to be branches on uniforms is decided at compile time.
+ *
+ * Variants are compiled when they are first asked for and kept until the
+ * context goes. Compiling is spread over frames with a time budget:
+ *  - a variant asked for while the frame's budget lasts is compiled at once
+ *  - past the budget it is queued, and the per-vertex variant with the same
+ *    texturing (cheap, and usually there already) is drawn until then
+ *  - compilePending() at the end of a frame compiles the queued variants,
+ *    then the warm-up ones, while the budget lasts
+ * A compile can't be split, so one the frame needs may run past the
+ * budget - but only if it is the frame's first. Warm-up compiles only start
+ * if the average compile still fits.
+ *
+ * A variant's sources go through GlslOptimizer before they are compiled -
+ * what it doesn't need is stripped, the rest minified. If the optimizer
+ * can't follow a source, or its output doesn't link, the variant is
+ * compiled as it was preprocessed.
+ */
+
+package graphics.shaders;
+
+import java.io.IOException;
+
+import android.content.Context;
+import android.util.Log;
+
+public class ShaderVariants {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	// features - bits of a variant
+	public static final int TEXTURED = 1;		// color from texture1
+	public static final int PER_PIXEL = 2;		// lit per pixel, not per vertex
+	public static final int NORMALMAP = 4;		// normals from texture2 (with PER_PIXEL)
+	public static final int NUM_FEATURES = 3;
+
+	// the #defines - indexed by bit
+	private static final String[] FEATURE_NAMES = {
+		"TEXTURED", "PER_PIXEL", "NORMALMAP"
+	};
+
+	private static String TAG = "ShaderVariants";
+
+	private ShaderPreprocessor _preprocessor;
+	private GlslOptimizer _optimizer = new GlslOptimizer();
+	private ProgramCache _cache;
+
+	// the sources before preprocessing
+	private String _vertexS, _fragmentS;
+
+	// compiled variants - indexed by features, null until asked for
+	private Shader[] _variants = new Shader[1 << NUM_FEATURES];
+	private int _numCompiled;
+
+	// asked for but not compiled yet - in order
+	private int[] _pending = new int[1 << NUM_FEATURES];
+	private int _numPending;
+
+	// compiled when nothing is pending, in order
+	private int[] _warmUp = new int[0];
+
+	// compile time per frame
+	private long _budgetNanos = Long.MAX_VALUE;
+	private long _spentNanos;		// this frame
+	private long _compileNanos;		// average of a compile
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	public ShaderVariants(int vID, int fID, Context context, ProgramCache cache) {
+		this(vID, fID, context, new ShaderPreprocessor(context), cache);
+	}
+
+	public ShaderVariants(int vID, int fID, Context context, ShaderPreprocessor preprocessor, ProgramCache cache) {
+		this._preprocessor = preprocessor;
+		this._cache = cache;
+		try {
+			_vertexS = ShaderPreprocessor.readRaw(context, vID);
+			_fragmentS = ShaderPreprocessor.readRaw(context, fID);
+		} catch (IOException e) {
+			Log.d("ERROR-readingShader", "Could not read shader: " + e.getLocalizedMessage());
+			_vertexS = "";
+			_fragmentS = "";
+		}
+	}
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * Starts a frame's budget
+	 */
+	public void beginFrame() {
+		_spentNanos = 0;
+	}
+
+	/**
+	 * @param features TEXTURED | PER_PIXEL | NORMALMAP
+	 * @return the variant, or its fallback while it waits to be compiled
+	 */
+	public Shader get(int features) {
+		Shader shader = _variants[features];
+		if (shader != null)
+			return shader;
+		if (withinBudget())
+			return compileNow(features);
+
+		// later - the fallback is compiled whatever the budget
+		request(features);
+		int fallback = features & TEXTURED;
+		shader = _variants[fallback];
+		return (shader != null) ? shader : compileNow(fallback);
+	}
+
+	/**
+	 * Queues variants to compile before the warm-up ones
+	 */
+	public void request(int features) {
+		if (_variants[features] != null)
+			return;
+		for (int i = 0; i < _numPending; i++)
+			if (_pending[i] == features)
+				return;
+		_pending[_numPending++] = features;
+	}
+
+	/**
+	 * Compiles queued, then warm-up variants while the frame's budget lasts
+	 * - call at the end of a frame
+	 */
+	public void compilePending() {
+		// asked for - drawn with a fallback until then
+		while (_numPending > 0 && withinBudget()) {
+			int features = _pending[0];
+			_numPending--;
+			System.arraycopy(_pending, 1, _pending, 0, _numPending);
+			if (_variants[features] == null)
+				compileNow(features);
+		}
+
+		// not asked for yet
+		for (int i = 0; i < _warmUp.length && _numPending == 0; i++) {
+			if (_variants[_warmUp[i]] != null)
+				continue;
+			if (_spentNanos + _compileNanos > _budgetNanos)
+				return;
+			compileNow(_warmUp[i]);
+		}
+	}
+
+	// is there time for a compile? the first of a frame always may
+	private boolean withinBudget() {
+		return _spentNanos == 0 || _spentNanos + _compileNanos <= _budgetNanos;
+	}
+
+	private Shader compileNow(int features) {
+		long start = System.nanoTime();
+		Shader shader = compile(features);
+		long elapsed = Math.max(System.nanoTime() - start, 1);
+		_variants[features] = shader;
+
+		_spentNanos += elapsed;
+		_compileNanos = (_numCompiled == 1) ? elapsed : (_compileNanos + elapsed) / 2;
+		Log.d(TAG, "Variant " + name(features) + ": program " + shader.get_program()
+				+ " in " + (elapsed / 1000000) + " ms");
+		return shader;
+	}
+
+	private Shader compile(int features) {
+		String[] defines = defines(features);
+		String vs, fs;
+		try {
+			vs = _preprocessor.process(_vertexS, defines);
+			fs = _preprocessor.process(_fragmentS, defines);
+		} catch (IOException e) {
+			Log.e(TAG, "Could not preprocess " + name(features) + ": " + e.getLocalizedMessage());
+			vs = "";
+			fs = "";
+		}
+
+		int numTextures = ((features & TEXTURED) != 0 ? 1 : 0) + ((features & NORMALMAP) != 0 ? 1 : 0);
+		Shader shader = null;
+		try {
+			GlslOptimizer.Result optimized = _optimizer.optimize(vs, fs);
+			if (Renderer.DEBUG)
+				Log.d(TAG, "Optimized " + name(features) + ":\n" + optimized.get_report());
+			shader = new Shader(optimized.get_vertex(), optimized.get_fragment(), numTextures > 0, numTextures, _cache);
+			if (shader.get_program() == 0) {
+				Log.e(TAG, "Optimized " + name(features) + " failed, compiling it as it is");
+				shader = null;
+			}
+		} catch (IllegalArgumentException e) {
+			Log.e(TAG, "Could not optimize " + name(features) + ": " + e.getLocalizedMessage());
+		}
+		if (shader == null)
+			shader = new Shader(vs, fs, numTextures > 0, numTextures, _cache);
+		_numCompiled++;
+		return shader;
+	}
+
+	/**
+	 * A new EGL context - the programs of the old one are gone
+	 */
+	public void onContextCreated() {
+		for (int i = 0; i < _variants.length; i++)
+			_variants[i] = null;
+		_numCompiled = 0;
+		_numPending = 0;
+		_spentNanos = 0;
+	}
+
+	private static String[] defines(int features) {
+		String[] defines = new String[Integer.bitCount(features)];
+		int n = 0;
+		for (int i = 0; i < NUM_FEATURES; i++)
+			if ((features & (1 << i)) != 0)
+				defines[n++] = FEATURE_NAMES[i];
+		return defines;
+	}
+
+	/**
+	 * @return the features' names, e.g. "TEXTURED|PER_PIXEL"
+	 */
+	public static String name(int features) {
+		if (features == 0)
+			return "(none)";
+		StringBuilder name = new StringBuilder();
+		String[] defines = defines(features);
+		for (int i = 0; i < defines.length; i++) {
+			if (i > 0)
+				name.append('|');
+			name.append(defines[i]);
+		}
+		return name.toString();
+	}
+
+	/***************************
+	 * GET/SET
+	 *************************/
+
+	/**
+	 * @param features variants to compile in spare frame time, most likely needed first
+	 */
+	public void set_warmUp(int[] features) {
+		_warmUp = features;
+	}
+
+	/**
+	 * @param nanos compile time per frame
+	 */
+	public void set_budgetNanos(long nanos) {
+		_budgetNanos = nanos;
+	}
+
+	/**
+	 * @return true if the variant is compiled - get() returns it, not a fallback
+	 */
+	public boolean isReady(int features) {
+		return _variants[features] != null;
+	}
+
+	/**
+	 * @return # of variants queued
+	 */
+	public int get_numPending() {
+		return _numPending;
+	}
+
+	/**
+	 * @return # of variants compiled in this context
+	 */
+	public int get_numCompiled() {
+		return _numCompiled;
+	}
+}
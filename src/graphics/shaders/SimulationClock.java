@@ -0,0 +1,121 @@
+/**
+ * Fixed timestep clock for the simulation ("game" updates).
+ *
+ * Real time is accumulated in nanoseconds as longs - no precision is lost
+ * however long the app runs - and handed out as whole ticks of a fixed
+ * length, so the simulation does the same steps on every device and frame
+ * rate. What is left over is the fraction of a tick the renderer
+ * interpolates by.
+ *
+ * After a stall (pause, slow frame) at most maxTicksPerFrame ticks are run
+ * and the rest of the time is dropped - the simulation slows down instead
+ * of spiralling.
+ *
+ * The time source is injectable so tests can drive the clock by hand.
+ */
+
+package graphics.shaders;
+
+public class SimulationClock {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+
+	/**
+	 * Source of monotonic time
+	 */
+	public interface TimeSource {
+		long nanoTime();
+	}
+
+	// System.nanoTime() - monotonic, unaffected by wall clock changes
+	public static final TimeSource SYSTEM = new TimeSource() {
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+	};
+
+	private final TimeSource _time;
+	private final long _tickNanos;
+	private final int _maxTicksPerFrame;
+
+	private long _lastNanos;
+	private long _accumulatedNanos;		// not yet simulated - less than a tick after advance()
+	private long _ticks;				// ticks run so far
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	public SimulationClock(int ticksPerSecond, int maxTicksPerFrame) {
+		this(ticksPerSecond, maxTicksPerFrame, SYSTEM);
+	}
+
+	public SimulationClock(int ticksPerSecond, int maxTicksPerFrame, TimeSource time) {
+		if (ticksPerSecond <= 0 || maxTicksPerFrame <= 0)
+			throw new IllegalArgumentException("Ticks must be positive");
+		this._time = time;
+		this._tickNanos = 1000000000L / ticksPerSecond;
+		this._maxTicksPerFrame = maxTicksPerFrame;
+		reset();
+	}
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * Starts counting from now - time before it is never simulated
+	 */
+	public void reset() {
+		_lastNanos = _time.nanoTime();
+		_accumulatedNanos = 0;
+	}
+
+	/**
+	 * Adds the time since the last call
+	 * @return # of ticks to simulate now, at most maxTicksPerFrame
+	 */
+	public int advance() {
+		long now = _time.nanoTime();
+		long elapsed = now - _lastNanos;
+		_lastNanos = now;
+		if (elapsed > 0)
+			_accumulatedNanos += elapsed;
+
+		long ticks = _accumulatedNanos / _tickNanos;
+		if (ticks > _maxTicksPerFrame) {
+			// too far behind - drop the time we can't catch up on
+			ticks = _maxTicksPerFrame;
+			_accumulatedNanos = 0;
+		}
+		else {
+			_accumulatedNanos -= ticks * _tickNanos;
+		}
+
+		_ticks += ticks;
+		return (int)ticks;
+	}
+
+	/***************************
+	 * GET/SET
+	 *************************/
+
+	/**
+	 * @return how far real time is between the last tick and the next one, 0 - 1.
+	 *         Draw previous + (current - previous) * alpha.
+	 */
+	public float get_alpha() {
+		return (float)((double)_accumulatedNanos / _tickNanos);
+	}
+
+	/**
+	 * @return # of ticks simulated since the clock was created
+	 */
+	public long get_ticks() {
+		return _ticks;
+	}
+
+	public long get_tickNanos() {
+		return _tickNanos;
+	}
+}
@@ -0,0 +1,190 @@
+/**
+ * Generates per-vertex tangents for normal mapping (Lengyel's method).
+ *
+ * Every triangle's texture space directions (s = +u, t = +v) are summed at
+ * its vertices. The tangent is s made orthogonal to the vertex normal, and
+ * its w is the handedness: binormal = cross(normal, tangent.xyz) * w.
+ * Handedness matters for mirrored and rotated UV islands.
+ * Vertices without usable texcoords get any tangent orthogonal to the normal.
+ *
+ * Same scheme as NormalGenerator: scalar math, big meshes split into
+ * triangle ranges on MeshWorkers (MeshWorkers.run).
+ */
+
+package graphics.shaders;
+
+public class TangentGenerator {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	// floats per tangent - x, y, z, handedness
+	public static final int TANGENT_SIZE = 4;
+
+	// per vertex accumulator: sx, sy, sz, tx, ty, tz
+	private static final int ACC_SIZE = 6;
+
+	// texcoord areas below this are treated as degenerate
+	private static final float MIN_UV_AREA = 1e-12f;
+
+	// per thread accumulators - kept between meshes
+	private MeshWorkers.Accumulators _accumulators = new MeshWorkers.Accumulators(ACC_SIZE);
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	public TangentGenerator() {
+
+	}
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * @param vertices interleaved vertices - MeshParser layout (position 0, normal 3, texcoord 6)
+	 * @param stride # of floats per vertex
+	 * @param numVertices # of vertices
+	 * @param indices triangle list
+	 * @param numIndices # of valid indices
+	 * @return TANGENT_SIZE floats per vertex
+	 */
+	public float[] generate(final float[] vertices, final int stride, int numVertices, final int[] indices,
+			int numIndices) {
+		final float[] tangents = new float[numVertices * TANGENT_SIZE];
+		MeshWorkers.run(new MeshWorkers.RangePass() {
+			public void accumulate(int first, int last, float[] acc) {
+				TangentGenerator.this.accumulate(vertices, stride, indices, first, last, acc);
+			}
+
+			public void resolve(int first, int last, float[][] accumulators, int numAccumulators) {
+				TangentGenerator.this.resolve(vertices, stride, tangents, first, last, accumulators, numAccumulators);
+			}
+		}, _accumulators, numIndices / 3, numVertices, "Tangent generation");
+		return tangents;
+	}
+
+	/**
+	 * Adds the texture space directions of triangles [first, last) to acc
+	 */
+	private void accumulate(float[] vertices, int stride, int[] indices, int first, int last, float[] acc) {
+		for (int t = first; t < last; t++) {
+			int i0 = indices[t * 3];
+			int i1 = indices[t * 3 + 1];
+			int i2 = indices[t * 3 + 2];
+			int a = i0 * stride;
+			int b = i1 * stride;
+			int c = i2 * stride;
+
+			// edges
+			float x1 = vertices[b] - vertices[a];
+			float y1 = vertices[b + 1] - vertices[a + 1];
+			float z1 = vertices[b + 2] - vertices[a + 2];
+			float x2 = vertices[c] - vertices[a];
+			float y2 = vertices[c + 1] - vertices[a + 1];
+			float z2 = vertices[c + 2] - vertices[a + 2];
+
+			// texcoord edges
+			float s1 = vertices[b + 6] - vertices[a + 6];
+			float t1 = vertices[b + 7] - vertices[a + 7];
+			float s2 = vertices[c + 6] - vertices[a + 6];
+			float t2 = vertices[c + 7] - vertices[a + 7];
+
+			float area = s1 * t2 - s2 * t1;
+			if (Math.abs(area) < MIN_UV_AREA)
+				continue;
+			float r = 1.0f / area;
+
+			float sx = (t2 * x1 - t1 * x2) * r;
+			float sy = (t2 * y1 - t1 * y2) * r;
+			float sz = (t2 * z1 - t1 * z2) * r;
+			float tx = (s1 * x2 - s2 * x1) * r;
+			float ty = (s1 * y2 - s2 * y1) * r;
+			float tz = (s1 * z2 - s2 * z1) * r;
+
+			add(acc, i0, sx, sy, sz, tx, ty, tz);
+			add(acc, i1, sx, sy, sz, tx, ty, tz);
+			add(acc, i2, sx, sy, sz, tx, ty, tz);
+		}
+	}
+
+	/**
+	 * Sums the accumulators of vertices [first, last), orthogonalizes and
+	 * writes the tangents
+	 */
+	private void resolve(float[] vertices, int stride, float[] tangents, int first, int last,
+			float[][] accumulators, int numAccumulators) {
+		for (int v = first; v < last; v++) {
+			float sx = 0, sy = 0, sz = 0, tx = 0, ty = 0, tz = 0;
+			for (int i = 0; i < numAccumulators; i++) {
+				float[] acc = accumulators[i];
+				int o = v * ACC_SIZE;
+				sx += acc[o];
+				sy += acc[o + 1];
+				sz += acc[o + 2];
+				tx += acc[o + 3];
+				ty += acc[o + 4];
+				tz += acc[o + 5];
+			}
+
+			// unit normal
+			int p = v * stride;
+			float nx = vertices[p + 3];
+			float ny = vertices[p + 4];
+			float nz = vertices[p + 5];
+			float len = (float)Math.sqrt(nx * nx + ny * ny + nz * nz);
+			if (len > 0) {
+				nx /= len;
+				ny /= len;
+				nz /= len;
+			}
+			else {
+				nz = 1;
+			}
+
+			// Gram-Schmidt: s - n * dot(n, s)
+			float d = nx * sx + ny * sy + nz * sz;
+			float gx = sx - nx * d;
+			float gy = sy - ny * d;
+			float gz = sz - nz * d;
+			len = (float)Math.sqrt(gx * gx + gy * gy + gz * gz);
+
+			if (len < 1e-6f) {
+				// no usable texcoords - the axis least aligned with n, made orthogonal
+				float ax = Math.abs(nx), ay = Math.abs(ny), az = Math.abs(nz);
+				float ux = 0, uy = 0, uz = 0;
+				if (ax <= ay && ax <= az)
+					ux = 1;
+				else if (ay <= az)
+					uy = 1;
+				else
+					uz = 1;
+				d = nx * ux + ny * uy + nz * uz;
+				gx = ux - nx * d;
+				gy = uy - ny * d;
+				gz = uz - nz * d;
+				len = (float)Math.sqrt(gx * gx + gy * gy + gz * gz);
+			}
+
+			int o = v * TANGENT_SIZE;
+			tangents[o]     = gx / len;
+			tangents[o + 1] = gy / len;
+			tangents[o + 2] = gz / len;
+
+			// handedness: does cross(n, tangent) point along t?
+			float bx = ny * gz - nz * gy;
+			float by = nz * gx - nx * gz;
+			float bz = nx * gy - ny * gx;
+			tangents[o + 3] = (bx * tx + by * ty + bz * tz < 0) ? -1.0f : 1.0f;
+		}
+	}
+
+	private static void add(float[] acc, int v, float sx, float sy, float sz, float tx, float ty, float tz) {
+		int o = v * ACC_SIZE;
+		acc[o]     += sx;
+		acc[o + 1] += sy;
+		acc[o + 2] += sz;
+		acc[o + 3] += tx;
+		acc[o + 4] += ty;
+		acc[o + 5] += tz;
+	}
+}
@@ -0,0 +1,228 @@
+/**
+ * Reorders a triangle list for the GPU's post-transform vertex cache
+ * (Tom Forsyth's "Linear-Speed Vertex Cache Optimisation"), then reorders
+ * the vertices themselves in first-use order so vertex fetch walks the
+ * vertex buffer mostly sequentially.
+ *
+ * Plain Java - used by Mesh at load time and by MeshConverter offline.
+ * See VertexCacheSimulator to measure the result.
+ */
+
+package graphics.shaders;
+
+import java.util.Arrays;
+
+public class VertexCacheOptimizer {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	// size of the cache modelled for scoring
+	private static final int CACHE_SIZE = 32;
+
+	// scoring constants from the paper
+	private static final float CACHE_DECAY_POWER = 1.5f;
+	private static final float LAST_TRI_SCORE = 0.75f;
+	private static final float VALENCE_BOOST_SCALE = 2.0f;
+	private static final float VALENCE_BOOST_POWER = 0.5f;
+
+	// precomputed scores
+	private static final int MAX_VALENCE_TABLE = 64;
+	private static final float[] CACHE_POSITION_SCORE = new float[CACHE_SIZE];
+	private static final float[] VALENCE_SCORE = new float[MAX_VALENCE_TABLE];
+
+	static {
+		for (int i = 0; i < CACHE_SIZE; i++) {
+			if (i < 3) {
+				// the last triangle's vertices get a fixed score so there's
+				// no preference between its three edges
+				CACHE_POSITION_SCORE[i] = LAST_TRI_SCORE;
+			}
+			else {
+				float scaler = 1.0f / (CACHE_SIZE - 3);
+				CACHE_POSITION_SCORE[i] = (float)Math.pow(1.0f - (i - 3) * scaler, CACHE_DECAY_POWER);
+			}
+		}
+		for (int i = 1; i < MAX_VALENCE_TABLE; i++)
+			VALENCE_SCORE[i] = VALENCE_BOOST_SCALE * (float)Math.pow(i, -VALENCE_BOOST_POWER);
+	}
+
+	private VertexCacheOptimizer() {
+
+	}
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * Reorders the triangles in place
+	 * @param indices triangle list
+	 * @param numIndices # of valid indices
+	 * @param numVertices # of vertices the indices refer to
+	 */
+	public static void optimize(int[] indices, int numIndices, int numVertices) {
+		int numTriangles = numIndices / 3;
+		if (numTriangles < 2)
+			return;
+
+		// vertex -> remaining triangles
+		int[] remaining = new int[numVertices];
+		for (int i = 0; i < numTriangles * 3; i++)
+			remaining[indices[i]]++;
+
+		int[] offsets = new int[numVertices + 1];
+		for (int v = 0; v < numVertices; v++)
+			offsets[v + 1] = offsets[v] + remaining[v];
+
+		int[] adjacency = new int[numTriangles * 3];
+		int[] fill = new int[numVertices];
+		for (int t = 0; t < numTriangles; t++) {
+			for (int k = 0; k < 3; k++) {
+				int v = indices[t * 3 + k];
+				adjacency[offsets[v] + fill[v]++] = t;
+			}
+		}
+
+		// initial scores
+		int[] cachePosition = new int[numVertices];
+		Arrays.fill(cachePosition, -1);
+		float[] vertexScore = new float[numVertices];
+		for (int v = 0; v < numVertices; v++)
+			vertexScore[v] = score(-1, remaining[v]);
+
+		float[] triangleScore = new float[numTriangles];
+		boolean[] emitted = new boolean[numTriangles];
+		for (int t = 0; t < numTriangles; t++)
+			triangleScore[t] = vertexScore[indices[t * 3]] + vertexScore[indices[t * 3 + 1]] + vertexScore[indices[t * 3 + 2]];
+
+		// LRU cache: the last 3 entries are only room for the incoming triangle
+		int[] cache = new int[CACHE_SIZE + 3];
+		int[] newCache = new int[CACHE_SIZE + 3];
+		int cacheCount = 0;
+
+		int[] output = new int[numTriangles * 3];
+		int bestTriangle = -1;
+		int scanCursor = 0;
+
+		for (int out = 0; out < numTriangles; out++) {
+			// nothing useful in the cache - take the next unused triangle
+			if (bestTriangle < 0) {
+				while (emitted[scanCursor])
+					scanCursor++;
+				bestTriangle = scanCursor;
+			}
+
+			// emit it
+			int t = bestTriangle;
+			emitted[t] = true;
+			for (int k = 0; k < 3; k++) {
+				int v = indices[t * 3 + k];
+				output[out * 3 + k] = v;
+
+				// remove the triangle from the vertex's list
+				int start = offsets[v];
+				int end = start + remaining[v] - 1;
+				for (int j = start; j <= end; j++) {
+					if (adjacency[j] == t) {
+						adjacency[j] = adjacency[end];
+						break;
+					}
+				}
+				remaining[v]--;
+			}
+
+			// new cache = the triangle's vertices + the old cache without them
+			int newCount = 0;
+			for (int k = 0; k < 3; k++)
+				newCache[newCount++] = indices[t * 3 + k];
+			for (int i = 0; i < cacheCount; i++) {
+				int v = cache[i];
+				if (v != indices[t * 3] && v != indices[t * 3 + 1] && v != indices[t * 3 + 2])
+					newCache[newCount++] = v;
+			}
+
+			// rescore every vertex that's in (or just fell out of) the cache
+			for (int i = 0; i < newCount; i++) {
+				int v = newCache[i];
+				cachePosition[v] = (i < CACHE_SIZE) ? i : -1;
+
+				float newScore = score(cachePosition[v], remaining[v]);
+				float diff = newScore - vertexScore[v];
+				vertexScore[v] = newScore;
+
+				for (int j = offsets[v]; j < offsets[v] + remaining[v]; j++)
+					triangleScore[adjacency[j]] += diff;
+			}
+
+			// next triangle = best one touching the cache
+			bestTriangle = -1;
+			float bestScore = -1;
+			for (int i = 0; i < newCount && i < CACHE_SIZE; i++) {
+				int v = newCache[i];
+				for (int j = offsets[v]; j < offsets[v] + remaining[v]; j++) {
+					int adj = adjacency[j];
+					if (triangleScore[adj] > bestScore) {
+						bestScore = triangleScore[adj];
+						bestTriangle = adj;
+					}
+				}
+			}
+
+			// swap caches
+			int[] tmp = cache;
+			cache = newCache;
+			newCache = tmp;
+			cacheCount = Math.min(newCount, CACHE_SIZE);
+		}
+
+		System.arraycopy(output, 0, indices, 0, output.length);
+	}
+
+	/**
+	 * Reorders the vertices in the order the indices first use them and
+	 * rewrites the indices. Vertices no triangle uses are dropped.
+	 * @param vertices interleaved vertex data
+	 * @param stride # of floats per vertex
+	 * @param indices triangle list - rewritten in place
+	 * @param numIndices # of valid indices
+	 * @return the reordered vertices (a new array)
+	 */
+	public static float[] optimizeVertexFetch(float[] vertices, int stride, int[] indices, int numIndices) {
+		int numVertices = vertices.length / stride;
+		int[] remap = new int[numVertices];
+		Arrays.fill(remap, -1);
+
+		int next = 0;
+		for (int i = 0; i < numIndices; i++) {
+			int v = indices[i];
+			if (remap[v] < 0)
+				remap[v] = next++;
+			indices[i] = remap[v];
+		}
+
+		float[] reordered = new float[next * stride];
+		for (int v = 0; v < numVertices; v++)
+			if (remap[v] >= 0)
+				System.arraycopy(vertices, v * stride, reordered, remap[v] * stride, stride);
+
+		return reordered;
+	}
+
+	/**
+	 * Score of a vertex given its cache position and # of remaining triangles
+	 */
+	private static float score(int cachePosition, int remaining) {
+		if (remaining == 0)
+			return -1.0f; // no triangles left - doesn't matter
+
+		float score = (cachePosition >= 0) ? CACHE_POSITION_SCORE[cachePosition] : 0.0f;
+
+		// bonus for vertices with few triangles left, to get rid of lone ones
+		if (remaining < MAX_VALENCE_TABLE)
+			score += VALENCE_SCORE[remaining];
+		else
+			score += VALENCE_BOOST_SCALE * (float)Math.pow(remaining, -VALENCE_BOOST_POWER);
+
+		return score;
+	}
+}
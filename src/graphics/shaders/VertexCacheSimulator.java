@@ -0,0 +1,136 @@
+/**
+ * Simulates a FIFO post-transform vertex cache, the kind most mobile GPUs have.
+ * Reports
+ *  - ACMR: average cache miss ratio = transformed vertices / triangle (0.5 - 3)
+ *  - ATVR: average transformed vertex ratio = transformed / unique vertices (1 is ideal)
+ *
+ * Plain Java so it runs without a GPU:
+ *   java -cp bin/classes graphics.shaders.VertexCacheSimulator mesh.txt [cacheSize]
+ * prints the numbers before and after VertexCacheOptimizer.
+ */
+
+package graphics.shaders;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class VertexCacheSimulator {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	// a typical small mobile cache
+	public static final int DEFAULT_CACHE_SIZE = 16;
+
+	private int _cacheSize;
+
+	// results of the last simulate()
+	private int _numTriangles;
+	private int _numVertices;	// unique vertices used
+	private int _misses;
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	public VertexCacheSimulator() {
+		this(DEFAULT_CACHE_SIZE);
+	}
+
+	public VertexCacheSimulator(int cacheSize) {
+		this._cacheSize = cacheSize;
+	}
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * Runs the triangle list through the cache
+	 * @param indices triangle list
+	 * @param numIndices # of valid indices
+	 * @param numVertices # of vertices the indices refer to
+	 */
+	public void simulate(int[] indices, int numIndices, int numVertices) {
+		// FIFO: a vertex is cached if fewer than cacheSize misses happened
+		// since it was loaded
+		int[] loadedAt = new int[numVertices];
+		boolean[] seen = new boolean[numVertices];
+
+		_misses = 0;
+		_numVertices = 0;
+		_numTriangles = numIndices / 3;
+
+		for (int i = 0; i < _numTriangles * 3; i++) {
+			int v = indices[i];
+			if (!seen[v]) {
+				seen[v] = true;
+				_numVertices++;
+			}
+			else if (_misses - loadedAt[v] < _cacheSize) {
+				continue; // hit
+			}
+
+			loadedAt[v] = _misses;
+			_misses++;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: VertexCacheSimulator mesh.txt [cacheSize]");
+			System.exit(1);
+		}
+		int cacheSize = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_CACHE_SIZE;
+
+		MeshParser parser = new MeshParser();
+		InputStream in = new FileInputStream(args[0]);
+		try {
+			parser.parse(in);
+		} finally {
+			in.close();
+		}
+
+		float[] vertices = parser.get_vertices();
+		int[] indices = parser.get_indices();
+		VertexCacheSimulator sim = new VertexCacheSimulator(cacheSize);
+
+		sim.simulate(indices, indices.length, parser.get_numVertices());
+		System.out.println("before: " + sim);
+
+		VertexCacheOptimizer.optimize(indices, indices.length, parser.get_numVertices());
+		VertexCacheOptimizer.optimizeVertexFetch(vertices, MeshParser.VERTEX_ARRAY_SIZE, indices, indices.length);
+		sim.simulate(indices, indices.length, parser.get_numVertices());
+		System.out.println("after:  " + sim);
+	}
+
+	public String toString() {
+		return "ACMR " + get_acmr() + ", ATVR " + get_atvr() + " (cache size " + _cacheSize
+				+ ", " + _numTriangles + " triangles, " + _numVertices + " vertices)";
+	}
+
+	/***************************
+	 * GET/SET
+	 *************************/
+
+	/**
+	 * @return average cache miss ratio - vertex shader runs per triangle
+	 */
+	public float get_acmr() {
+		return _numTriangles == 0 ? 0 : (float)_misses / _numTriangles;
+	}
+
+	/**
+	 * @return average transformed vertex ratio - vertex shader runs per vertex
+	 */
+	public float get_atvr() {
+		return _numVertices == 0 ? 0 : (float)_misses / _numVertices;
+	}
+
+	public int get_misses() {
+		return _misses;
+	}
+
+	public int get_cacheSize() {
+		return _cacheSize;
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * Describes how a vertex is laid out in a vertex buffer: for each attribute
+ * its # of components, GL type, normalization and byte offset, plus the
+ * per-mesh scale/offset the vertex shader uses to dequantize it.
+ *
+ * FLOAT is the classic layout - 8 floats, 32 bytes:
+ *   position (3 floats) | normal (3 floats) | texcoord (2 floats)
+ * FLOAT_TANGENTS adds the tangent - 12 floats, 48 bytes:
+ *   ... | tangent (3 floats + handedness)
+ * QUANTIZED is 16 bytes (see VertexQuantizer):
+ *   position (3 unsigned shorts + pad) | oct normal (2 unsigned bytes + pad) | texcoord (2 unsigned shorts)
+ * and with tangents still 16 bytes - the pads hold them:
+ *   position (3 unsigned shorts + handedness) | oct normal (2 bytes) + oct tangent (2 bytes) | texcoord
+ */
+
+package graphics.shaders;
+
+import android.opengl.GLES20;
+
+public class VertexFormat {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	// attributes
+	public static final int POSITION = 0;
+	public static final int NORMAL = 1;
+	public static final int TEXCOORD = 2;
+	public static final int TANGENT = 3;
+	public static final int NUM_ATTRIBUTES = 4;
+
+	// format ids - stored in binary mesh files
+	private static final int FLAG_QUANTIZED = 1;
+	private static final int FLAG_TANGENTS = 2;
+	public static final int ID_FLOAT = 0;
+	public static final int ID_QUANTIZED = FLAG_QUANTIZED;
+	public static final int ID_FLOAT_TANGENTS = FLAG_TANGENTS;
+	public static final int ID_QUANTIZED_TANGENTS = FLAG_QUANTIZED | FLAG_TANGENTS;
+
+	// The float layouts
+	public static final VertexFormat FLOAT = createFloat(false);
+	public static final VertexFormat FLOAT_TANGENTS = createFloat(true);
+
+	private int _id;
+	private int _stride;	// bytes
+
+	// per attribute
+	private int[] _size = new int[NUM_ATTRIBUTES];
+	private int[] _type = new int[NUM_ATTRIBUTES];
+	private boolean[] _normalized = new boolean[NUM_ATTRIBUTES];
+	private int[] _offset = new int[NUM_ATTRIBUTES];
+
+	// dequantization: value = stored * scale + offset
+	private float[] _positionScale = {1, 1, 1};
+	private float[] _positionOffset = {0, 0, 0};
+	private float[] _texCoordScaleOffset = {1, 1, 0, 0}; // scale u, v, offset u, v
+
+	/***************************
+	 * CONSTRUCTOR(S)
+	 **************************/
+	private VertexFormat(int id, int stride) {
+		this._id = id;
+		this._stride = stride;
+	}
+
+	private static VertexFormat createFloat(boolean tangents) {
+		VertexFormat f = new VertexFormat(tangents ? ID_FLOAT_TANGENTS : ID_FLOAT, (tangents ? 12 : 8) * 4);
+		f.setAttribute(POSITION, 3, GLES20.GL_FLOAT, false, 0);
+		f.setAttribute(NORMAL,   3, GLES20.GL_FLOAT, false, 3 * 4);
+		f.setAttribute(TEXCOORD, 2, GLES20.GL_FLOAT, false, 6 * 4);
+		if (tangents)
+			f.setAttribute(TANGENT, 4, GLES20.GL_FLOAT, false, 8 * 4);
+		return f;
+	}
+
+	/**
+	 * Creates the quantized layout for one mesh
+	 * @param positionScale size of the mesh's bounding box
+	 * @param positionOffset minimum corner of the bounding box
+	 * @param texCoordScaleOffset {scale u, scale v, min u, min v}
+	 * @param tangents true to include tangents
+	 */
+	public static VertexFormat createQuantized(float[] positionScale, float[] positionOffset, float[] texCoordScaleOffset,
+			boolean tangents) {
+		VertexFormat f = new VertexFormat(tangents ? ID_QUANTIZED_TANGENTS : ID_QUANTIZED, 16);
+		// with tangents, position.w is the handedness (0 = -1, 1 = +1)
+		f.setAttribute(POSITION, tangents ? 4 : 3, GLES20.GL_UNSIGNED_SHORT, true, 0);
+		f.setAttribute(NORMAL,   2, GLES20.GL_UNSIGNED_BYTE,  true, 8);
+		f.setAttribute(TEXCOORD, 2, GLES20.GL_UNSIGNED_SHORT, true, 12);
+		if (tangents)
+			f.setAttribute(TANGENT, 2, GLES20.GL_UNSIGNED_BYTE, true, 10);
+		System.arraycopy(positionScale, 0, f._positionScale, 0, 3);
+		System.arraycopy(positionOffset, 0, f._positionOffset, 0, 3);
+		System.arraycopy(texCoordScaleOffset, 0, f._texCoordScaleOffset, 0, 4);
+		return f;
+	}
+
+	private void setAttribute(int attribute, int size, int type, boolean normalized, int offset) {
+		_size[attribute] = size;
+		_type[attribute] = type;
+		_normalized[attribute] = normalized;
+		_offset[attribute] = offset;
+	}
+
+	/***************************
+	 * GET/SET
+	 *************************/
+	public int get_id() {
+		return _id;
+	}
+
+	public boolean isQuantized() {
+		return (_id & FLAG_QUANTIZED) != 0;
+	}
+
+	public boolean hasTangents() {
+		return (_id & FLAG_TANGENTS) != 0;
+	}
+
+	/**
+	 * @return true if the layout has the attribute
+	 */
+	public boolean hasAttribute(int attribute) {
+		return _size[attribute] > 0;
+	}
+
+	/**
+	 * @return bytes per vertex
+	 */
+	public int get_stride() {
+		return _stride;
+	}
+
+	public int get_size(int attribute) {
+		return _size[attribute];
+	}
+
+	public int get_type(int attribute) {
+		return _type[attribute];
+	}
+
+	public boolean isNormalized(int attribute) {
+		return _normalized[attribute];
+	}
+
+	public int get_offset(int attribute) {
+		return _offset[attribute];
+	}
+
+	public float[] get_positionScale() {
+		return _positionScale;
+	}
+
+	public float[] get_positionOffset() {
+		return _positionOffset;
+	}
+
+	public float[] get_texCoordScaleOffset() {
+		return _texCoordScaleOffset;
+	}
+}
@@ -0,0 +1,327 @@
+/**
+ * Encodes/decodes the QUANTIZED vertex layout (see VertexFormat).
+ *
+ *  - positions: 16-bit unsigned normalized, relative to the mesh's bounding box
+ *    error <= box size / (2 * 65535) per axis (+ float rounding)
+ *  - normals: octahedral encoding in 2 unsigned bytes
+ *    error <= NORMAL_ERROR_BOUND_DEGREES (the encoder picks the best of the
+ *    4 neighbouring grid points)
+ *  - texcoords: 16-bit unsigned normalized, relative to the mesh's uv range
+ *    error <= uv range / (2 * 65535) (+ float rounding)
+ *  - tangents: octahedral like normals, handedness in position.w
+ *
+ * The vertex shaders undo this with the posScale/posOffset/uvScaleOffset
+ * uniforms and decodeNormal().
+ */
+
+package graphics.shaders;
+
+import java.nio.ByteBuffer;
+
+public class VertexQuantizer {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	private static final int MAX_SHORT = 65535;
+	private static final int MAX_BYTE = 255;
+
+	// worst case angle between a unit normal and its decoded 2x8 bit oct encoding
+	public static final float NORMAL_ERROR_BOUND_DEGREES = 0.64f;
+
+	// the float layout this encodes from
+	private static final int STRIDE = MeshParser.VERTEX_ARRAY_SIZE;
+
+	private VertexQuantizer() {
+
+	}
+
+	/**************************
+	 * OTHER METHODS
+	 *************************/
+
+	/**
+	 * Works out the dequantization scale/offset for a mesh
+	 * @param vertices interleaved float vertices
+	 * @param numVertices # of vertices
+	 * @param tangents true if the layout should have tangents
+	 */
+	public static VertexFormat computeFormat(float[] vertices, int numVertices, boolean tangents) {
+		float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+		float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+
+		for (int i = 0; i < numVertices; i++) {
+			for (int k = 0; k < 3; k++) {
+				min[k] = Math.min(min[k], vertices[i * STRIDE + k]);
+				max[k] = Math.max(max[k], vertices[i * STRIDE + k]);
+			}
+			for (int k = 0; k < 2; k++) {
+				min[3 + k] = Math.min(min[3 + k], vertices[i * STRIDE + 6 + k]);
+				max[3 + k] = Math.max(max[3 + k], vertices[i * STRIDE + 6 + k]);
+			}
+		}
+		if (numVertices == 0) {
+			for (int k = 0; k < 5; k++)
+				min[k] = max[k] = 0;
+		}
+
+		float[] positionScale = new float[3];
+		float[] positionOffset = new float[3];
+		for (int k = 0; k < 3; k++) {
+			positionScale[k] = range(min[k], max[k]);
+			positionOffset[k] = min[k];
+		}
+		float[] texCoordScaleOffset = {range(min[3], max[3]), range(min[4], max[4]), min[3], min[4]};
+
+		return VertexFormat.createQuantized(positionScale, positionOffset, texCoordScaleOffset, tangents);
+	}
+
+	private static float range(float min, float max) {
+		return (max > min) ? max - min : 1.0f;
+	}
+
+	/**
+	 * Encodes float vertices into out, starting at out's position.
+	 * out needs numVertices * format.get_stride() bytes.
+	 * @param tangents TangentGenerator output - only read if the format has tangents
+	 * @param format any layout - float layouts are just interleaved
+	 */
+	public static void encode(float[] vertices, float[] tangents, int numVertices, VertexFormat format, ByteBuffer out) {
+		if (!format.isQuantized()) {
+			encodeFloat(vertices, tangents, numVertices, format, out);
+			return;
+		}
+
+		float[] ps = format.get_positionScale();
+		float[] po = format.get_positionOffset();
+		float[] tc = format.get_texCoordScaleOffset();
+		int base = out.position();
+
+		for (int i = 0; i < numVertices; i++) {
+			int v = i * STRIDE;
+			int o = base + i * format.get_stride();
+
+			// position + pad
+			for (int k = 0; k < 3; k++)
+				out.putShort(o + k * 2, (short)quantize((vertices[v + k] - po[k]) / ps[k], MAX_SHORT));
+			out.putShort(o + 6, (short)0);
+
+			// oct normal + pad
+			int oct = encodeOct(vertices[v + 3], vertices[v + 4], vertices[v + 5]);
+			out.put(o + 8, (byte)(oct & 0xff));
+			out.put(o + 9, (byte)(oct >> 8));
+			out.putShort(o + 10, (short)0);
+
+			// texcoord
+			out.putShort(o + 12, (short)quantize((vertices[v + 6] - tc[2]) / tc[0], MAX_SHORT));
+			out.putShort(o + 14, (short)quantize((vertices[v + 7] - tc[3]) / tc[1], MAX_SHORT));
+
+			// oct tangent in the normal's pad, handedness in the position's
+			if (format.hasTangents()) {
+				int t = i * TangentGenerator.TANGENT_SIZE;
+				int octT = encodeOct(tangents[t], tangents[t + 1], tangents[t + 2]);
+				out.put(o + 10, (byte)(octT & 0xff));
+				out.put(o + 11, (byte)(octT >> 8));
+				out.putShort(o + 6, (short)(tangents[t + 3] < 0 ? 0 : MAX_SHORT));
+			}
+		}
+	}
+
+	private static void encodeFloat(float[] vertices, float[] tangents, int numVertices, VertexFormat format, ByteBuffer out) {
+		int base = out.position();
+		for (int i = 0; i < numVertices; i++) {
+			int o = base + i * format.get_stride();
+			for (int k = 0; k < STRIDE; k++)
+				out.putFloat(o + k * 4, vertices[i * STRIDE + k]);
+
+			if (format.hasTangents()) {
+				int t = i * TangentGenerator.TANGENT_SIZE;
+				for (int k = 0; k < TangentGenerator.TANGENT_SIZE; k++)
+					out.putFloat(o + format.get_offset(VertexFormat.TANGENT) + k * 4, tangents[t + k]);
+			}
+		}
+	}
+
+	/**
+	 * Decodes one vertex back to the float layout
+	 * @param data encoded vertices (position 0 = vertex 0)
+	 * @param out 8 floats are written at outOffset
+	 */
+	public static void decode(ByteBuffer data, int vertex, VertexFormat format, float[] out, int outOffset) {
+		float[] ps = format.get_positionScale();
+		float[] po = format.get_positionOffset();
+		float[] tc = format.get_texCoordScaleOffset();
+		int o = vertex * format.get_stride();
+
+		for (int k = 0; k < 3; k++)
+			out[outOffset + k] = (data.getShort(o + k * 2) & 0xffff) / (float)MAX_SHORT * ps[k] + po[k];
+
+		decodeOct(data.get(o + 8) & 0xff, data.get(o + 9) & 0xff, out, outOffset + 3);
+
+		out[outOffset + 6] = (data.getShort(o + 12) & 0xffff) / (float)MAX_SHORT * tc[0] + tc[2];
+		out[outOffset + 7] = (data.getShort(o + 14) & 0xffff) / (float)MAX_SHORT * tc[1] + tc[3];
+	}
+
+	/**
+	 * Decodes the tangent of one quantized vertex
+	 * @param out x, y, z, handedness are written at outOffset
+	 */
+	public static void decodeTangent(ByteBuffer data, int vertex, VertexFormat format, float[] out, int outOffset) {
+		int o = vertex * format.get_stride();
+		decodeOct(data.get(o + 10) & 0xff, data.get(o + 11) & 0xff, out, outOffset);
+		out[outOffset + 3] = (data.getShort(o + 6) & 0xffff) > MAX_SHORT / 2 ? 1.0f : -1.0f;
+	}
+
+	/**
+	 * Measures the actual error of an encoded mesh
+	 * @return {max position error, max normal error in degrees, max texcoord error}
+	 */
+	public static float[] measureError(float[] vertices, int numVertices, ByteBuffer data, VertexFormat format) {
+		float[] error = new float[3];
+		float[] decoded = new float[STRIDE];
+
+		for (int i = 0; i < numVertices; i++) {
+			decode(data, i, format, decoded, 0);
+			int v = i * STRIDE;
+
+			for (int k = 0; k < 3; k++)
+				error[0] = Math.max(error[0], Math.abs(decoded[k] - vertices[v + k]));
+
+			float len = length(vertices[v + 3], vertices[v + 4], vertices[v + 5]);
+			if (len > 0)
+				error[1] = Math.max(error[1], angle(vertices[v + 3] / len, vertices[v + 4] / len, vertices[v + 5] / len,
+						decoded[3], decoded[4], decoded[5]));
+
+			for (int k = 6; k < 8; k++)
+				error[2] = Math.max(error[2], Math.abs(decoded[k] - vertices[v + k]));
+		}
+		return error;
+	}
+
+	/**
+	 * @return the worst case position error (object units) for the format:
+	 * half a quantization step + float rounding of the decode
+	 */
+	public static float positionErrorBound(VertexFormat format) {
+		float[] ps = format.get_positionScale();
+		float[] po = format.get_positionOffset();
+		float bound = 0;
+		for (int k = 0; k < 3; k++)
+			bound = Math.max(bound, ps[k] / (2.0f * MAX_SHORT) + 2 * Math.ulp(Math.abs(po[k]) + ps[k]));
+		return bound;
+	}
+
+	/**
+	 * @return the worst case texcoord error for the format
+	 */
+	public static float texCoordErrorBound(VertexFormat format) {
+		float[] tc = format.get_texCoordScaleOffset();
+		float bound = 0;
+		for (int k = 0; k < 2; k++)
+			bound = Math.max(bound, tc[k] / (2.0f * MAX_SHORT) + 2 * Math.ulp(Math.abs(tc[2 + k]) + tc[k]));
+		return bound;
+	}
+
+	/**************************
+	 * OCTAHEDRAL NORMALS
+	 *************************/
+
+	/**
+	 * Octahedral encoding of a normal in 2 unsigned bytes.
+	 * Tries the 4 grid points around the exact projection and keeps the
+	 * one that decodes closest to the input.
+	 * @return x byte | y byte << 8
+	 */
+	public static int encodeOct(float x, float y, float z) {
+		float l1 = Math.abs(x) + Math.abs(y) + Math.abs(z);
+		if (l1 == 0)
+			return encodeOct(0, 0, 1);
+
+		// project onto the octahedron, fold the lower half over
+		float px = x / l1;
+		float py = y / l1;
+		if (z < 0) {
+			float fx = (1 - Math.abs(py)) * signNotZero(px);
+			float fy = (1 - Math.abs(px)) * signNotZero(py);
+			px = fx;
+			py = fy;
+		}
+
+		// [-1, 1] -> [0, 255]
+		float ux = (px * 0.5f + 0.5f) * MAX_BYTE;
+		float uy = (py * 0.5f + 0.5f) * MAX_BYTE;
+
+		int best = 0;
+		float bestDot = -2;
+		for (int i = 0; i < 4; i++) {
+			int cx = clamp((int)Math.floor(ux) + (i & 1), MAX_BYTE);
+			int cy = clamp((int)Math.floor(uy) + (i >> 1), MAX_BYTE);
+			float dot = octDot(cx, cy, x, y, z);
+			if (dot > bestDot) {
+				bestDot = dot;
+				best = cx | (cy << 8);
+			}
+		}
+		return best;
+	}
+
+	// decoded (cx, cy) . (x, y, z) without normalizing (x, y, z) - for ranking
+	private static float octDot(int cx, int cy, float x, float y, float z) {
+		float dx = cx / (float)MAX_BYTE * 2 - 1;
+		float dy = cy / (float)MAX_BYTE * 2 - 1;
+		float dz = 1 - Math.abs(dx) - Math.abs(dy);
+		if (dz < 0) {
+			float fx = (1 - Math.abs(dy)) * signNotZero(dx);
+			float fy = (1 - Math.abs(dx)) * signNotZero(dy);
+			dx = fx;
+			dy = fy;
+		}
+		return (dx * x + dy * y + dz * z) / length(dx, dy, dz);
+	}
+
+	/**
+	 * Decodes an oct normal - same math as decodeNormal() in the vertex shaders
+	 */
+	public static void decodeOct(int ex, int ey, float[] out, int offset) {
+		float x = ex / (float)MAX_BYTE * 2 - 1;
+		float y = ey / (float)MAX_BYTE * 2 - 1;
+		float z = 1 - Math.abs(x) - Math.abs(y);
+		if (z < 0) {
+			float fx = (1 - Math.abs(y)) * signNotZero(x);
+			float fy = (1 - Math.abs(x)) * signNotZero(y);
+			x = fx;
+			y = fy;
+		}
+
+		float len = length(x, y, z);
+		out[offset]     = x / len;
+		out[offset + 1] = y / len;
+		out[offset + 2] = z / len;
+	}
+
+	/**************************
+	 * HELPERS
+	 *************************/
+
+	// value in [0, 1] -> [0, max]
+	private static int quantize(float value, int max) {
+		return clamp(Math.round(value * max), max);
+	}
+
+	private static int clamp(int value, int max) {
+		return value < 0 ? 0 : (value > max ? max : value);
+	}
+
+	private static float signNotZero(float v) {
+		return v >= 0 ? 1.0f : -1.0f;
+	}
+
+	private static float length(float x, float y, float z) {
+		return (float)Math.sqrt(x * x + y * y + z * z);
+	}
+
+	// angle between two unit vectors in degrees
+	private static float angle(float ax, float ay, float az, float bx, float by, float bz) {
+		float dot = ax * bx + ay * by + az * bz;
+		return (float)Math.toDegrees(Math.acos(Math.max(-1, Math.min(1, dot))));
+	}
+}
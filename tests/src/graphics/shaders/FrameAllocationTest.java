@@ -0,0 +1,170 @@
+/**
+ * The steady-state frame loop must not allocate.
+ *
+ * Runs the Renderer against a stub GL - no surface or context needed -
+ * warms it up (meshes, buffers, render targets, shader variants), then
+ * counts the allocations of the thread over FRAMES more frames.
+ */
+
+package graphics.shaders;
+
+import java.nio.Buffer;
+
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.os.Debug;
+import android.test.InstrumentationTestCase;
+
+public class FrameAllocationTest extends InstrumentationTestCase {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	private static final int WARMUP_FRAMES = 60;
+	private static final int FRAMES = 120;
+
+	private static final int WIDTH = 480;
+	private static final int HEIGHT = 800;
+
+	/**
+	 * Hands out ids, reports complete framebuffers and counts draws -
+	 * everything else is dropped. Allocates nothing itself.
+	 */
+	private static class StubGL implements GLState.GL {
+		int _nextId = 1;
+		int _draws;
+
+		private void gen(int n, int[] ids, int offset) {
+			for (int i = 0; i < n; i++)
+				ids[offset + i] = _nextId++;
+		}
+
+		public void useProgram(int program) {}
+		public void activeTexture(int texture) {}
+		public void bindTexture(int target, int texture) {}
+		public void enableVertexAttribArray(int index) {}
+		public void disableVertexAttribArray(int index) {}
+		public void uniform1f(int location, float x) {}
+		public void uniform1i(int location, int x) {}
+		public void uniform3fv(int location, int count, float[] v, int offset) {}
+		public void uniform4fv(int location, int count, float[] v, int offset) {}
+		public void uniformMatrix4fv(int location, int count, boolean transpose, float[] m, int offset) {}
+
+		public void clearColor(float red, float green, float blue, float alpha) {}
+		public void clear(int mask) {}
+		public void viewport(int x, int y, int width, int height) {}
+		public void bindFramebuffer(int target, int framebuffer) {}
+		public void bindBuffer(int target, int buffer) {}
+		public void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {}
+		public void vertexAttrib4f(int index, float x, float y, float z, float w) {}
+
+		public void drawElements(int mode, int count, int type, int offset) {
+			_draws++;
+		}
+
+		public int getError() {
+			return GLES20.GL_NO_ERROR;
+		}
+
+		public String getString(int name) {
+			return "";
+		}
+
+		public void enable(int cap) {}
+		public void clearDepthf(float depth) {}
+		public void depthFunc(int func) {}
+		public void depthMask(boolean flag) {}
+		public void cullFace(int mode) {}
+
+		public void genBuffers(int n, int[] buffers, int offset) {
+			gen(n, buffers, offset);
+		}
+
+		public void bufferData(int target, int size, Buffer data, int usage) {}
+		public void deleteBuffers(int n, int[] buffers, int offset) {}
+
+		public void genTextures(int n, int[] textures, int offset) {
+			gen(n, textures, offset);
+		}
+
+		public void deleteTextures(int n, int[] textures, int offset) {}
+		public void texParameteri(int target, int pname, int param) {}
+		public void texImage2D(int target, int level, int internalformat, int width, int height, int border,
+				int format, int type, Buffer pixels) {}
+		public void texImage2D(int target, int level, Bitmap bitmap) {}
+
+		public void genRenderbuffers(int n, int[] renderbuffers, int offset) {
+			gen(n, renderbuffers, offset);
+		}
+
+		public void bindRenderbuffer(int target, int renderbuffer) {}
+		public void renderbufferStorage(int target, int internalformat, int width, int height) {}
+		public void deleteRenderbuffers(int n, int[] renderbuffers, int offset) {}
+
+		public void genFramebuffers(int n, int[] framebuffers, int offset) {
+			gen(n, framebuffers, offset);
+		}
+
+		public void framebufferTexture2D(int target, int attachment, int textarget, int texture, int level) {}
+		public void framebufferRenderbuffer(int target, int attachment, int renderbuffertarget, int renderbuffer) {}
+
+		public int checkFramebufferStatus(int target) {
+			return GLES20.GL_FRAMEBUFFER_COMPLETE;
+		}
+
+		public void deleteFramebuffers(int n, int[] framebuffers, int offset) {}
+	}
+
+	private Renderer createRenderer(StubGL gl) {
+		Renderer renderer = new Renderer(getInstrumentation().getTargetContext(), gl);
+		renderer.onSurfaceCreated(null, null);
+		renderer.onSurfaceChanged(null, WIDTH, HEIGHT);
+		return renderer;
+	}
+
+	/**************************
+	 * TESTS
+	 *************************/
+	public void testSteadyStateFramesDoNotAllocate() {
+		StubGL gl = new StubGL();
+		Renderer renderer = createRenderer(gl);
+
+		for (int i = 0; i < WARMUP_FRAMES; i++)
+			renderer.onDrawFrame(null);
+		int draws = gl._draws;
+
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+		for (int i = 0; i < FRAMES; i++)
+			renderer.onDrawFrame(null);
+		Debug.stopAllocCounting();
+		int allocations = Debug.getThreadAllocCount();
+
+		// the scene and the present quad were drawn every frame
+		assertTrue("frames drew nothing", gl._draws - draws >= FRAMES * 2);
+		assertEquals("allocations in " + FRAMES + " frames", 0, allocations);
+	}
+
+	public void testSwitchingObjectsDoesNotAllocate() {
+		StubGL gl = new StubGL();
+		Renderer renderer = createRenderer(gl);
+		int numObjects = renderer._objects.length;
+
+		// every object drawn once, so its shader variant and buffers exist
+		for (int i = 0; i < WARMUP_FRAMES; i++) {
+			renderer.setObject(i % numObjects);
+			renderer.onDrawFrame(null);
+		}
+
+		// only the frames are counted - setObject() is the UI thread's and allocates its packet
+		Debug.resetThreadAllocCount();
+		for (int i = 0; i < FRAMES; i++) {
+			renderer.setObject(i % numObjects);
+			Debug.startAllocCounting();
+			renderer.onDrawFrame(null);
+			Debug.stopAllocCounting();
+		}
+		int allocations = Debug.getThreadAllocCount();
+
+		assertEquals("allocations in " + FRAMES + " frames switching objects", 0, allocations);
+	}
+}
@@ -0,0 +1,242 @@
+/**
+ * ProgramCache against a fake BinaryGL - no GL context. Covers the hit/miss
+ * logic and what happens to files that can't be used.
+ */
+
+package graphics.shaders;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import android.test.InstrumentationTestCase;
+
+public class ProgramCacheTest extends InstrumentationTestCase {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	private static final String VS = "attribute vec4 aPosition; void main() { gl_Position = aPosition; }";
+	private static final String FS = "void main() { gl_FragColor = vec4(1.0); }";
+
+	private static final int PROGRAM = 7;
+	private static final int LOADED_PROGRAM = 11;
+	private static final int FORMAT = 0x8741;
+	private static final byte[] BINARY = {1, 2, 3, 4, 5};
+
+	/**
+	 * Hands out BINARY for any program and remembers what it was asked to load
+	 */
+	private static class FakeBinaryGL implements ProgramCache.BinaryGL {
+		boolean _supported = true;
+		String _driver = "Vendor/Renderer/OpenGL ES 3.0 v1";
+		boolean _reject;
+
+		int _loads;
+		int _loadedFormat;
+		byte[] _loadedBinary;
+
+		public boolean isSupported() {
+			return _supported;
+		}
+
+		public String get_driver() {
+			return _driver;
+		}
+
+		public byte[] getBinary(int program, int[] format) {
+			format[0] = FORMAT;
+			return BINARY.clone();
+		}
+
+		public int loadBinary(int format, byte[] binary) {
+			_loads++;
+			_loadedFormat = format;
+			_loadedBinary = binary;
+			return _reject ? 0 : LOADED_PROGRAM;
+		}
+	}
+
+	private File _dir;
+	private FakeBinaryGL _gl;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		_dir = new File(getInstrumentation().getTargetContext().getCacheDir(), "program-cache-test");
+		deleteDir();
+		_gl = new FakeBinaryGL();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		deleteDir();
+		super.tearDown();
+	}
+
+	private void deleteDir() {
+		File[] files = _dir.listFiles();
+		if (files != null)
+			for (int i = 0; i < files.length; i++)
+				files[i].delete();
+		_dir.delete();
+	}
+
+	private ProgramCache createCache() {
+		ProgramCache cache = new ProgramCache(_dir, _gl);
+		cache.onContextCreated();
+		return cache;
+	}
+
+	// the one cache file - fails if there is another number of them
+	private File cacheFile() {
+		File[] files = _dir.listFiles();
+		assertNotNull(files);
+		assertEquals(1, files.length);
+		return files[0];
+	}
+
+	/**************************
+	 * TESTS
+	 *************************/
+	public void testMissStoreHit() {
+		ProgramCache cache = createCache();
+		assertTrue(cache.isSupported());
+
+		assertEquals(0, cache.load(VS, FS));
+		assertEquals(1, cache.get_misses());
+		assertEquals(0, _gl._loads);
+
+		cache.store(VS, FS, PROGRAM);
+		cacheFile();
+
+		// the next launch
+		cache = createCache();
+		assertEquals(LOADED_PROGRAM, cache.load(VS, FS));
+		assertEquals(1, cache.get_hits());
+		assertEquals(0, cache.get_misses());
+		assertEquals(FORMAT, _gl._loadedFormat);
+		assertTrue(Arrays.equals(BINARY, _gl._loadedBinary));
+	}
+
+	public void testOtherSourcesMiss() {
+		ProgramCache cache = createCache();
+		cache.store(VS, FS, PROGRAM);
+
+		assertEquals(0, cache.load(VS, FS + " "));
+		assertEquals(1, cache.get_misses());
+		assertEquals(0, _gl._loads);
+	}
+
+	public void testDriverChangeMisses() {
+		ProgramCache cache = createCache();
+		cache.store(VS, FS, PROGRAM);
+
+		// a driver update - the old binary must not be offered to it
+		_gl._driver = "Vendor/Renderer/OpenGL ES 3.0 v2";
+		cache = createCache();
+		assertEquals(0, cache.load(VS, FS));
+		assertEquals(1, cache.get_misses());
+		assertEquals(0, _gl._loads);
+
+		// stored again under the new driver
+		cache.store(VS, FS, PROGRAM);
+		assertEquals(LOADED_PROGRAM, cache.load(VS, FS));
+		assertEquals(1, cache.get_hits());
+	}
+
+	public void testCorruptFileIsDeleted() throws IOException {
+		ProgramCache cache = createCache();
+		cache.store(VS, FS, PROGRAM);
+
+		File file = cacheFile();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(new byte[] {'n', 'o', 'p', 'e'});
+		} finally {
+			out.close();
+		}
+
+		assertEquals(0, cache.load(VS, FS));
+		assertEquals(1, cache.get_misses());
+		assertEquals(0, cache.get_rejected());
+		assertEquals(0, _gl._loads);
+		assertFalse(file.exists());
+	}
+
+	public void testTruncatedFileIsDeleted() throws IOException {
+		ProgramCache cache = createCache();
+		cache.store(VS, FS, PROGRAM);
+
+		// header fine, binary cut short
+		File file = cacheFile();
+		byte[] header = new byte[12];
+		FileInputStream in = new FileInputStream(file);
+		try {
+			assertEquals(header.length, in.read(header));
+		} finally {
+			in.close();
+		}
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(header);
+			out.write(BINARY, 0, 2);
+		} finally {
+			out.close();
+		}
+
+		assertEquals(0, cache.load(VS, FS));
+		assertEquals(1, cache.get_misses());
+		assertFalse(file.exists());
+	}
+
+	public void testCorruptLengthIsDeleted() throws IOException {
+		ProgramCache cache = createCache();
+
+		// a negative length and one far past the end of the file
+		int[] lengths = {-1, 2000000000};
+		for (int i = 0; i < lengths.length; i++) {
+			cache.store(VS, FS, PROGRAM);
+			File file = cacheFile();
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.seek(8);
+				raf.writeInt(lengths[i]);
+			} finally {
+				raf.close();
+			}
+
+			assertEquals(0, cache.load(VS, FS));
+			assertEquals(i + 1, cache.get_misses());
+			assertEquals(0, _gl._loads);
+			assertFalse(file.exists());
+		}
+	}
+
+	public void testRejectedBinaryIsDeleted() {
+		ProgramCache cache = createCache();
+		cache.store(VS, FS, PROGRAM);
+		File file = cacheFile();
+
+		_gl._reject = true;
+		assertEquals(0, cache.load(VS, FS));
+		assertEquals(1, _gl._loads);
+		assertEquals(1, cache.get_rejected());
+		assertEquals(1, cache.get_misses());
+		assertEquals(0, cache.get_hits());
+		assertFalse(file.exists());
+	}
+
+	public void testUnsupportedAlwaysMisses() {
+		_gl._supported = false;
+		ProgramCache cache = createCache();
+		assertFalse(cache.isSupported());
+
+		cache.store(VS, FS, PROGRAM);
+		assertEquals(0, cache.load(VS, FS));
+		assertEquals(1, cache.get_misses());
+		assertFalse(_dir.exists() && _dir.list().length > 0);
+	}
+}
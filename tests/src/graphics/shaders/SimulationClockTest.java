@@ -0,0 +1,126 @@
+/**
+ * SimulationClock driven by a fake time source: whole ticks, the leftover
+ * alpha, the drop after a stall and no drift over a long run.
+ */
+
+package graphics.shaders;
+
+import junit.framework.TestCase;
+
+public class SimulationClockTest extends TestCase {
+	/*************************
+	 * PROPERTIES
+	 ************************/
+	private static final int TICKS_PER_SECOND = 25;		// 40 ms ticks
+	private static final int MAX_TICKS = 10;
+	private static final long MS = 1000000L;
+
+	/**
+	 * Time only moves when the test says so
+	 */
+	private static class FakeTime implements SimulationClock.TimeSource {
+		long _now = 123456789L;
+
+		public long nanoTime() {
+			return _now;
+		}
+	}
+
+	private FakeTime _time;
+	private SimulationClock _clock;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		_time = new FakeTime();
+		_clock = new SimulationClock(TICKS_PER_SECOND, MAX_TICKS, _time);
+	}
+
+	/**************************
+	 * TESTS
+	 *************************/
+	public void testNoTimeNoTicks() {
+		assertEquals(0, _clock.advance());
+		assertEquals(0, _clock.get_alpha(), 0);
+		assertEquals(0, _clock.get_ticks());
+	}
+
+	public void testWholeTicksAndAlpha() {
+		_time._now += 100 * MS;
+		assertEquals(2, _clock.advance());
+		assertEquals(0.5f, _clock.get_alpha(), 1e-6f);
+
+		// the leftover 20 ms count towards the next tick
+		_time._now += 20 * MS;
+		assertEquals(1, _clock.advance());
+		assertEquals(0, _clock.get_alpha(), 1e-6f);
+
+		_time._now += 10 * MS;
+		assertEquals(0, _clock.advance());
+		assertEquals(0.25f, _clock.get_alpha(), 1e-6f);
+		assertEquals(3, _clock.get_ticks());
+	}
+
+	public void testStallDropsTime() {
+		// a second is 25 ticks - only MAX_TICKS are run, the rest is gone
+		_time._now += 1000 * MS;
+		assertEquals(MAX_TICKS, _clock.advance());
+		assertEquals(0, _clock.get_alpha(), 0);
+		assertEquals(MAX_TICKS, _clock.get_ticks());
+
+		_time._now += 30 * MS;
+		assertEquals(0, _clock.advance());
+		assertEquals(0.75f, _clock.get_alpha(), 1e-6f);
+	}
+
+	public void testExactlyMaxTicksIsNotAStall() {
+		_time._now += MAX_TICKS * 40 * MS + 20 * MS;
+		assertEquals(MAX_TICKS, _clock.advance());
+		assertEquals(0.5f, _clock.get_alpha(), 1e-6f);
+	}
+
+	public void testResetForgetsTime() {
+		_time._now += 500 * MS;
+		_clock.reset();
+		assertEquals(0, _clock.advance());
+		assertEquals(0, _clock.get_alpha(), 0);
+	}
+
+	public void testTimeGoingBackIsIgnored() {
+		_time._now += 60 * MS;
+		assertEquals(1, _clock.advance());
+		_time._now -= 30 * MS;
+		assertEquals(0, _clock.advance());
+		assertEquals(0.5f, _clock.get_alpha(), 1e-6f);
+	}
+
+	public void testNoDriftOverALongRun() {
+		// ten hours of 60 Hz frames - every tick is accounted for
+		long frame = 1000000000L / 60;
+		int frames = 60 * 60 * 60 * 10;
+		long start = _time._now;
+		for (int i = 0; i < frames; i++) {
+			_time._now += frame;
+			_clock.advance();
+		}
+		long elapsed = _time._now - start;
+		assertEquals(elapsed / _clock.get_tickNanos(), _clock.get_ticks());
+		assertEquals((float)((double)(elapsed % _clock.get_tickNanos()) / _clock.get_tickNanos()),
+				_clock.get_alpha(), 1e-6f);
+	}
+
+	public void testTicksMustBePositive() {
+		try {
+			new SimulationClock(0, MAX_TICKS, _time);
+			fail("0 ticks per second");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			new SimulationClock(TICKS_PER_SECOND, 0, _time);
+			fail("0 ticks per frame");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}